@@ -0,0 +1,185 @@
+/* This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package com.hoho.android.usbserial.benchmark;
+
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbInterface;
+import android.hardware.usb.UsbManager;
+
+import com.hoho.android.usbserial.driver.CommonUsbSerialPort;
+import com.hoho.android.usbserial.driver.UsbTransport;
+
+import java.io.IOException;
+
+/**
+ * Port without a device, for measuring the CPU cost of the code around the
+ * transfers. Writes are accepted completely by a transport which does
+ * nothing. Reads return {@link #setReadLength(int) a fixed number of bytes}
+ * immediately, and run an action after a given number of reads.
+ */
+public class BenchmarkPort extends CommonUsbSerialPort {
+
+    /**
+     * Transport which completes every transfer at once.
+     */
+    private static final class NullTransport implements UsbTransport {
+        @Override
+        public int bulkTransfer(UsbEndpoint endpoint, byte[] buffer, int length, int timeout) {
+            return length;
+        }
+
+        @Override
+        public int controlTransfer(int requestType, int request, int value, int index,
+                byte[] buffer, int length, int timeout) {
+            return length;
+        }
+
+        @Override
+        public boolean claimInterface(UsbInterface intf, boolean force) {
+            return true;
+        }
+
+        @Override
+        public boolean releaseInterface(UsbInterface intf) {
+            return true;
+        }
+
+        @Override
+        public byte[] getRawDescriptors() {
+            return null;
+        }
+
+        @Override
+        public UsbDeviceConnection getConnection() {
+            return null;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private final UsbTransport mTransport = new NullTransport();
+
+    private int mReadLength = 0;
+    private int mReadsLeft = -1;
+    private Runnable mReadLimitAction;
+
+    /**
+     * Sets the number of bytes which each read returns, at most the length
+     * requested by the caller.
+     */
+    public void setReadLength(int readLength) {
+        mReadLength = readLength;
+    }
+
+    /**
+     * Runs {@code action} once {@code reads} further reads have been made.
+     */
+    public void setReadLimit(int reads, Runnable action) {
+        mReadsLeft = reads;
+        mReadLimitAction = action;
+    }
+
+    @Override
+    public int read(byte[] dest, int offset, int length, int timeoutMillis) {
+        if ((mReadsLeft > 0) && (--mReadsLeft == 0)) {
+            mReadLimitAction.run();
+        }
+        return Math.min(length, mReadLength);
+    }
+
+    @Override
+    protected void initPortSepcific(UsbManager usbManager) {
+    }
+
+    @Override
+    protected void deinitPortSpecific() {
+    }
+
+    @Override
+    protected void portClosed() {
+    }
+
+    @Override
+    public UsbDeviceConnection getConnection() {
+        return null;
+    }
+
+    @Override
+    public UsbTransport getTransport() {
+        return mTransport;
+    }
+
+    @Override
+    public UsbEndpoint getReadEndpoint() {
+        return null;
+    }
+
+    @Override
+    public UsbEndpoint getWriteEndpoint() {
+        return null;
+    }
+
+    @Override
+    public int setParameters(int baudRate, int dataBits, int stopBits, int parity)
+            throws IOException {
+        return baudRate;
+    }
+
+    @Override
+    public boolean getCD() {
+        return false;
+    }
+
+    @Override
+    public boolean getCTS() {
+        return false;
+    }
+
+    @Override
+    public boolean getDSR() {
+        return false;
+    }
+
+    @Override
+    public boolean getDTR() {
+        return false;
+    }
+
+    @Override
+    public void setDTR(boolean value) {
+    }
+
+    @Override
+    public boolean getRI() {
+        return false;
+    }
+
+    @Override
+    public boolean getRTS() {
+        return false;
+    }
+
+    @Override
+    public void setRTS(boolean value) {
+    }
+
+}
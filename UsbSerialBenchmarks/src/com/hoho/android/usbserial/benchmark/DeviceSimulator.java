@@ -0,0 +1,162 @@
+/* This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package com.hoho.android.usbserial.benchmark;
+
+import com.hoho.android.usbserial.util.SimulatedUsbTransport;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The device side of a {@link HarnessPort}: the serial peer attached to the
+ * emulated adapter, which either echoes everything the host sends, or sends
+ * messages on its own (see {@link IoManagerHarness.Scenario}).
+ *
+ * <p/>
+ * The serial line runs at the configured baud rate, with 10 bits per byte:
+ * data reaches the adapter's buffer no faster than the line can carry it.
+ * Sources produce messages at a fixed rate, evenly spaced or in bursts; a
+ * message which does not fit into the adapter's buffer anymore, because the
+ * host does not read fast enough, is dropped as a whole. With a rate of 0,
+ * sources send back to back and wait for buffer space instead.
+ */
+final class DeviceSimulator implements Runnable {
+
+    private static final int POLL_MILLIS = 100;
+    private static final int BITS_PER_BYTE = 10;
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    /** Size of the chunks in which echoed data is passed back. */
+    private static final int ECHO_CHUNK_SIZE = 64;
+
+    private final IoManagerHarness.Config mConfig;
+    private final SimulatedUsbTransport mTransport;
+
+    private volatile boolean mRunning = true;
+    private volatile boolean mMeasuring = false;
+
+    // Only used by the thread executing run()
+    private long mLineFreeNanos = 0;
+    private int mSequence = 0;
+
+    // Written by the thread executing run(), read once it has ended
+    private long mDroppedBytes = 0;
+
+    DeviceSimulator(IoManagerHarness.Config config, SimulatedUsbTransport transport) {
+        mConfig = config;
+        mTransport = transport;
+    }
+
+    /**
+     * Makes {@link #run()} return soon; the caller should interrupt the
+     * thread executing it as well.
+     */
+    void stop() {
+        mRunning = false;
+    }
+
+    /**
+     * Starts or stops counting dropped data.
+     */
+    void setMeasuring(boolean measuring) {
+        mMeasuring = measuring;
+    }
+
+    /**
+     * Returns the number of bytes dropped while measuring. Only valid once
+     * {@link #run()} has returned.
+     */
+    long getDroppedBytes() {
+        return mDroppedBytes;
+    }
+
+    @Override
+    public void run() {
+        if (mConfig.scenario == IoManagerHarness.Scenario.ECHO) {
+            runEcho();
+        } else {
+            runSource();
+        }
+    }
+
+    private void runEcho() {
+        final byte[] chunk = new byte[ECHO_CHUNK_SIZE];
+        while (mRunning) {
+            final int count = mTransport.receiveFromHost(chunk, 0, chunk.length, POLL_MILLIS);
+            if (count > 0) {
+                transmit(count);
+                sendFully(chunk, count);
+            }
+        }
+    }
+
+    private void runSource() {
+        final int burstSize = (mConfig.scenario == IoManagerHarness.Scenario.BURSTY)
+                ? mConfig.burstSize : 1;
+        final long burstIntervalNanos = (mConfig.messageRate > 0)
+                ? burstSize * NANOS_PER_SECOND / mConfig.messageRate : 0;
+        final byte[] message = new byte[mConfig.messageSize];
+
+        long nextBurstNanos = System.nanoTime();
+        while (mRunning) {
+            if (burstIntervalNanos > 0) {
+                parkUntil(nextBurstNanos);
+                nextBurstNanos += burstIntervalNanos;
+            }
+            for (int i = 0; (i < burstSize) && mRunning; ++i) {
+                transmit(message.length);
+                IoManagerHarness.writeHeader(message, mSequence++, System.nanoTime());
+                if (burstIntervalNanos == 0) {
+                    sendFully(message, message.length);
+                } else if (mTransport.getPendingToHost() + message.length
+                        > mTransport.getBufferCapacity()) {
+                    if (mMeasuring) {
+                        mDroppedBytes += message.length;
+                    }
+                } else {
+                    mTransport.sendToHost(message, 0, message.length);
+                }
+            }
+        }
+    }
+
+    // Waits until 'count' more bytes have passed the serial line.
+    private void transmit(int count) {
+        if (mConfig.baudRate <= 0) {
+            return;
+        }
+        mLineFreeNanos = Math.max(mLineFreeNanos, System.nanoTime())
+                + count * BITS_PER_BYTE * NANOS_PER_SECOND / mConfig.baudRate;
+        parkUntil(mLineFreeNanos);
+    }
+
+    private void sendFully(byte[] data, int length) {
+        int offset = 0;
+        while ((offset < length) && mRunning) {
+            offset += mTransport.sendToHost(data, offset, length - offset, POLL_MILLIS);
+        }
+    }
+
+    private void parkUntil(long deadlineNanos) {
+        long remaining;
+        while (mRunning && ((remaining = deadlineNanos - System.nanoTime()) > 0)) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+}
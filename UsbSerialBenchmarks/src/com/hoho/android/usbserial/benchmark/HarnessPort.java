@@ -0,0 +1,315 @@
+/* This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package com.hoho.android.usbserial.benchmark;
+
+import com.hoho.android.usbserial.driver.UsbSerialDriver;
+import com.hoho.android.usbserial.driver.UsbSerialPort;
+import com.hoho.android.usbserial.util.IoMetrics;
+import com.hoho.android.usbserial.util.LatencyHistogram;
+import com.hoho.android.usbserial.util.SerialInputOutputManager;
+import com.hoho.android.usbserial.util.SerialInputOutputManager.WriteOverflowPolicy;
+import com.hoho.android.usbserial.util.SimulatedUsbTransport;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * One port of an {@link IoManagerHarness} run: an emulated device with its
+ * {@link DeviceSimulator}, the {@link SerialInputOutputManager} servicing
+ * it, and, in the echo scenario, a thread sending messages through the
+ * manager.
+ *
+ * <p/>
+ * Received messages are reassembled and checked for gaps in their sequence
+ * numbers. The latency of a message is the time from its timestamp, set by
+ * the sender, to the listener callback which completes it. Statistics only
+ * cover the time while measuring.
+ */
+final class HarnessPort {
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+    private static final long NANOS_PER_MICRO = 1000L;
+    private static final long JOIN_MILLIS = 5000;
+    private static final long ECHO_WAIT_MILLIS = 1000;
+
+    /** Configured if the serial line is not limited. */
+    private static final int UNLIMITED_BAUD_RATE = 3000000;
+
+    private final IoManagerHarness.Config mConfig;
+    private final SimulatedUsbTransport mTransport;
+    private final DeviceSimulator mDevice;
+    private final UsbSerialPort mPort;
+    private final SerialInputOutputManager mManager;
+
+    private final Thread mManagerThread;
+    private final Thread mDeviceThread;
+    private final Thread mSenderThread;
+
+    // Only used by the thread calling start() and stop()
+    private boolean mStarted = false;
+
+    private volatile boolean mRunning = true;
+    private volatile boolean mMeasuring = false;
+    private volatile Exception mError;
+
+    // Released for each message received, if the echo sender waits for it
+    private final Semaphore mEchoed = new Semaphore(0);
+    private final boolean mPingPong;
+
+    // Only used by the listener
+    private final byte[] mMessage;
+    private int mMessageLength = 0;
+    private int mExpectedSequence = 0;
+
+    // Written by the listener (or the sender), read once the threads have
+    // ended
+    private final LatencyHistogram mLatency = new LatencyHistogram();
+    private long mReceivedBytes = 0;
+    private long mLostMessages = 0;
+    private long mDroppedBytes = 0;
+
+    // Only used by the thread calling setMeasuring()
+    private IoMetrics.Snapshot mManagerMetrics;
+
+    HarnessPort(IoManagerHarness.Config config, int index) throws IOException {
+        mConfig = config;
+        mTransport = new SimulatedUsbTransport(config.device);
+        mTransport.setBufferCapacity(config.deviceBufferSize);
+        final UsbSerialDriver driver = SimulatedDevices.createDriver(
+                "/dev/bus/usb/001/" + (index + 2), mTransport);
+        mPort = driver.getPort(0);
+        mDevice = new DeviceSimulator(config, mTransport);
+        mMessage = new byte[config.messageSize];
+        mPingPong = (config.scenario == IoManagerHarness.Scenario.ECHO)
+                && (config.messageRate == 0);
+
+        mManager = new SerialInputOutputManager(mPort);
+        if (config.bufferListener) {
+            mManager.setBufferListener(new SerialInputOutputManager.BufferListener() {
+                @Override
+                public void onNewData(ByteBuffer data, int length) {
+                    onReceived(data.array(), length);
+                    mManager.releaseBuffer(data);
+                }
+
+                @Override
+                public void onRunError(Exception e) {
+                    onError(e);
+                }
+            });
+        } else {
+            mManager.setListener(new SerialInputOutputManager.Listener() {
+                @Override
+                public void onNewData(byte[] data) {
+                    onReceived(data, data.length);
+                }
+
+                @Override
+                public void onRunError(Exception e) {
+                    onError(e);
+                }
+            });
+        }
+        mManager.setReadMode(config.mode == IoManagerHarness.Mode.ASYNC
+                ? SerialInputOutputManager.ReadMode.ASYNC
+                : SerialInputOutputManager.ReadMode.BLOCKING);
+        mManager.setFullDuplex(config.mode == IoManagerHarness.Mode.FULL_DUPLEX);
+        mManager.setWriteOverflowPolicy(WriteOverflowPolicy.FAIL);
+
+        final String name = "port" + index;
+        mManagerThread = new Thread(mManager, name + "-manager");
+        mDeviceThread = new Thread(mDevice, name + "-device");
+        if (config.scenario == IoManagerHarness.Scenario.ECHO) {
+            mSenderThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    runSender();
+                }
+            }, name + "-sender");
+        } else {
+            mSenderThread = null;
+        }
+    }
+
+    void start() throws IOException {
+        mPort.open(null);
+        mStarted = true;
+        mPort.setParameters((mConfig.baudRate > 0) ? mConfig.baudRate : UNLIMITED_BAUD_RATE,
+                UsbSerialPort.DATABITS_8,
+                UsbSerialPort.STOPBITS_1, UsbSerialPort.PARITY_NONE);
+        mManagerThread.start();
+        mDeviceThread.start();
+        if (mSenderThread != null) {
+            mSenderThread.start();
+        }
+    }
+
+    void setMeasuring(boolean measuring) {
+        if (measuring) {
+            mManager.getMetrics().reset();
+        } else {
+            mManagerMetrics = mManager.getMetrics().snapshot();
+        }
+        mMeasuring = measuring;
+        mDevice.setMeasuring(measuring);
+    }
+
+    /**
+     * Stops all threads of the port and closes it.
+     */
+    void stop() throws IOException, InterruptedException {
+        mRunning = false;
+        mDevice.stop();
+        if (mSenderThread != null) {
+            mSenderThread.interrupt();
+            mSenderThread.join(JOIN_MILLIS);
+        }
+        mDeviceThread.interrupt();
+        mDeviceThread.join(JOIN_MILLIS);
+        mManager.stop();
+        mManagerThread.join(JOIN_MILLIS);
+        if (mStarted) {
+            mPort.close();
+        }
+    }
+
+    Thread[] getThreads() {
+        return (mSenderThread != null)
+                ? new Thread[] { mManagerThread, mDeviceThread, mSenderThread }
+                : new Thread[] { mManagerThread, mDeviceThread };
+    }
+
+    Exception getError() {
+        return mError;
+    }
+
+    LatencyHistogram getLatency() {
+        return mLatency;
+    }
+
+    long getReceivedBytes() {
+        return mReceivedBytes;
+    }
+
+    long getLostMessages() {
+        return mLostMessages;
+    }
+
+    long getDroppedBytes() {
+        return mDroppedBytes + mDevice.getDroppedBytes();
+    }
+
+    /**
+     * Returns the metrics of the manager while measuring.
+     */
+    IoMetrics.Snapshot getManagerMetrics() {
+        return mManagerMetrics;
+    }
+
+    long getBulkTransferCount() {
+        return mTransport.getBulkInTransferCount() + mTransport.getBulkOutTransferCount();
+    }
+
+    // Sends messages through the manager, at the configured rate, or each
+    // one once the previous one has been echoed.
+    private void runSender() {
+        final byte[] message = new byte[mConfig.messageSize];
+        final long intervalNanos = (mConfig.messageRate > 0)
+                ? NANOS_PER_SECOND / mConfig.messageRate : 0;
+        int sequence = 0;
+        long nextNanos = System.nanoTime();
+        try {
+            while (mRunning) {
+                if (intervalNanos > 0) {
+                    long remaining;
+                    while (mRunning && ((remaining = nextNanos - System.nanoTime()) > 0)) {
+                        LockSupport.parkNanos(remaining);
+                    }
+                    nextNanos += intervalNanos;
+                }
+                IoManagerHarness.writeHeader(message, sequence++, System.nanoTime());
+                try {
+                    mManager.writeAsync(message);
+                } catch (BufferOverflowException e) {
+                    if (mMeasuring) {
+                        mDroppedBytes += message.length;
+                    }
+                    continue;
+                }
+                if (mPingPong) {
+                    // Continues after a timeout, in case the echo is lost.
+                    mEchoed.tryAcquire(ECHO_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+                }
+            }
+        } catch (InterruptedException e) {
+            // Interrupted by stop().
+        }
+    }
+
+    private void onReceived(byte[] data, int length) {
+        final boolean measuring = mMeasuring;
+        if (measuring) {
+            mReceivedBytes += length;
+        }
+        int offset = 0;
+        while (offset < length) {
+            final int count = Math.min(length - offset, mMessage.length - mMessageLength);
+            System.arraycopy(data, offset, mMessage, mMessageLength, count);
+            offset += count;
+            mMessageLength += count;
+            if (mMessageLength == mMessage.length) {
+                mMessageLength = 0;
+                onMessage(measuring);
+            }
+        }
+
+        if (mConfig.listenerCostMicros > 0) {
+            final long end = System.nanoTime() + mConfig.listenerCostMicros * NANOS_PER_MICRO;
+            while (System.nanoTime() < end) {
+                // Emulates the processing of the data.
+            }
+        }
+    }
+
+    private void onMessage(boolean measuring) {
+        final int sequence = IoManagerHarness.readSequence(mMessage);
+        final long latency = System.nanoTime() - IoManagerHarness.readTimestamp(mMessage);
+        if (measuring) {
+            mLatency.record(latency);
+            if (sequence > mExpectedSequence) {
+                mLostMessages += sequence - mExpectedSequence;
+            }
+        }
+        mExpectedSequence = sequence + 1;
+        if (mPingPong) {
+            mEchoed.release();
+        }
+    }
+
+    private void onError(Exception e) {
+        if (mRunning) {
+            mError = e;
+        }
+    }
+
+}
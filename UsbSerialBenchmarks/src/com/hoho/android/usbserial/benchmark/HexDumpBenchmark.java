@@ -0,0 +1,59 @@
+/* This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package com.hoho.android.usbserial.benchmark;
+
+import com.hoho.android.usbserial.util.HexDump;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Formatting of received data with {@link HexDump}, as done by the example
+ * application for every read.
+ */
+@State(Scope.Thread)
+public class HexDumpBenchmark {
+
+    @Param({"64", "512", "4096", "16384", "65536"})
+    public int payloadSize;
+
+    private byte[] mPayload;
+
+    @Setup
+    public void setUp() {
+        mPayload = new byte[payloadSize];
+        for (int i = 0; i < mPayload.length; ++i) {
+            mPayload[i] = (byte) i;
+        }
+    }
+
+    @Benchmark
+    public String dumpHexString() {
+        return HexDump.dumpHexString(mPayload);
+    }
+
+    @Benchmark
+    public String toHexString() {
+        return HexDump.toHexString(mPayload);
+    }
+
+}
@@ -0,0 +1,392 @@
+/* This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package com.hoho.android.usbserial.benchmark;
+
+import com.hoho.android.usbserial.util.LatencyHistogram;
+import com.hoho.android.usbserial.util.SerialInputOutputManager;
+import com.hoho.android.usbserial.util.SimulatedUsbTransport;
+import com.hoho.android.usbserial.util.SimulatedUsbTransport.DeviceType;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * End-to-end throughput and latency of {@link SerialInputOutputManager},
+ * servicing devices emulated by {@link SimulatedUsbTransport}.
+ *
+ * <p/>
+ * Each port runs one of the {@link Scenario}s with fixed size messages,
+ * which carry a sequence number and a timestamp. After a warmup, the harness
+ * measures for a given time and reports, per port and in total:
+ * <ul>
+ * <li>throughput of received data, in MB/s;</li>
+ * <li>latency percentiles (p50, p99, p99.9) and maximum, in microseconds;</li>
+ * <li>dropped bytes: messages which did not fit into the manager's write
+ * buffer (echo), or into the device's buffer (sources);</li>
+ * <li>lost messages, as seen by the receiver;</li>
+ * <li>bulk transfers per MB;</li>
+ * <li>the {@link SerialInputOutputManager#getMetrics() manager's metrics}.</li>
+ * </ul>
+ * and the memory allocated by all threads of the run per MB received, where
+ * the JVM reports it.
+ *
+ * <p/>
+ * Usage: {@code IoManagerHarness [--option=value ...]}, see {@link #usage()}.
+ */
+public class IoManagerHarness {
+
+    /**
+     * What the device does.
+     */
+    public enum Scenario {
+        /**
+         * Echoes the messages which the host sends at the given rate, or,
+         * with a rate of 0, each message once the previous one has been
+         * echoed.
+         */
+        ECHO,
+
+        /** Sends messages at the given rate, evenly spaced. */
+        FIXED_RATE,
+
+        /** Sends messages at the given average rate, in bursts. */
+        BURSTY
+    }
+
+    /**
+     * How the manager services the port.
+     */
+    public enum Mode {
+        /** {@link SerialInputOutputManager.ReadMode#BLOCKING}. */
+        BLOCKING,
+
+        /** BLOCKING with {@link SerialInputOutputManager#setFullDuplex(boolean)}. */
+        FULL_DUPLEX,
+
+        /** {@link SerialInputOutputManager.ReadMode#ASYNC}. */
+        ASYNC
+    }
+
+    /**
+     * Parameters of a run.
+     */
+    static final class Config {
+        DeviceType device = DeviceType.FTDI;
+        Scenario scenario = Scenario.ECHO;
+        Mode mode = Mode.BLOCKING;
+        int ports = 1;
+        /** Baud rate of the serial line, 0 for no limit. */
+        int baudRate = 115200;
+        int messageSize = 64;
+        /** Messages per second and port, 0 for as many as possible. */
+        int messageRate = 100;
+        /** Messages per burst in {@link Scenario#BURSTY}. */
+        int burstSize = 32;
+        /** Size of the device's buffers. */
+        int deviceBufferSize = 4096;
+        /** Busy time per listener callback. */
+        int listenerCostMicros = 0;
+        /** Whether to use a BufferListener instead of a Listener. */
+        boolean bufferListener = false;
+        int warmupSeconds = 2;
+        int durationSeconds = 10;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s %s %s, %d port(s), %s baud, "
+                    + "%d byte messages at %s/s%s, device buffer %d, "
+                    + "%s, %d us per callback",
+                    device, scenario, mode, ports,
+                    (baudRate > 0) ? Integer.toString(baudRate) : "unlimited",
+                    messageSize,
+                    (messageRate > 0) ? Integer.toString(messageRate) : "max",
+                    (scenario == Scenario.BURSTY) ? " in bursts of " + burstSize : "",
+                    deviceBufferSize,
+                    bufferListener ? "BufferListener" : "Listener",
+                    listenerCostMicros);
+        }
+    }
+
+    /** Sequence number and timestamp. */
+    static final int HEADER_LENGTH = 12;
+
+    private static final double BYTES_PER_MB = 1000000.0;
+    private static final double NANOS_PER_MICRO = 1000.0;
+
+    public static void main(String[] args) throws Exception {
+        if ((args.length == 1) && "--help".equals(args[0])) {
+            usage();
+            return;
+        }
+        final Config config;
+        try {
+            config = parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            usage();
+            System.exit(2);
+            return;
+        }
+        if (config.mode == Mode.ASYNC) {
+            // SimulatedUsbTransport has no UsbDeviceConnection to queue
+            // UsbRequests on.
+            System.err.println("ASYNC is not supported by the simulated devices");
+            System.exit(2);
+            return;
+        }
+        System.exit(run(config) ? 0 : 1);
+    }
+
+    private static void usage() {
+        System.err.println("Options (default):\n"
+                + "  --device=FTDI|CDC_ACM|CP21XX|PROLIFIC (FTDI)\n"
+                + "  --scenario=ECHO|FIXED_RATE|BURSTY (ECHO)\n"
+                + "  --mode=BLOCKING|FULL_DUPLEX|ASYNC (BLOCKING)\n"
+                + "  --ports=<count> (1)\n"
+                + "  --baud=<rate>, 0 for no limit (115200)\n"
+                + "  --message-size=<bytes>, at least " + HEADER_LENGTH + " (64)\n"
+                + "  --rate=<messages per second and port>, 0 for back to back,\n"
+                + "      or one at a time when echoing (100)\n"
+                + "  --burst=<messages> (32)\n"
+                + "  --device-buffer=<bytes> (4096)\n"
+                + "  --listener-cost=<microseconds per callback> (0)\n"
+                + "  --buffer-listener=true|false (false)\n"
+                + "  --warmup=<seconds> (2)\n"
+                + "  --duration=<seconds> (10)");
+    }
+
+    static Config parse(String[] args) {
+        final Config config = new Config();
+        for (String arg : args) {
+            final int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || (separator < 0)) {
+                throw new IllegalArgumentException("Invalid argument: " + arg);
+            }
+            final String name = arg.substring(2, separator);
+            final String value = arg.substring(separator + 1);
+            try {
+                if ("device".equals(name)) {
+                    config.device = DeviceType.valueOf(value.toUpperCase(Locale.US));
+                } else if ("scenario".equals(name)) {
+                    config.scenario = Scenario.valueOf(value.toUpperCase(Locale.US));
+                } else if ("mode".equals(name)) {
+                    config.mode = Mode.valueOf(value.toUpperCase(Locale.US));
+                } else if ("ports".equals(name)) {
+                    config.ports = parseInt(value, 1);
+                } else if ("baud".equals(name)) {
+                    config.baudRate = parseInt(value, 0);
+                } else if ("message-size".equals(name)) {
+                    config.messageSize = parseInt(value, HEADER_LENGTH);
+                } else if ("rate".equals(name)) {
+                    config.messageRate = parseInt(value, 0);
+                } else if ("burst".equals(name)) {
+                    config.burstSize = parseInt(value, 1);
+                } else if ("device-buffer".equals(name)) {
+                    config.deviceBufferSize = parseInt(value, 1);
+                } else if ("listener-cost".equals(name)) {
+                    config.listenerCostMicros = parseInt(value, 0);
+                } else if ("buffer-listener".equals(name)) {
+                    config.bufferListener = Boolean.parseBoolean(value);
+                } else if ("warmup".equals(name)) {
+                    config.warmupSeconds = parseInt(value, 0);
+                } else if ("duration".equals(name)) {
+                    config.durationSeconds = parseInt(value, 1);
+                } else {
+                    throw new IllegalArgumentException("Unknown option: " + name);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid value: " + arg);
+            }
+        }
+        if (config.messageSize > config.deviceBufferSize) {
+            throw new IllegalArgumentException("Messages do not fit into the device buffer");
+        }
+        return config;
+    }
+
+    private static int parseInt(String value, int min) {
+        final int result = Integer.parseInt(value);
+        if (result < min) {
+            throw new NumberFormatException();
+        }
+        return result;
+    }
+
+    /**
+     * Runs the harness and prints the results.
+     *
+     * @return {@code false} if a manager failed
+     */
+    static boolean run(Config config) throws Exception {
+        System.out.println(config);
+        final List<HarnessPort> ports = new ArrayList<HarnessPort>();
+        for (int i = 0; i < config.ports; ++i) {
+            ports.add(new HarnessPort(config, i));
+        }
+        final List<Thread> threads = new ArrayList<Thread>();
+        threads.add(Thread.currentThread());
+
+        final long[] transfersBefore = new long[ports.size()];
+        final long[] transfersAfter = new long[ports.size()];
+        long startNanos;
+        long endNanos;
+        long allocatedBytes;
+        try {
+            for (HarnessPort port : ports) {
+                port.start();
+                for (Thread thread : port.getThreads()) {
+                    threads.add(thread);
+                }
+            }
+            Thread.sleep(config.warmupSeconds * 1000L);
+
+            final long allocatedBefore = getAllocatedBytes(threads);
+            for (int i = 0; i < ports.size(); ++i) {
+                transfersBefore[i] = ports.get(i).getBulkTransferCount();
+                ports.get(i).setMeasuring(true);
+            }
+            startNanos = System.nanoTime();
+            Thread.sleep(config.durationSeconds * 1000L);
+            for (int i = 0; i < ports.size(); ++i) {
+                ports.get(i).setMeasuring(false);
+                transfersAfter[i] = ports.get(i).getBulkTransferCount();
+            }
+            endNanos = System.nanoTime();
+            final long allocatedAfter = getAllocatedBytes(threads);
+            allocatedBytes = ((allocatedBefore < 0) || (allocatedAfter < 0))
+                    ? -1 : allocatedAfter - allocatedBefore;
+        } finally {
+            for (HarnessPort port : ports) {
+                port.stop();
+            }
+        }
+
+        final double seconds = (endNanos - startNanos) / 1e9;
+        System.out.println(String.format(Locale.US, "%5s %10s %10s %9s %9s %9s %9s %12s %10s %12s",
+                "port", "MB/s", "messages", "p50 us", "p99 us", "p99.9 us", "max us",
+                "dropped B", "lost msgs", "transfers/MB"));
+        final LatencyHistogram totalLatency = new LatencyHistogram();
+        long totalBytes = 0;
+        long totalDropped = 0;
+        long totalLost = 0;
+        long totalTransfers = 0;
+        boolean failed = false;
+        for (int i = 0; i < ports.size(); ++i) {
+            final HarnessPort port = ports.get(i);
+            final long transfers = transfersAfter[i] - transfersBefore[i];
+            printRow(Integer.toString(i), port.getReceivedBytes(), seconds, port.getLatency(),
+                    port.getDroppedBytes(), port.getLostMessages(), transfers);
+            totalLatency.add(port.getLatency());
+            totalBytes += port.getReceivedBytes();
+            totalDropped += port.getDroppedBytes();
+            totalLost += port.getLostMessages();
+            totalTransfers += transfers;
+            if (port.getError() != null) {
+                System.err.println("Port " + i + " failed: " + port.getError());
+                failed = true;
+            }
+        }
+        if (ports.size() > 1) {
+            printRow("all", totalBytes, seconds, totalLatency, totalDropped, totalLost,
+                    totalTransfers);
+        }
+        for (int i = 0; i < ports.size(); ++i) {
+            System.out.println("port " + i + " manager: " + ports.get(i).getManagerMetrics());
+        }
+        if ((allocatedBytes >= 0) && (totalBytes > 0)) {
+            System.out.println(String.format(Locale.US, "allocated %.0f bytes per MB received",
+                    allocatedBytes / (totalBytes / BYTES_PER_MB)));
+        } else if (allocatedBytes >= 0) {
+            System.out.println("allocated " + allocatedBytes + " bytes, nothing received");
+        }
+        return !failed;
+    }
+
+    private static void printRow(String name, long bytes, double seconds,
+            LatencyHistogram latency, long droppedBytes, long lostMessages, long transfers) {
+        final double megabytes = bytes / BYTES_PER_MB;
+        System.out.println(String.format(Locale.US,
+                "%5s %10.4f %10d %9.1f %9.1f %9.1f %9.1f %12d %10d %12.0f",
+                name, megabytes / seconds, latency.getCount(),
+                latency.getValueAtPercentile(50) / NANOS_PER_MICRO,
+                latency.getValueAtPercentile(99) / NANOS_PER_MICRO,
+                latency.getValueAtPercentile(99.9) / NANOS_PER_MICRO,
+                latency.getMax() / NANOS_PER_MICRO,
+                droppedBytes, lostMessages,
+                (bytes > 0) ? transfers / megabytes : 0.0));
+    }
+
+    /**
+     * Returns the number of bytes allocated so far by {@code threads}, or
+     * -1 if the JVM does not report it.
+     */
+    private static long getAllocatedBytes(List<Thread> threads) {
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        final com.sun.management.ThreadMXBean allocationBean =
+                (com.sun.management.ThreadMXBean) bean;
+        if (!allocationBean.isThreadAllocatedMemorySupported()
+                || !allocationBean.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        long total = 0;
+        for (Thread thread : threads) {
+            final long allocated = allocationBean.getThreadAllocatedBytes(thread.getId());
+            if (allocated > 0) {
+                total += allocated;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Writes the sequence number and the timestamp to the start of
+     * {@code message}.
+     */
+    static void writeHeader(byte[] message, int sequence, long timestampNanos) {
+        for (int i = 0; i < 4; ++i) {
+            message[i] = (byte) (sequence >>> (8 * (3 - i)));
+        }
+        for (int i = 0; i < 8; ++i) {
+            message[4 + i] = (byte) (timestampNanos >>> (8 * (7 - i)));
+        }
+    }
+
+    static int readSequence(byte[] message) {
+        int sequence = 0;
+        for (int i = 0; i < 4; ++i) {
+            sequence = (sequence << 8) | (message[i] & 0xff);
+        }
+        return sequence;
+    }
+
+    static long readTimestamp(byte[] message) {
+        long timestamp = 0;
+        for (int i = 0; i < 8; ++i) {
+            timestamp = (timestamp << 8) | (message[4 + i] & 0xff);
+        }
+        return timestamp;
+    }
+
+}
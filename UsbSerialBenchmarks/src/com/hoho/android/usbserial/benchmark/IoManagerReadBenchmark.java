@@ -0,0 +1,120 @@
+/* This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package com.hoho.android.usbserial.benchmark;
+
+import com.hoho.android.usbserial.util.SerialInputOutputManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The per-read cost of the {@link SerialInputOutputManager} loop in the
+ * default blocking mode: taking a pooled buffer, reading, checking the
+ * (empty) write buffer, and handing the data to the listener. Each
+ * invocation runs the manager for {@link #READS} reads of a port which
+ * returns data immediately; the score is per read.
+ */
+@State(Scope.Thread)
+public class IoManagerReadBenchmark {
+
+    private static final int READS = 1000;
+
+    /**
+     * Bytes returned per read; the manager's read buffers hold 4 KiB.
+     */
+    @Param({"64", "512", "4096"})
+    public int payloadSize;
+
+    private final BenchmarkPort mPort = new BenchmarkPort();
+
+    private SerialInputOutputManager mArrayManager;
+    private SerialInputOutputManager mBufferManager;
+
+    private Blackhole mBlackhole;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        mBlackhole = blackhole;
+        mPort.setReadLength(payloadSize);
+
+        mArrayManager = new SerialInputOutputManager(mPort, new SerialInputOutputManager.Listener() {
+            @Override
+            public void onNewData(byte[] data) {
+                mBlackhole.consume(data);
+            }
+
+            @Override
+            public void onRunError(Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        mBufferManager = new SerialInputOutputManager(mPort);
+        mBufferManager.setBufferListener(new SerialInputOutputManager.BufferListener() {
+            @Override
+            public void onNewData(ByteBuffer data, int length) {
+                mBlackhole.consume(data.get(length - 1));
+                mBufferManager.releaseBuffer(data);
+            }
+
+            @Override
+            public void onRunError(Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    /**
+     * {@link SerialInputOutputManager.Listener}, which receives a new array
+     * per read.
+     */
+    @Benchmark
+    @OperationsPerInvocation(READS)
+    public void arrayListener() {
+        run(mArrayManager);
+    }
+
+    /**
+     * {@link SerialInputOutputManager.BufferListener}, which receives pooled
+     * buffers.
+     */
+    @Benchmark
+    @OperationsPerInvocation(READS)
+    public void bufferListener() {
+        run(mBufferManager);
+    }
+
+    private void run(final SerialInputOutputManager manager) {
+        mPort.setReadLimit(READS, new Runnable() {
+            @Override
+            public void run() {
+                manager.stop();
+            }
+        });
+        manager.run();
+    }
+
+}
@@ -0,0 +1,106 @@
+/* This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package com.hoho.android.usbserial.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writing a payload through {@link com.hoho.android.usbserial.driver.CommonUsbSerialPort},
+ * which copies data that does not start at the beginning of an array into
+ * its write buffer, in chunks of the buffer size.
+ */
+@State(Scope.Thread)
+public class PortWriteBenchmark {
+
+    @Param({"64", "512", "4096", "16384", "65536"})
+    public int payloadSize;
+
+    private final BenchmarkPort mPort = new BenchmarkPort();
+
+    private byte[] mPayload;
+    private ByteBuffer mHeapBuffer;
+    private ByteBuffer mDirectBuffer;
+    private ByteBuffer[] mGatherBuffers;
+
+    @Setup
+    public void setUp() {
+        mPayload = new byte[payloadSize + 1];
+        mHeapBuffer = ByteBuffer.wrap(mPayload, 1, payloadSize).slice();
+        mDirectBuffer = ByteBuffer.allocateDirect(payloadSize);
+        mGatherBuffers = new ByteBuffer[4];
+        for (int i = 0; i < mGatherBuffers.length; ++i) {
+            mGatherBuffers[i] = ByteBuffer.allocate(payloadSize / mGatherBuffers.length);
+        }
+    }
+
+    /**
+     * Data at the start of the array, passed to the transport directly.
+     */
+    @Benchmark
+    public int arrayAtOffsetZero() throws IOException {
+        return writeAll(0);
+    }
+
+    /**
+     * Data behind the start of the array, copied chunk by chunk.
+     */
+    @Benchmark
+    public int arrayAtOffset() throws IOException {
+        return writeAll(1);
+    }
+
+    /**
+     * Heap buffer whose content starts behind the start of its array.
+     */
+    @Benchmark
+    public void heapByteBuffer() throws IOException {
+        mHeapBuffer.clear();
+        mPort.write(mHeapBuffer);
+    }
+
+    @Benchmark
+    public void directByteBuffer() throws IOException {
+        mDirectBuffer.clear();
+        mPort.write(mDirectBuffer);
+    }
+
+    @Benchmark
+    public void gatheringWrite() throws IOException {
+        for (final ByteBuffer buffer : mGatherBuffers) {
+            buffer.clear();
+        }
+        mPort.write(mGatherBuffers);
+    }
+
+    private int writeAll(int offset) throws IOException {
+        int written = 0;
+        while (written < payloadSize) {
+            written += mPort.write(mPayload, offset + written, payloadSize - written, 0);
+        }
+        return written;
+    }
+
+}
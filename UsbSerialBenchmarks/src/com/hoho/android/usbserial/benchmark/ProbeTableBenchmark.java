@@ -0,0 +1,100 @@
+/* This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package com.hoho.android.usbserial.benchmark;
+
+import com.hoho.android.usbserial.driver.CdcAcmSerialDriver;
+import com.hoho.android.usbserial.driver.Cp21xxSerialDriver;
+import com.hoho.android.usbserial.driver.FtdiSerialDriver;
+import com.hoho.android.usbserial.driver.ProbeTable;
+import com.hoho.android.usbserial.driver.ProlificSerialDriver;
+import com.hoho.android.usbserial.driver.UsbId;
+import com.hoho.android.usbserial.driver.UsbSerialProber;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Looking up the driver of a vendor and product ID in the default
+ * {@link ProbeTable}, compared with scanning the supported devices of each
+ * driver in turn.
+ */
+@State(Scope.Thread)
+public class ProbeTableBenchmark {
+
+    /**
+     * The device looked up: the first and last driver's devices, and an
+     * unsupported device.
+     */
+    @Param({"FTDI", "PROLIFIC", "UNKNOWN"})
+    public String device;
+
+    private ProbeTable mProbeTable;
+    private List<Map<Integer, int[]>> mSupportedDevices;
+    private int mVendorId;
+    private int mProductId;
+
+    @Setup
+    public void setUp() {
+        mProbeTable = UsbSerialProber.getDefaultProbeTable();
+        mSupportedDevices = new ArrayList<Map<Integer, int[]>>();
+        mSupportedDevices.add(FtdiSerialDriver.getSupportedDevices());
+        mSupportedDevices.add(CdcAcmSerialDriver.getSupportedDevices());
+        mSupportedDevices.add(Cp21xxSerialDriver.getSupportedDevices());
+        mSupportedDevices.add(ProlificSerialDriver.getSupportedDevices());
+
+        if ("FTDI".equals(device)) {
+            mVendorId = UsbId.VENDOR_FTDI;
+            mProductId = UsbId.FTDI_FT232R;
+        } else if ("PROLIFIC".equals(device)) {
+            mVendorId = UsbId.VENDOR_PROLIFIC;
+            mProductId = UsbId.PROLIFIC_PL2303;
+        } else {
+            mVendorId = 0x1234;
+            mProductId = 0x5678;
+        }
+    }
+
+    @Benchmark
+    public ProbeTable.DriverFactory probeTable() {
+        return mProbeTable.findFactory(mVendorId, mProductId);
+    }
+
+    @Benchmark
+    public int linearScan() {
+        for (int i = 0; i < mSupportedDevices.size(); ++i) {
+            final int[] productIds = mSupportedDevices.get(i).get(Integer.valueOf(mVendorId));
+            if (productIds != null) {
+                for (final int productId : productIds) {
+                    if (productId == mProductId) {
+                        return i;
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,214 @@
+/* This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package com.hoho.android.usbserial.benchmark;
+
+import android.hardware.usb.UsbConstants;
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbInterface;
+
+import com.hoho.android.usbserial.driver.CdcAcmSerialDriver;
+import com.hoho.android.usbserial.driver.Cp21xxSerialDriver;
+import com.hoho.android.usbserial.driver.FtdiSerialDriver;
+import com.hoho.android.usbserial.driver.ProlificSerialDriver;
+import com.hoho.android.usbserial.driver.UsbId;
+import com.hoho.android.usbserial.driver.UsbSerialDriver;
+import com.hoho.android.usbserial.util.SimulatedUsbTransport;
+
+/**
+ * Creates drivers for devices emulated by {@link SimulatedUsbTransport}.
+ *
+ * <p/>
+ * The USB descriptors are described by subclasses of the Android descriptor
+ * classes, which the stand-ins in {@code stubs} allow.
+ */
+public final class SimulatedDevices {
+
+    private static final int BULK_PACKET_SIZE = 64;
+    private static final int INTERRUPT_PACKET_SIZE = 16;
+
+    private static final class Endpoint extends UsbEndpoint {
+        private final int mAddress;
+        private final int mType;
+        private final int mMaxPacketSize;
+
+        Endpoint(int address, int type, int maxPacketSize) {
+            mAddress = address;
+            mType = type;
+            mMaxPacketSize = maxPacketSize;
+        }
+
+        @Override
+        public int getAddress() {
+            return mAddress;
+        }
+
+        @Override
+        public int getEndpointNumber() {
+            return mAddress & UsbConstants.USB_ENDPOINT_NUMBER_MASK;
+        }
+
+        @Override
+        public int getDirection() {
+            return mAddress & UsbConstants.USB_ENDPOINT_DIR_MASK;
+        }
+
+        @Override
+        public int getType() {
+            return mType;
+        }
+
+        @Override
+        public int getMaxPacketSize() {
+            return mMaxPacketSize;
+        }
+    }
+
+    private static final class Interface extends UsbInterface {
+        private final int mInterfaceClass;
+        private final UsbEndpoint[] mEndpoints;
+
+        Interface(int interfaceClass, UsbEndpoint... endpoints) {
+            mInterfaceClass = interfaceClass;
+            mEndpoints = endpoints;
+        }
+
+        @Override
+        public int getInterfaceClass() {
+            return mInterfaceClass;
+        }
+
+        @Override
+        public int getEndpointCount() {
+            return mEndpoints.length;
+        }
+
+        @Override
+        public UsbEndpoint getEndpoint(int index) {
+            return mEndpoints[index];
+        }
+    }
+
+    private static final class Device extends UsbDevice {
+        private final String mDeviceName;
+        private final int mVendorId;
+        private final int mProductId;
+        private final UsbInterface[] mInterfaces;
+
+        Device(String deviceName, int vendorId, int productId, UsbInterface... interfaces) {
+            mDeviceName = deviceName;
+            mVendorId = vendorId;
+            mProductId = productId;
+            mInterfaces = interfaces;
+        }
+
+        @Override
+        public String getDeviceName() {
+            return mDeviceName;
+        }
+
+        @Override
+        public int getVendorId() {
+            return mVendorId;
+        }
+
+        @Override
+        public int getProductId() {
+            return mProductId;
+        }
+
+        @Override
+        public int getInterfaceCount() {
+            return mInterfaces.length;
+        }
+
+        @Override
+        public UsbInterface getInterface(int index) {
+            return mInterfaces[index];
+        }
+    }
+
+    private SimulatedDevices() {
+    }
+
+    /**
+     * Returns a driver for a device of the transport's type, which performs
+     * its transfers through {@code transport}.
+     *
+     * @param deviceName the name returned by {@link UsbDevice#getDeviceName()}
+     */
+    public static UsbSerialDriver createDriver(String deviceName,
+            SimulatedUsbTransport transport) {
+        final UsbSerialDriver driver;
+        switch (transport.getDeviceType()) {
+        case FTDI:
+            final FtdiSerialDriver ftdi = new FtdiSerialDriver(new Device(deviceName,
+                    UsbId.VENDOR_FTDI, UsbId.FTDI_FT232R,
+                    new Interface(UsbConstants.USB_CLASS_VENDOR_SPEC,
+                            bulk(UsbConstants.USB_DIR_IN | 1), bulk(2))));
+            ftdi.setTransportFactory(transport);
+            driver = ftdi;
+            break;
+
+        case CDC_ACM:
+            final CdcAcmSerialDriver cdc = new CdcAcmSerialDriver(new Device(deviceName,
+                    UsbId.VENDOR_ARDUINO, UsbId.ARDUINO_UNO_R3,
+                    new Interface(UsbConstants.USB_CLASS_COMM,
+                            interrupt(UsbConstants.USB_DIR_IN | 1)),
+                    new Interface(UsbConstants.USB_CLASS_CDC_DATA,
+                            bulk(2), bulk(UsbConstants.USB_DIR_IN | 3))));
+            cdc.setTransportFactory(transport);
+            driver = cdc;
+            break;
+
+        case CP21XX:
+            final Cp21xxSerialDriver cp21xx = new Cp21xxSerialDriver(new Device(deviceName,
+                    UsbId.VENDOR_SILABS, UsbId.SILABS_CP2102,
+                    new Interface(UsbConstants.USB_CLASS_VENDOR_SPEC,
+                            bulk(UsbConstants.USB_DIR_IN | 1), bulk(1))));
+            cp21xx.setTransportFactory(transport);
+            driver = cp21xx;
+            break;
+
+        case PROLIFIC:
+            final ProlificSerialDriver prolific = new ProlificSerialDriver(new Device(deviceName,
+                    UsbId.VENDOR_PROLIFIC, UsbId.PROLIFIC_PL2303,
+                    new Interface(UsbConstants.USB_CLASS_VENDOR_SPEC,
+                            interrupt(UsbConstants.USB_DIR_IN | 1), bulk(2),
+                            bulk(UsbConstants.USB_DIR_IN | 3))));
+            prolific.setTransportFactory(transport);
+            driver = prolific;
+            break;
+
+        default:
+            throw new IllegalArgumentException("Unknown device type: "
+                    + transport.getDeviceType());
+        }
+        return driver;
+    }
+
+    private static UsbEndpoint bulk(int address) {
+        return new Endpoint(address, UsbConstants.USB_ENDPOINT_XFER_BULK, BULK_PACKET_SIZE);
+    }
+
+    private static UsbEndpoint interrupt(int address) {
+        return new Endpoint(address, UsbConstants.USB_ENDPOINT_XFER_INT, INTERRUPT_PACKET_SIZE);
+    }
+
+}
@@ -0,0 +1,93 @@
+/* This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package com.hoho.android.usbserial.driver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Removal of the FTDI status headers from a raw transfer, by
+ * {@link FtdiSerialDriver#filterStatusBytes} and by the implementation it
+ * replaced. In the package of the driver, since the method is package
+ * private.
+ */
+@State(Scope.Thread)
+public class FtdiFilterStatusBytesBenchmark {
+
+    private static final int MODEM_STATUS_HEADER_LENGTH = 2;
+
+    /**
+     * Length of the raw transfer, including the headers.
+     */
+    @Param({"64", "512", "4096", "16384", "65536"})
+    public int payloadSize;
+
+    @Param({"64", "512"})
+    public int packetSize;
+
+    private byte[] mSrc;
+    private byte[] mDest;
+
+    @Setup
+    public void setUp() {
+        mSrc = new byte[payloadSize];
+        for (int i = 0; i < mSrc.length; ++i) {
+            mSrc[i] = (byte) i;
+        }
+        mDest = new byte[payloadSize];
+    }
+
+    @Benchmark
+    public int singlePass() {
+        return FtdiSerialDriver.filterStatusBytes(mSrc, mSrc.length, mDest, 0, packetSize);
+    }
+
+    @Benchmark
+    public int legacy() {
+        return legacyFilterStatusBytes(mSrc, mDest, 0, mSrc.length, packetSize);
+    }
+
+    /**
+     * The implementation before the single pass version, unchanged
+     * (including its miscount for transfers which are a multiple of the
+     * packet size).
+     */
+    private static int legacyFilterStatusBytes(byte[] src, byte[] dest, int destOffset,
+            int totalBytesRead, int maxPacketSize) {
+        final int packetsCount = totalBytesRead / maxPacketSize + 1;
+        for (int packetIdx = 0; packetIdx < packetsCount; ++packetIdx) {
+            final int count = (packetIdx == (packetsCount - 1))
+                    ? (totalBytesRead % maxPacketSize) - MODEM_STATUS_HEADER_LENGTH
+                            : maxPacketSize - MODEM_STATUS_HEADER_LENGTH;
+            if (count > 0) {
+                System.arraycopy(src,
+                        packetIdx * maxPacketSize + MODEM_STATUS_HEADER_LENGTH,
+                        dest,
+                        destOffset + packetIdx * (maxPacketSize - MODEM_STATUS_HEADER_LENGTH),
+                        count);
+            }
+        }
+
+        return totalBytesRead - (packetsCount * 2);
+    }
+
+}
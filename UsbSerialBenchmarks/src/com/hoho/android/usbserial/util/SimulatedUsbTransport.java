@@ -0,0 +1,526 @@
+/* This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package com.hoho.android.usbserial.util;
+
+import android.hardware.usb.UsbConstants;
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbInterface;
+import android.hardware.usb.UsbManager;
+
+import com.hoho.android.usbserial.driver.ModemStatusListener;
+import com.hoho.android.usbserial.driver.UsbTransport;
+
+/**
+ * {@link UsbTransport} which emulates a single port serial adapter in memory,
+ * so that the drivers and {@link SerialInputOutputManager} can be run and
+ * measured without hardware. Install it with
+ * {@code driver.setTransportFactory(transport)}.
+ *
+ * <p/>
+ * The device side is driven with {@link #sendToHost(byte[], int, int)} and
+ * {@link #receiveFromHost(byte[], int, int)}, or by enabling
+ * {@link #setLoopback(boolean) loopback}. Bulk data is framed like the
+ * emulated chip frames it: an FTDI device puts a two byte status header in
+ * front of each packet, and sends a status-only packet when the latency
+ * timer expires without data. The status of the modem lines is reported by
+ * FTDI in these headers, and by CDC ACM and PL2303 devices on their interrupt
+ * endpoint. Control transfers are accepted and answered as far as the drivers
+ * need.
+ *
+ * <p/>
+ * The packet size of each transfer is the max packet size of its endpoint.
+ * The latency of every bulk transfer, and the number of packets which the
+ * device handles per transfer, can be configured to model slow devices.
+ *
+ * <p/>
+ * Only synchronous transfers are emulated: {@link #getConnection()} returns
+ * {@code null}, so the asynchronous modes of the I/O managers cannot be used.
+ */
+public class SimulatedUsbTransport implements UsbTransport, UsbTransport.Factory {
+
+    /**
+     * The emulated kind of device.
+     */
+    public enum DeviceType {
+        FTDI,
+        CDC_ACM,
+        CP21XX,
+        PROLIFIC
+    }
+
+    private static final int DEFAULT_BUFFER_CAPACITY = 1024 * 1024;
+    private static final int DEFAULT_PACKET_SIZE = 64;
+
+    private static final int FTDI_HEADER_LENGTH = 2;
+    private static final int FTDI_DEFAULT_LATENCY_TIMER_MILLIS = 16;
+    private static final int FTDI_SIO_POLL_MODEM_STATUS_REQUEST = 5;
+    private static final int FTDI_SIO_SET_LATENCY_TIMER_REQUEST = 9;
+    private static final int FTDI_SIO_GET_LATENCY_TIMER_REQUEST = 10;
+    private static final int FTDI_LINE_STATUS_IDLE = 0x60;
+
+    private static final int CDC_SET_LINE_CODING = 0x20;
+    private static final int CDC_GET_LINE_CODING = 0x21;
+    private static final int CDC_SERIAL_STATE = 0x20;
+    private static final int CDC_NOTIFICATION_REQTYPE = 0xa1;
+    private static final int CDC_LINE_CODING_LENGTH = 7;
+
+    private static final int PROLIFIC_STATUS_LENGTH = 10;
+    private static final int PROLIFIC_STATUS_BYTE_IDX = 8;
+
+    private final DeviceType mDeviceType;
+
+    // Synchronized by 'this'
+    private final ByteRingBuffer mToHost =
+            new ByteRingBuffer(4096, DEFAULT_BUFFER_CAPACITY);
+    private final ByteRingBuffer mFromHost =
+            new ByteRingBuffer(4096, DEFAULT_BUFFER_CAPACITY);
+    private boolean mOpen = false;
+    private boolean mLoopback = false;
+    private long mTransferLatencyNanos = 0;
+    private int mMaxPacketsPerTransfer = Integer.MAX_VALUE;
+    private int mModemStatus = 0;
+    private boolean mModemStatusChanged = true;
+    private int mLatencyTimerMillis = FTDI_DEFAULT_LATENCY_TIMER_MILLIS;
+    private final byte[] mLineCoding = new byte[CDC_LINE_CODING_LENGTH];
+    private long mBulkInTransferCount = 0;
+    private long mBulkOutTransferCount = 0;
+    private long mControlTransferCount = 0;
+
+    public SimulatedUsbTransport(DeviceType deviceType) {
+        mDeviceType = deviceType;
+    }
+
+    public DeviceType getDeviceType() {
+        return mDeviceType;
+    }
+
+    /**
+     * Returns this transport for any device.
+     */
+    @Override
+    public synchronized UsbTransport openTransport(UsbManager usbManager, UsbDevice device) {
+        mOpen = true;
+        mModemStatusChanged = true;
+        return this;
+    }
+
+    /**
+     * Makes the device send all data which it receives back to the host.
+     *
+     * @param loopback {@code true} to echo, {@code false} by default
+     */
+    public synchronized void setLoopback(boolean loopback) {
+        mLoopback = loopback;
+    }
+
+    /**
+     * Sets the time which each bulk transfer takes in addition to waiting for
+     * data.
+     *
+     * @param latencyNanos the latency in nanoseconds, 0 by default
+     */
+    public synchronized void setTransferLatencyNanos(long latencyNanos) {
+        mTransferLatencyNanos = latencyNanos;
+    }
+
+    /**
+     * Limits the number of packets which the device sends or accepts per
+     * bulk transfer.
+     *
+     * @param maxPackets the number of packets, unlimited by default
+     */
+    public synchronized void setMaxPacketsPerTransfer(int maxPackets) {
+        if (maxPackets < 1) {
+            throw new IllegalArgumentException("Invalid packet count: " + maxPackets);
+        }
+        mMaxPacketsPerTransfer = maxPackets;
+    }
+
+    /**
+     * Sets the state of the modem status lines, which is reported to the
+     * host as the emulated chip would report it.
+     *
+     * @param status a combination of the {@code ModemStatusListener.STATUS_*}
+     *            flags
+     */
+    public synchronized void setModemStatus(int status) {
+        if (status != mModemStatus) {
+            mModemStatus = status;
+            mModemStatusChanged = true;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Sets the size of the device's buffers, for each direction. Data sent
+     * to the host waits in one of them until the host reads it; data from
+     * the host (or looped back) in the other, until it is taken.
+     *
+     * @param capacity the size in bytes, 1 MiB by default
+     * @throws IllegalStateException if either buffer holds more data
+     */
+    public synchronized void setBufferCapacity(int capacity) {
+        mToHost.setMaxCapacity(capacity);
+        mFromHost.setMaxCapacity(capacity);
+        notifyAll();
+    }
+
+    public synchronized int getBufferCapacity() {
+        return mToHost.getMaxCapacity();
+    }
+
+    /**
+     * Returns the number of bytes sent to the host which it has not read yet.
+     */
+    public synchronized int getPendingToHost() {
+        return mToHost.size();
+    }
+
+    /**
+     * Queues data which the device sends to the host.
+     *
+     * @return the number of bytes queued, less than {@code length} if the
+     *         buffer is full
+     */
+    public synchronized int sendToHost(byte[] data, int offset, int length) {
+        final int count = mToHost.put(data, offset, length);
+        notifyAll();
+        return count;
+    }
+
+    /**
+     * Like {@link #sendToHost(byte[], int, int)}, but waits for the host to
+     * make room until all data has been queued.
+     *
+     * @param timeoutMillis the maximum time to wait, 0 to wait indefinitely
+     * @return the number of bytes queued, less than {@code length} if the
+     *         timeout elapsed or the transport was closed
+     */
+    public synchronized int sendToHost(byte[] data, int offset, int length,
+            int timeoutMillis) {
+        final long deadline = System.nanoTime() + timeoutMillis * 1000000L;
+        int count = 0;
+        while (true) {
+            count += mToHost.put(data, offset + count, length - count);
+            notifyAll();
+            if (count == length) {
+                return count;
+            }
+            int remainingMillis = 0;
+            if (timeoutMillis > 0) {
+                remainingMillis = (int) ((deadline - System.nanoTime()) / 1000000L);
+                if (remainingMillis <= 0) {
+                    return count;
+                }
+            }
+            if (!await(remainingMillis, mToHost, false)) {
+                return count;
+            }
+        }
+    }
+
+    /**
+     * Takes data which the host has sent to the device.
+     *
+     * @return the number of bytes taken
+     */
+    public synchronized int receiveFromHost(byte[] data, int offset, int length) {
+        final int count = mFromHost.take(data, offset, length);
+        notifyAll();
+        return count;
+    }
+
+    /**
+     * Like {@link #receiveFromHost(byte[], int, int)}, but waits for the
+     * host to send data if there is none.
+     *
+     * @param timeoutMillis the maximum time to wait, 0 to wait indefinitely
+     * @return the number of bytes taken, 0 if the timeout elapsed or the
+     *         transport was closed
+     */
+    public synchronized int receiveFromHost(byte[] data, int offset, int length,
+            int timeoutMillis) {
+        if (!await(timeoutMillis, mFromHost, true)) {
+            return 0;
+        }
+        return receiveFromHost(data, offset, length);
+    }
+
+    public synchronized long getBulkInTransferCount() {
+        return mBulkInTransferCount;
+    }
+
+    public synchronized long getBulkOutTransferCount() {
+        return mBulkOutTransferCount;
+    }
+
+    public synchronized long getControlTransferCount() {
+        return mControlTransferCount;
+    }
+
+    @Override
+    public int bulkTransfer(UsbEndpoint endpoint, byte[] buffer, int length, int timeout) {
+        final long latencyNanos;
+        synchronized (this) {
+            latencyNanos = mTransferLatencyNanos;
+        }
+        if ((latencyNanos > 0) && !sleep(latencyNanos)) {
+            return -1;
+        }
+
+        final int packetSize = (endpoint.getMaxPacketSize() > 0)
+                ? endpoint.getMaxPacketSize() : DEFAULT_PACKET_SIZE;
+        synchronized (this) {
+            if (endpoint.getDirection() == UsbConstants.USB_DIR_OUT) {
+                ++mBulkOutTransferCount;
+                return write(buffer, length, packetSize, timeout);
+            } else if (endpoint.getType() == UsbConstants.USB_ENDPOINT_XFER_INT) {
+                return readStatus(buffer, length, timeout);
+            }
+            ++mBulkInTransferCount;
+            return read(buffer, length, packetSize, timeout);
+        }
+    }
+
+    // Must hold 'this'
+    private int write(byte[] buffer, int length, int packetSize, int timeout) {
+        final long limit = (long) packetSize * mMaxPacketsPerTransfer;
+        final int writeLength = (int) Math.min(length, limit);
+        final ByteRingBuffer target = mLoopback ? mToHost : mFromHost;
+        if (!await(timeout, target, false)) {
+            return -1;
+        }
+        final int count = target.put(buffer, 0, writeLength);
+        notifyAll();
+        return count;
+    }
+
+    // Must hold 'this'
+    private int read(byte[] buffer, int length, int packetSize, int timeout) {
+        if (mDeviceType != DeviceType.FTDI) {
+            if (!await(timeout, mToHost, true)) {
+                return -1;
+            }
+            final long limit = (long) packetSize * mMaxPacketsPerTransfer;
+            final int count = mToHost.take(buffer, 0, (int) Math.min(length, limit));
+            notifyAll();
+            return count;
+        }
+
+        // The FTDI chip sends a status-only packet when the latency timer
+        // expires.
+        final int wait = (timeout > 0) ? Math.min(timeout, mLatencyTimerMillis)
+                : mLatencyTimerMillis;
+        await(wait, mToHost, true);
+        if (!mOpen || (length < FTDI_HEADER_LENGTH)) {
+            return -1;
+        }
+        int pos = 0;
+        for (int packets = 0; packets < mMaxPacketsPerTransfer; ++packets) {
+            final int packetLength = Math.min(packetSize, length - pos);
+            if (packetLength < FTDI_HEADER_LENGTH) {
+                break;
+            }
+            buffer[pos] = (byte) getFtdiModemStatus();
+            buffer[pos + 1] = (byte) FTDI_LINE_STATUS_IDLE;
+            final int count = mToHost.take(buffer, pos + FTDI_HEADER_LENGTH,
+                    packetLength - FTDI_HEADER_LENGTH);
+            pos += FTDI_HEADER_LENGTH + count;
+            // A short packet ends the transfer.
+            if ((count < packetLength - FTDI_HEADER_LENGTH) || (packetLength < packetSize)) {
+                break;
+            }
+        }
+        notifyAll();
+        return pos;
+    }
+
+    // Must hold 'this'. Reports the modem status on the interrupt endpoint,
+    // when it has changed.
+    private int readStatus(byte[] buffer, int length, int timeout) {
+        if ((mDeviceType != DeviceType.CDC_ACM) && (mDeviceType != DeviceType.PROLIFIC)) {
+            await(timeout, null, true);
+            return -1;
+        }
+        if (!await(timeout, null, true)) {
+            return -1;
+        }
+        mModemStatusChanged = false;
+        final byte[] status = new byte[PROLIFIC_STATUS_LENGTH];
+        if (mDeviceType == DeviceType.PROLIFIC) {
+            // The status flags match the ModemStatusListener flags.
+            status[PROLIFIC_STATUS_BYTE_IDX] = (byte) mModemStatus;
+        } else {
+            // SERIAL_STATE notification, the bits of CD, DSR and RI match
+            // the ModemStatusListener flags.
+            status[0] = (byte) CDC_NOTIFICATION_REQTYPE;
+            status[1] = (byte) CDC_SERIAL_STATE;
+            status[6] = 2;
+            status[8] = (byte) (mModemStatus & (ModemStatusListener.STATUS_CD
+                    | ModemStatusListener.STATUS_DSR | ModemStatusListener.STATUS_RI));
+        }
+        final int count = Math.min(length, status.length);
+        System.arraycopy(status, 0, buffer, 0, count);
+        return count;
+    }
+
+    // Must hold 'this'. Waits until the transport is closed, or 'buffer' has
+    // data (if 'forData') or free space (otherwise), or, if 'buffer' is null,
+    // the modem status has changed. A timeout of 0 waits indefinitely.
+    // Returns false if the condition was not met.
+    private boolean await(int timeout, ByteRingBuffer buffer, boolean forData) {
+        final long deadline = System.nanoTime() + timeout * 1000000L;
+        while (mOpen && !isReady(buffer, forData)) {
+            long remainingMillis = 0;
+            if (timeout > 0) {
+                remainingMillis = (deadline - System.nanoTime()) / 1000000L;
+                if (remainingMillis <= 0) {
+                    return false;
+                }
+            }
+            try {
+                wait(remainingMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return mOpen;
+    }
+
+    // Must hold 'this'
+    private boolean isReady(ByteRingBuffer buffer, boolean forData) {
+        if (buffer == null) {
+            return mModemStatusChanged;
+        }
+        return forData ? !buffer.isEmpty() : (buffer.free() > 0);
+    }
+
+    // Must hold 'this'
+    private int getFtdiModemStatus() {
+        int status = 0x01;
+        if ((mModemStatus & ModemStatusListener.STATUS_CTS) != 0) {
+            status |= 0x10;
+        }
+        if ((mModemStatus & ModemStatusListener.STATUS_DSR) != 0) {
+            status |= 0x20;
+        }
+        if ((mModemStatus & ModemStatusListener.STATUS_RI) != 0) {
+            status |= 0x40;
+        }
+        if ((mModemStatus & ModemStatusListener.STATUS_CD) != 0) {
+            status |= 0x80;
+        }
+        return status;
+    }
+
+    @Override
+    public synchronized int controlTransfer(int requestType, int request, int value,
+            int index, byte[] buffer, int length, int timeout) {
+        ++mControlTransferCount;
+        if (!mOpen) {
+            return -1;
+        }
+        if ((requestType & UsbConstants.USB_DIR_IN) == 0) {
+            if (mDeviceType == DeviceType.FTDI) {
+                if (request == FTDI_SIO_SET_LATENCY_TIMER_REQUEST) {
+                    mLatencyTimerMillis = value & 0xff;
+                }
+            } else if (mDeviceType == DeviceType.CDC_ACM) {
+                if ((request == CDC_SET_LINE_CODING) && (buffer != null)) {
+                    System.arraycopy(buffer, 0, mLineCoding, 0,
+                            Math.min(length, mLineCoding.length));
+                }
+            }
+            return length;
+        }
+
+        if (buffer == null) {
+            return -1;
+        }
+        for (int i = 0; i < length; ++i) {
+            buffer[i] = 0;
+        }
+        if (mDeviceType == DeviceType.FTDI) {
+            if ((request == FTDI_SIO_GET_LATENCY_TIMER_REQUEST) && (length > 0)) {
+                buffer[0] = (byte) mLatencyTimerMillis;
+            } else if ((request == FTDI_SIO_POLL_MODEM_STATUS_REQUEST) && (length > 1)) {
+                buffer[0] = (byte) getFtdiModemStatus();
+                buffer[1] = (byte) FTDI_LINE_STATUS_IDLE;
+            }
+        } else if (mDeviceType == DeviceType.CDC_ACM) {
+            if (request == CDC_GET_LINE_CODING) {
+                System.arraycopy(mLineCoding, 0, buffer, 0,
+                        Math.min(length, mLineCoding.length));
+            }
+        }
+        return length;
+    }
+
+    @Override
+    public boolean claimInterface(UsbInterface intf, boolean force) {
+        return true;
+    }
+
+    @Override
+    public boolean releaseInterface(UsbInterface intf) {
+        return true;
+    }
+
+    /**
+     * Returns a device descriptor with a max packet size of 64 for endpoint
+     * 0, which identifies a PL2303 as an HX device.
+     */
+    @Override
+    public byte[] getRawDescriptors() {
+        final byte[] descriptor = new byte[18];
+        descriptor[0] = 18;
+        descriptor[1] = 1;
+        descriptor[7] = 64;
+        return descriptor;
+    }
+
+    @Override
+    public UsbDeviceConnection getConnection() {
+        return null;
+    }
+
+    /**
+     * Ends all transfers which are waiting. The transport can be opened again
+     * by the driver.
+     */
+    @Override
+    public synchronized void close() {
+        mOpen = false;
+        notifyAll();
+    }
+
+    private static boolean sleep(long nanos) {
+        try {
+            Thread.sleep(nanos / 1000000L, (int) (nanos % 1000000L));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+}
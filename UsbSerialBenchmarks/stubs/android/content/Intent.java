@@ -0,0 +1,61 @@
+/* This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package android.content;
+
+import android.os.Parcelable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stand-in for the Android class, for running the library on a desktop JVM.
+ * Reduced to an action and parcelable extras.
+ */
+public class Intent {
+
+    private String mAction;
+    private final Map<String, Parcelable> mExtras = new HashMap<String, Parcelable>();
+
+    public Intent() {
+    }
+
+    public Intent(String action) {
+        mAction = action;
+    }
+
+    public String getAction() {
+        return mAction;
+    }
+
+    public Intent setAction(String action) {
+        mAction = action;
+        return this;
+    }
+
+    public Intent putExtra(String name, Parcelable value) {
+        mExtras.put(name, value);
+        return this;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T extends Parcelable> T getParcelableExtra(String name) {
+        return (T) mExtras.get(name);
+    }
+
+}
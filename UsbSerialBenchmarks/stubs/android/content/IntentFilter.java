@@ -0,0 +1,47 @@
+/* This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package android.content;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stand-in for the Android class, for running the library on a desktop JVM.
+ * Reduced to a list of actions.
+ */
+public class IntentFilter {
+
+    private final List<String> mActions = new ArrayList<String>();
+
+    public IntentFilter() {
+    }
+
+    public IntentFilter(String action) {
+        addAction(action);
+    }
+
+    public final void addAction(String action) {
+        mActions.add(action);
+    }
+
+    public final boolean hasAction(String action) {
+        return mActions.contains(action);
+    }
+
+}
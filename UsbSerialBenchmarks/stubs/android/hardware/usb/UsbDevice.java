@@ -0,0 +1,69 @@
+/* This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package android.hardware.usb;
+
+import android.os.Parcelable;
+
+/**
+ * Stand-in for the Android class, for running the library on a desktop JVM.
+ * Unlike the SDK stub, it can be subclassed to describe emulated devices;
+ * this base class describes a device without interfaces.
+ */
+public class UsbDevice implements Parcelable {
+
+    protected UsbDevice() {
+    }
+
+    public String getDeviceName() {
+        return null;
+    }
+
+    public int getDeviceId() {
+        return 0;
+    }
+
+    public int getVendorId() {
+        return 0;
+    }
+
+    public int getProductId() {
+        return 0;
+    }
+
+    public int getDeviceClass() {
+        return 0;
+    }
+
+    public int getDeviceSubclass() {
+        return 0;
+    }
+
+    public int getDeviceProtocol() {
+        return 0;
+    }
+
+    public int getInterfaceCount() {
+        return 0;
+    }
+
+    public UsbInterface getInterface(int index) {
+        throw new ArrayIndexOutOfBoundsException(index);
+    }
+
+}
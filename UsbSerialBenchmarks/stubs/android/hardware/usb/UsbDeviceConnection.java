@@ -0,0 +1,67 @@
+/* This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package android.hardware.usb;
+
+/**
+ * Stand-in for the Android class, for running the library on a desktop JVM.
+ * Every transfer fails; emulated devices are reached through a
+ * {@code UsbTransport} instead.
+ */
+public class UsbDeviceConnection {
+
+    protected UsbDeviceConnection() {
+    }
+
+    public void close() {
+    }
+
+    public int getFileDescriptor() {
+        return -1;
+    }
+
+    public byte[] getRawDescriptors() {
+        return null;
+    }
+
+    public boolean claimInterface(UsbInterface intf, boolean force) {
+        return false;
+    }
+
+    public boolean releaseInterface(UsbInterface intf) {
+        return false;
+    }
+
+    public int controlTransfer(int requestType, int request, int value, int index,
+            byte[] buffer, int length, int timeout) {
+        return -1;
+    }
+
+    public int bulkTransfer(UsbEndpoint endpoint, byte[] buffer, int length, int timeout) {
+        return -1;
+    }
+
+    public UsbRequest requestWait() {
+        return null;
+    }
+
+    public String getSerial() {
+        return null;
+    }
+
+}
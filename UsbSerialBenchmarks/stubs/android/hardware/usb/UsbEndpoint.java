@@ -0,0 +1,58 @@
+/* This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package android.hardware.usb;
+
+/**
+ * Stand-in for the Android class, for running the library on a desktop JVM.
+ * Unlike the SDK stub, it can be subclassed to describe emulated devices.
+ */
+public class UsbEndpoint {
+
+    protected UsbEndpoint() {
+    }
+
+    public int getAddress() {
+        return 0;
+    }
+
+    public int getEndpointNumber() {
+        return getAddress() & UsbConstants.USB_ENDPOINT_NUMBER_MASK;
+    }
+
+    public int getDirection() {
+        return getAddress() & UsbConstants.USB_ENDPOINT_DIR_MASK;
+    }
+
+    public int getAttributes() {
+        return 0;
+    }
+
+    public int getType() {
+        return getAttributes() & UsbConstants.USB_ENDPOINT_XFERTYPE_MASK;
+    }
+
+    public int getMaxPacketSize() {
+        return 0;
+    }
+
+    public int getInterval() {
+        return 0;
+    }
+
+}
@@ -0,0 +1,55 @@
+/* This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package android.hardware.usb;
+
+/**
+ * Stand-in for the Android class, for running the library on a desktop JVM.
+ * Unlike the SDK stub, it can be subclassed to describe emulated devices;
+ * this base class describes an interface without endpoints.
+ */
+public class UsbInterface {
+
+    protected UsbInterface() {
+    }
+
+    public int getId() {
+        return 0;
+    }
+
+    public int getInterfaceClass() {
+        return 0;
+    }
+
+    public int getInterfaceSubclass() {
+        return 0;
+    }
+
+    public int getInterfaceProtocol() {
+        return 0;
+    }
+
+    public int getEndpointCount() {
+        return 0;
+    }
+
+    public UsbEndpoint getEndpoint(int index) {
+        throw new ArrayIndexOutOfBoundsException(index);
+    }
+
+}
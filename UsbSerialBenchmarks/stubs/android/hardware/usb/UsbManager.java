@@ -0,0 +1,48 @@
+/* This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package android.hardware.usb;
+
+import java.util.HashMap;
+
+/**
+ * Stand-in for the Android class, for running the library on a desktop JVM.
+ * No devices are attached.
+ */
+public class UsbManager {
+
+    public static final String ACTION_USB_DEVICE_ATTACHED =
+            "android.hardware.usb.action.USB_DEVICE_ATTACHED";
+    public static final String ACTION_USB_DEVICE_DETACHED =
+            "android.hardware.usb.action.USB_DEVICE_DETACHED";
+    public static final String EXTRA_DEVICE = "device";
+    public static final String EXTRA_PERMISSION_GRANTED = "permission";
+
+    public HashMap<String, UsbDevice> getDeviceList() {
+        return new HashMap<String, UsbDevice>();
+    }
+
+    public UsbDeviceConnection openDevice(UsbDevice device) {
+        return null;
+    }
+
+    public boolean hasPermission(UsbDevice device) {
+        return false;
+    }
+
+}
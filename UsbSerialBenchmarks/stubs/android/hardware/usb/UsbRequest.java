@@ -0,0 +1,64 @@
+/* This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package android.hardware.usb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Stand-in for the Android class, for running the library on a desktop JVM.
+ * Requests cannot be initialized, since there is no real connection.
+ */
+public class UsbRequest {
+
+    private UsbEndpoint mEndpoint;
+    private Object mClientData;
+
+    public UsbRequest() {
+    }
+
+    public boolean initialize(UsbDeviceConnection connection, UsbEndpoint endpoint) {
+        mEndpoint = endpoint;
+        return false;
+    }
+
+    public void close() {
+        mEndpoint = null;
+    }
+
+    public UsbEndpoint getEndpoint() {
+        return mEndpoint;
+    }
+
+    public Object getClientData() {
+        return mClientData;
+    }
+
+    public void setClientData(Object data) {
+        mClientData = data;
+    }
+
+    public boolean queue(ByteBuffer buffer, int length) {
+        return false;
+    }
+
+    public boolean cancel() {
+        return false;
+    }
+
+}
@@ -0,0 +1,166 @@
+/* This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package com.hoho.android.usbserial.driver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.hoho.android.usbserial.benchmark.SimulatedDevices;
+import com.hoho.android.usbserial.util.SimulatedUsbTransport;
+import com.hoho.android.usbserial.util.SimulatedUsbTransport.DeviceType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes through a CDC ACM device emulated by {@link SimulatedUsbTransport}
+ * whose buffer holds only a few bytes, so that every write takes several
+ * partial transfers.
+ */
+public class CommonUsbSerialPortTest {
+
+    private static final int TIMEOUT_MILLIS = 5000;
+    private static final int DEVICE_BUFFER_CAPACITY = 8;
+
+    private SimulatedUsbTransport mTransport;
+    private UsbSerialPort mPort;
+    private Thread mReceiver;
+    private byte[] mReceived;
+
+    @Before
+    public void setUp() throws IOException {
+        mTransport = new SimulatedUsbTransport(DeviceType.CDC_ACM);
+        mTransport.setBufferCapacity(DEVICE_BUFFER_CAPACITY);
+        mPort = SimulatedDevices.createDriver("test", mTransport).getPort(0);
+        mPort.open(null);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mPort.close();
+    }
+
+    private static byte[] pattern(int length) {
+        final byte[] data = new byte[length];
+        for (int i = 0; i < length; ++i) {
+            data[i] = (byte) i;
+        }
+        return data;
+    }
+
+    // Starts taking 'length' bytes on the device side, while the test
+    // writes them.
+    private void startReceiving(final int length) {
+        mReceived = new byte[length];
+        mReceiver = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int count = 0;
+                while (count < length) {
+                    final int n = mTransport.receiveFromHost(mReceived, count,
+                            length - count, TIMEOUT_MILLIS);
+                    if (n == 0) {
+                        return;
+                    }
+                    count += n;
+                }
+            }
+        });
+        mReceiver.start();
+    }
+
+    private byte[] awaitReceived() throws InterruptedException {
+        mReceiver.join(TIMEOUT_MILLIS);
+        assertFalse("Not all data received", mReceiver.isAlive());
+        return mReceived;
+    }
+
+    @Test
+    public void writeArray() throws Exception {
+        final byte[] data = pattern(40);
+        startReceiving(data.length);
+        mPort.write(data);
+        assertArrayEquals(data, awaitReceived());
+    }
+
+    @Test
+    public void writeHeapBufferWithOffset() throws Exception {
+        final byte[] data = pattern(50);
+        final ByteBuffer src = ByteBuffer.wrap(data, 10, 40).slice();
+        startReceiving(40);
+        mPort.write(src);
+        assertEquals(0, src.remaining());
+
+        final byte[] expected = new byte[40];
+        System.arraycopy(data, 10, expected, 0, expected.length);
+        assertArrayEquals(expected, awaitReceived());
+    }
+
+    @Test
+    public void writeDirectBuffer() throws Exception {
+        final byte[] data = pattern(40);
+        final ByteBuffer src = ByteBuffer.allocateDirect(data.length);
+        src.put(data);
+        src.flip();
+        startReceiving(data.length);
+        mPort.write(src);
+        assertEquals(0, src.remaining());
+        assertArrayEquals(data, awaitReceived());
+    }
+
+    @Test
+    public void writeGathering() throws Exception {
+        final byte[] data = pattern(40);
+        final ByteBuffer direct = ByteBuffer.allocateDirect(15);
+        direct.put(data, 0, 15);
+        direct.flip();
+        final ByteBuffer[] srcs = new ByteBuffer[] {
+                direct,
+                ByteBuffer.wrap(data, 15, 5),
+                ByteBuffer.allocate(0),
+                ByteBuffer.wrap(data, 20, 20)
+        };
+        startReceiving(data.length);
+        mPort.write(srcs);
+        for (final ByteBuffer src : srcs) {
+            assertEquals(0, src.remaining());
+        }
+        assertArrayEquals(data, awaitReceived());
+    }
+
+    @Test
+    public void writeLargerThanWriteBuffer() throws Exception {
+        // More than one write buffer of data, so the gathering write sends
+        // several full buffers.
+        final byte[] data = pattern(40000);
+        final ByteBuffer src = ByteBuffer.allocateDirect(data.length);
+        src.put(data);
+        src.flip();
+        mTransport.setBufferCapacity(1000);
+        startReceiving(data.length);
+        mPort.write(src);
+        assertArrayEquals(data, awaitReceived());
+    }
+
+}
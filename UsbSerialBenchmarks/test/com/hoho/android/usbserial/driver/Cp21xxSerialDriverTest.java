@@ -0,0 +1,219 @@
+/* This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package com.hoho.android.usbserial.driver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.hoho.android.usbserial.benchmark.SimulatedDevices;
+import com.hoho.android.usbserial.util.SimulatedUsbTransport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks the line control word which the CP21xx driver sends, and that
+ * settings which have not changed are not sent again. The port is opened on
+ * a CP2102 emulated by {@link SimulatedUsbTransport}.
+ */
+public class Cp21xxSerialDriverTest {
+
+    private static final int SET_LINE_CTL_REQUEST = 0x03;
+    private static final int SET_MHS_REQUEST = 0x07;
+    private static final int SET_BAUDRATE_REQUEST = 0x1e;
+
+    /**
+     * A control transfer sent by the driver.
+     */
+    private static final class ControlTransfer {
+        final int request;
+        final int value;
+        final byte[] data;
+
+        ControlTransfer(int request, int value, byte[] data) {
+            this.request = request;
+            this.value = value;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Records the control transfers sent to the device.
+     */
+    private static final class RecordingTransport extends SimulatedUsbTransport {
+        // Synchronized by 'this'
+        private final List<ControlTransfer> mTransfers = new ArrayList<ControlTransfer>();
+
+        RecordingTransport() {
+            super(DeviceType.CP21XX);
+        }
+
+        @Override
+        public synchronized int controlTransfer(int requestType, int request, int value,
+                int index, byte[] buffer, int length, int timeout) {
+            byte[] data = null;
+            if (buffer != null) {
+                data = new byte[length];
+                System.arraycopy(buffer, 0, data, 0, length);
+            }
+            mTransfers.add(new ControlTransfer(request, value, data));
+            return super.controlTransfer(requestType, request, value, index, buffer,
+                    length, timeout);
+        }
+
+        /**
+         * Returns the transfers recorded since the last call.
+         */
+        synchronized List<ControlTransfer> takeTransfers() {
+            final List<ControlTransfer> transfers = new ArrayList<ControlTransfer>(mTransfers);
+            mTransfers.clear();
+            return transfers;
+        }
+    }
+
+    private RecordingTransport mTransport;
+    private UsbSerialPort mPort;
+
+    @Before
+    public void setUp() throws IOException {
+        mTransport = new RecordingTransport();
+        mPort = SimulatedDevices.createDriver("test", mTransport).getPort(0);
+        mPort.open(null);
+        mTransport.takeTransfers();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mPort.close();
+    }
+
+    // Sets the parameters, and returns the line control word sent
+    private int sendLineControl(int dataBits, int stopBits, int parity) throws IOException {
+        mPort.setParameters(9600, dataBits, stopBits, parity);
+        int lineControl = -1;
+        for (final ControlTransfer transfer : mTransport.takeTransfers()) {
+            if (transfer.request == SET_LINE_CTL_REQUEST) {
+                assertEquals("line control sent twice", -1, lineControl);
+                lineControl = transfer.value;
+            }
+        }
+        return lineControl;
+    }
+
+    @Test
+    public void lineControlWord() throws IOException {
+        // Data bits in bits 8 to 11, parity in bits 4 to 7, stop bits in
+        // bits 0 to 3.
+        assertEquals(0x0800, sendLineControl(UsbSerialPort.DATABITS_8,
+                UsbSerialPort.STOPBITS_1, UsbSerialPort.PARITY_NONE));
+        assertEquals(0x0711, sendLineControl(UsbSerialPort.DATABITS_7,
+                UsbSerialPort.STOPBITS_1_5, UsbSerialPort.PARITY_ODD));
+        assertEquals(0x0622, sendLineControl(UsbSerialPort.DATABITS_6,
+                UsbSerialPort.STOPBITS_2, UsbSerialPort.PARITY_EVEN));
+        assertEquals(0x0530, sendLineControl(UsbSerialPort.DATABITS_5,
+                UsbSerialPort.STOPBITS_1, UsbSerialPort.PARITY_MARK));
+        assertEquals(0x0840, sendLineControl(UsbSerialPort.DATABITS_8,
+                UsbSerialPort.STOPBITS_1, UsbSerialPort.PARITY_SPACE));
+    }
+
+    @Test
+    public void baudRateIsSentLittleEndian() throws IOException {
+        assertEquals(115200, mPort.setParameters(115200, UsbSerialPort.DATABITS_8,
+                UsbSerialPort.STOPBITS_1, UsbSerialPort.PARITY_NONE));
+        final List<ControlTransfer> transfers = mTransport.takeTransfers();
+        assertEquals(2, transfers.size());
+        assertEquals(SET_BAUDRATE_REQUEST, transfers.get(0).request);
+        assertArrayEquals(new byte[] {
+                0x00, (byte) 0xc2, 0x01, 0x00
+        }, transfers.get(0).data);
+    }
+
+    @Test
+    public void unchangedParametersAreNotSent() throws IOException {
+        mPort.setParameters(9600, UsbSerialPort.DATABITS_8, UsbSerialPort.STOPBITS_1,
+                UsbSerialPort.PARITY_NONE);
+        assertEquals(2, mTransport.takeTransfers().size());
+
+        mPort.setParameters(9600, UsbSerialPort.DATABITS_8, UsbSerialPort.STOPBITS_1,
+                UsbSerialPort.PARITY_NONE);
+        assertEquals(0, mTransport.takeTransfers().size());
+
+        // Only the changed part of the settings is sent.
+        mPort.setParameters(19200, UsbSerialPort.DATABITS_8, UsbSerialPort.STOPBITS_1,
+                UsbSerialPort.PARITY_NONE);
+        List<ControlTransfer> transfers = mTransport.takeTransfers();
+        assertEquals(1, transfers.size());
+        assertEquals(SET_BAUDRATE_REQUEST, transfers.get(0).request);
+
+        mPort.setParameters(19200, UsbSerialPort.DATABITS_7, UsbSerialPort.STOPBITS_1,
+                UsbSerialPort.PARITY_NONE);
+        transfers = mTransport.takeTransfers();
+        assertEquals(1, transfers.size());
+        assertEquals(SET_LINE_CTL_REQUEST, transfers.get(0).request);
+    }
+
+    @Test
+    public void unchangedControlLinesAreNotSent() throws IOException {
+        // Opening the port sets DTR and RTS.
+        mPort.setDTR(true);
+        mPort.setRTS(true);
+        assertEquals(0, mTransport.takeTransfers().size());
+
+        mPort.setDTR(false);
+        List<ControlTransfer> transfers = mTransport.takeTransfers();
+        assertEquals(1, transfers.size());
+        assertEquals(SET_MHS_REQUEST, transfers.get(0).request);
+        assertEquals(0x0100, transfers.get(0).value);
+
+        mPort.setDTR(false);
+        assertEquals(0, mTransport.takeTransfers().size());
+
+        mPort.setRTS(false);
+        transfers = mTransport.takeTransfers();
+        assertEquals(1, transfers.size());
+        assertEquals(0x0200, transfers.get(0).value);
+    }
+
+    private void assertRejected(int baudRate, int dataBits, int stopBits, int parity)
+            throws IOException {
+        try {
+            mPort.setParameters(baudRate, dataBits, stopBits, parity);
+            fail("Invalid parameters accepted");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+        assertEquals(0, mTransport.takeTransfers().size());
+    }
+
+    @Test
+    public void invalidParametersAreRejectedBeforeSending() throws IOException {
+        assertRejected(0, UsbSerialPort.DATABITS_8, UsbSerialPort.STOPBITS_1,
+                UsbSerialPort.PARITY_NONE);
+        assertRejected(9600, 9, UsbSerialPort.STOPBITS_1, UsbSerialPort.PARITY_NONE);
+        assertRejected(9600, UsbSerialPort.DATABITS_8, 4, UsbSerialPort.PARITY_NONE);
+        assertRejected(9600, UsbSerialPort.DATABITS_8, UsbSerialPort.STOPBITS_1, 5);
+    }
+
+}
@@ -0,0 +1,118 @@
+/* This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package com.hoho.android.usbserial.driver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * Checks the divisors of {@link FtdiBaudRateTable} for BM, AM and H chips.
+ * Divisors are in eighths of the 3 MHz (or 12 MHz) clock; the fraction is
+ * encoded in bits 14 to 16, and bit 17 selects the 12 MHz clock.
+ */
+public class FtdiBaudRateTableTest {
+
+    private static final int HIGH_SPEED_CLOCK_BIT = 0x20000;
+
+    private final FtdiBaudRateTable mBm = new FtdiBaudRateTable(false, false);
+    private final FtdiBaudRateTable mAm = new FtdiBaudRateTable(true, false);
+    private final FtdiBaudRateTable mH = new FtdiBaudRateTable(false, true);
+
+    private static void assertDivisor(int actualBaudRate, int encoded,
+            FtdiBaudRateTable.Divisor divisor) {
+        assertEquals("actual baud rate", actualBaudRate, divisor.actualBaudRate);
+        assertEquals("encoded divisor", encoded, divisor.encoded);
+    }
+
+    @Test
+    public void integerAndFractionalDivisors() {
+        // 312 1/2: the fraction 1/2 has the code 1, 1/4 the code 2.
+        assertDivisor(9600, 312 | (1 << 14), mBm.getDivisor(9600));
+        assertDivisor(9600, 312 | (1 << 14), mAm.getDivisor(9600));
+        assertDivisor(19200, 156 | (2 << 14), mBm.getDivisor(19200));
+        assertDivisor(1200, 2500, mBm.getDivisor(1200));
+    }
+
+    @Test
+    public void actualBaudRateIsRounded() {
+        // 3 MHz / 26 = 115384.6
+        assertDivisor(115385, 26, mBm.getDivisor(115200));
+        // 3 MHz / 13 = 230769.2
+        assertDivisor(230769, 13, mBm.getDivisor(230400));
+    }
+
+    @Test
+    public void fractionsOnlyOnBmChips() {
+        // 20 3/8 gives 147239; AM chips cannot divide by 3/8, and use the
+        // closer of 20 1/4 and 20 1/2.
+        assertDivisor(147239, 20 | (4 << 14), mBm.getDivisor(147239));
+        assertDivisor(146341, 20 | (1 << 14), mAm.getDivisor(147239));
+        // 20 7/8
+        assertDivisor(143713, 20 | (7 << 14), mBm.getDivisor(143713));
+    }
+
+    @Test
+    public void specialDivisors() {
+        // The divisors 1 and 1.5 are encoded as 0 and 1.
+        assertDivisor(3000000, 0, mBm.getDivisor(3000000));
+        assertDivisor(2000000, 1, mBm.getDivisor(2000000));
+        // AM chips have no divisor 1.5, and use 2.
+        assertDivisor(1500000, 2, mAm.getDivisor(2000000));
+        // Faster rates than the clock allows use the divisor 1.
+        assertDivisor(3000000, 0, mBm.getDivisor(4000000));
+    }
+
+    @Test
+    public void slowestRate() {
+        // The largest divisor is 16383 7/8 on BM chips, 16383 1/2 on AM chips.
+        assertDivisor(183, 0x3fff | (7 << 14), mBm.getDivisor(100));
+        assertDivisor(183, 0x3fff | (1 << 14), mAm.getDivisor(100));
+    }
+
+    @Test
+    public void highSpeedClock() {
+        assertDivisor(12000000, HIGH_SPEED_CLOCK_BIT, mH.getDivisor(12000000));
+        assertDivisor(8000000, 1 | HIGH_SPEED_CLOCK_BIT, mH.getDivisor(8000000));
+        assertDivisor(6000000, 2 | HIGH_SPEED_CLOCK_BIT, mH.getDivisor(6000000));
+        // Both clocks give exactly 9600, the 12 MHz clock is preferred.
+        assertDivisor(9600, 1250 | HIGH_SPEED_CLOCK_BIT, mH.getDivisor(9600));
+        // Too slow for the 12 MHz clock, the 3 MHz clock is used.
+        assertDivisor(300, 10000, mH.getDivisor(300));
+    }
+
+    @Test
+    public void divisorsAreCached() {
+        assertSame(mBm.getDivisor(115200), mBm.getDivisor(115200));
+        assertSame(mBm.getDivisor(12345), mBm.getDivisor(12345));
+    }
+
+    @Test
+    public void invalidBaudRate() {
+        try {
+            mBm.getDivisor(0);
+            fail("Baud rate 0 accepted");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+}
@@ -0,0 +1,236 @@
+/* This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package com.hoho.android.usbserial.driver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.hoho.android.usbserial.benchmark.SimulatedDevices;
+import com.hoho.android.usbserial.driver.FtdiSerialDriver.FtdiSerialPort;
+import com.hoho.android.usbserial.util.SimulatedUsbTransport;
+import com.hoho.android.usbserial.util.SimulatedUsbTransport.DeviceType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks how the FTDI driver removes the status header of each received
+ * packet, and how it evaluates the status bytes. The port is opened on an
+ * FT232R emulated by {@link SimulatedUsbTransport}, whose read endpoint has
+ * 64 byte packets.
+ */
+public class FtdiSerialDriverTest {
+
+    private static final int PACKET_SIZE = 64;
+    private static final int HEADER_LENGTH = 2;
+
+    private static final int MODEM_STATUS_CTS = 0x10;
+    private static final int MODEM_STATUS_DSR = 0x20;
+    private static final int MODEM_STATUS_RI = 0x40;
+    private static final int MODEM_STATUS_CD = 0x80;
+
+    private static final int LINE_STATUS_IDLE = 0x60;
+    private static final int LINE_STATUS_OVERRUN = 0x02;
+    private static final int LINE_STATUS_PARITY = 0x04;
+    private static final int LINE_STATUS_FRAMING = 0x08;
+    private static final int LINE_STATUS_BREAK = 0x10;
+
+    /**
+     * Records the status reported to a {@link ModemStatusListener}.
+     */
+    private static final class RecordingListener implements ModemStatusListener {
+        final List<Integer> mStatus = new ArrayList<Integer>();
+
+        @Override
+        public synchronized void onModemStatusChanged(UsbSerialPort port, int status) {
+            mStatus.add(Integer.valueOf(status));
+        }
+    }
+
+    private SimulatedUsbTransport mTransport;
+    private FtdiSerialPort mPort;
+
+    @Before
+    public void setUp() throws IOException {
+        mTransport = new SimulatedUsbTransport(DeviceType.FTDI);
+        mPort = (FtdiSerialPort) SimulatedDevices.createDriver("test", mTransport).getPort(0);
+        mPort.open(null);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mPort.close();
+    }
+
+    /**
+     * Builds raw read data: one packet per payload, each with the given
+     * status bytes.
+     */
+    private static byte[] packets(int modemStatus, int[] lineStatus, byte[]... payloads) {
+        int length = 0;
+        for (final byte[] payload : payloads) {
+            length += HEADER_LENGTH + payload.length;
+        }
+        final byte[] raw = new byte[length];
+        int pos = 0;
+        for (int i = 0; i < payloads.length; ++i) {
+            raw[pos] = (byte) modemStatus;
+            raw[pos + 1] = (byte) lineStatus[i];
+            System.arraycopy(payloads[i], 0, raw, pos + HEADER_LENGTH, payloads[i].length);
+            pos += HEADER_LENGTH + payloads[i].length;
+        }
+        return raw;
+    }
+
+    private static int[] idle(int packetCount) {
+        final int[] lineStatus = new int[packetCount];
+        for (int i = 0; i < packetCount; ++i) {
+            lineStatus[i] = LINE_STATUS_IDLE;
+        }
+        return lineStatus;
+    }
+
+    private static byte[] pattern(int length, int seed) {
+        final byte[] data = new byte[length];
+        for (int i = 0; i < length; ++i) {
+            data[i] = (byte) (i * 31 + seed);
+        }
+        return data;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (final byte[] part : parts) {
+            length += part.length;
+        }
+        final byte[] result = new byte[length];
+        int pos = 0;
+        for (final byte[] part : parts) {
+            System.arraycopy(part, 0, result, pos, part.length);
+            pos += part.length;
+        }
+        return result;
+    }
+
+    @Test
+    public void filterStatusBytesWithShortFinalPacket() {
+        final byte[] first = pattern(PACKET_SIZE - HEADER_LENGTH, 1);
+        final byte[] second = pattern(PACKET_SIZE - HEADER_LENGTH, 2);
+        final byte[] last = pattern(5, 3);
+        final byte[] raw = packets(0, idle(3), first, second, last);
+
+        final byte[] dest = new byte[3 + raw.length];
+        final int count = FtdiSerialDriver.filterStatusBytes(raw, raw.length, dest, 3,
+                PACKET_SIZE);
+
+        final byte[] expected = concat(first, second, last);
+        assertEquals(expected.length, count);
+        final byte[] payload = new byte[count];
+        System.arraycopy(dest, 3, payload, 0, count);
+        assertArrayEquals(expected, payload);
+    }
+
+    @Test
+    public void filterStatusBytesWithoutPayload() {
+        // A final packet of only the header, and one cut inside the header.
+        final byte[] data = pattern(PACKET_SIZE - HEADER_LENGTH, 4);
+        final byte[] raw = packets(0, idle(2), data, new byte[0]);
+        final byte[] dest = new byte[raw.length];
+        assertEquals(data.length, FtdiSerialDriver.filterStatusBytes(raw, raw.length,
+                dest, 0, PACKET_SIZE));
+        assertEquals(data.length, FtdiSerialDriver.filterStatusBytes(raw, raw.length - 1,
+                dest, 0, PACKET_SIZE));
+        assertEquals(0, FtdiSerialDriver.filterStatusBytes(raw, HEADER_LENGTH, dest, 0,
+                PACKET_SIZE));
+        assertEquals(0, FtdiSerialDriver.filterStatusBytes(raw, -1, dest, 0, PACKET_SIZE));
+    }
+
+    @Test
+    public void filterReadDataInPlace() {
+        final byte[] first = pattern(PACKET_SIZE - HEADER_LENGTH, 5);
+        final byte[] last = pattern(1, 6);
+        final byte[] raw = packets(0, idle(2), first, last);
+
+        final int count = mPort.filterReadData(raw, raw.length);
+
+        final byte[] expected = concat(first, last);
+        assertEquals(expected.length, count);
+        final byte[] payload = new byte[count];
+        System.arraycopy(raw, 0, payload, 0, count);
+        assertArrayEquals(expected, payload);
+    }
+
+    @Test
+    public void filterReadDataUpdatesModemStatus() throws IOException {
+        final RecordingListener listener = new RecordingListener();
+        mPort.setModemStatusListener(listener);
+
+        final byte[] raw = packets(MODEM_STATUS_CD | MODEM_STATUS_CTS, idle(1), pattern(4, 7));
+        final long controlTransfers = mTransport.getControlTransferCount();
+        mPort.filterReadData(raw, raw.length);
+
+        // The simulated device reports no status lines if polled, so these
+        // come from the packet.
+        assertTrue(mPort.getCD());
+        assertTrue(mPort.getCTS());
+        assertFalse(mPort.getDSR());
+        assertFalse(mPort.getRI());
+        assertEquals(controlTransfers, mTransport.getControlTransferCount());
+
+        final byte[] next = packets(MODEM_STATUS_DSR | MODEM_STATUS_RI, idle(1), pattern(4, 8));
+        mPort.filterReadData(next, next.length);
+        assertEquals(2, listener.mStatus.size());
+        assertEquals(ModemStatusListener.STATUS_CD | ModemStatusListener.STATUS_CTS,
+                listener.mStatus.get(0).intValue());
+        assertEquals(ModemStatusListener.STATUS_DSR | ModemStatusListener.STATUS_RI,
+                listener.mStatus.get(1).intValue());
+    }
+
+    @Test
+    public void filterReadDataCountsLineErrors() {
+        final int[] lineStatus = {
+                LINE_STATUS_IDLE | LINE_STATUS_OVERRUN,
+                LINE_STATUS_IDLE,
+                LINE_STATUS_IDLE | LINE_STATUS_PARITY | LINE_STATUS_FRAMING,
+                LINE_STATUS_IDLE | LINE_STATUS_BREAK | LINE_STATUS_OVERRUN
+        };
+        final byte[] payload = pattern(PACKET_SIZE - HEADER_LENGTH, 9);
+        final byte[] raw = packets(0, lineStatus, payload, payload, payload, pattern(3, 10));
+
+        assertEquals(3 * payload.length + 3, mPort.filterReadData(raw, raw.length));
+        assertEquals(2, mPort.getOverrunErrorCount());
+        assertEquals(1, mPort.getParityErrorCount());
+        assertEquals(1, mPort.getFramingErrorCount());
+        assertEquals(1, mPort.getBreakCount());
+
+        mPort.resetLineErrorCounts();
+        assertEquals(0, mPort.getOverrunErrorCount());
+        assertEquals(0, mPort.getParityErrorCount());
+        assertEquals(0, mPort.getFramingErrorCount());
+        assertEquals(0, mPort.getBreakCount());
+    }
+
+}
@@ -0,0 +1,194 @@
+/* This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package com.hoho.android.usbserial.driver;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.hardware.usb.UsbConstants;
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbInterface;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+/**
+ * Checks the lookups of {@link ProbeTable}, and the contents of the table
+ * built by {@link UsbSerialProber}.
+ */
+public class ProbeTableTest {
+
+    private static final int CUSTOM_VENDOR = 0x1234;
+    private static final int CUSTOM_PRODUCT = 0x0001;
+
+    private static final class Interface extends UsbInterface {
+        private final int mInterfaceClass;
+
+        Interface(int interfaceClass) {
+            mInterfaceClass = interfaceClass;
+        }
+
+        @Override
+        public int getInterfaceClass() {
+            return mInterfaceClass;
+        }
+    }
+
+    private static final class Device extends UsbDevice {
+        private final int mVendorId;
+        private final int mProductId;
+        private final UsbInterface[] mInterfaces;
+
+        Device(int vendorId, int productId, int... interfaceClasses) {
+            mVendorId = vendorId;
+            mProductId = productId;
+            mInterfaces = new UsbInterface[interfaceClasses.length];
+            for (int i = 0; i < interfaceClasses.length; ++i) {
+                mInterfaces[i] = new Interface(interfaceClasses[i]);
+            }
+        }
+
+        @Override
+        public int getVendorId() {
+            return mVendorId;
+        }
+
+        @Override
+        public int getProductId() {
+            return mProductId;
+        }
+
+        @Override
+        public int getInterfaceCount() {
+            return mInterfaces.length;
+        }
+
+        @Override
+        public UsbInterface getInterface(int index) {
+            return mInterfaces[index];
+        }
+    }
+
+    /**
+     * Returns no driver, but records the device it was asked for.
+     */
+    private static final class RecordingFactory implements ProbeTable.DriverFactory {
+        UsbDevice mDevice;
+
+        @Override
+        public UsbSerialDriver createDriver(UsbDevice usbDevice) {
+            mDevice = usbDevice;
+            return null;
+        }
+    }
+
+    @Test
+    public void firstProberWins() {
+        // Every product supported by the built-in drivers maps to the first
+        // prober, in declaration order, which supports it.
+        final ProbeTable table = UsbSerialProber.getDefaultProbeTable();
+        int productCount = 0;
+        for (final UsbSerialProber prober : UsbSerialProber.values()) {
+            for (final Map.Entry<Integer, int[]> entry : prober.getSupportedDevices().entrySet()) {
+                for (final int productId : entry.getValue()) {
+                    final ProbeTable.DriverFactory expected = firstProber(
+                            entry.getKey().intValue(), productId);
+                    assertSame(expected, table.findFactory(entry.getKey().intValue(),
+                            productId));
+                    ++productCount;
+                }
+            }
+        }
+        assertTrue(productCount > 0);
+    }
+
+    private static UsbSerialProber firstProber(int vendorId, int productId) {
+        for (final UsbSerialProber prober : UsbSerialProber.values()) {
+            final int[] productIds = prober.getSupportedDevices().get(Integer.valueOf(vendorId));
+            if (productIds != null) {
+                for (final int id : productIds) {
+                    if (id == productId) {
+                        return prober;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void laterEntryReplacesEarlier() {
+        final ProbeTable table = new ProbeTable()
+                .addProduct(CUSTOM_VENDOR, CUSTOM_PRODUCT, UsbSerialProber.FTDI_SERIAL)
+                .addProduct(CUSTOM_VENDOR, CUSTOM_PRODUCT, UsbSerialProber.SILAB_SERIAL);
+        assertSame(UsbSerialProber.SILAB_SERIAL,
+                table.findFactory(CUSTOM_VENDOR, CUSTOM_PRODUCT));
+    }
+
+    @Test
+    public void customEntries() {
+        final RecordingFactory factory = new RecordingFactory();
+        final ProbeTable table = new ProbeTable()
+                .addProducts(FtdiSerialDriver.getSupportedDevices(), UsbSerialProber.FTDI_SERIAL)
+                .addProduct(CUSTOM_VENDOR, CUSTOM_PRODUCT, factory);
+
+        assertSame(factory, table.findFactory(CUSTOM_VENDOR, CUSTOM_PRODUCT));
+        assertSame(UsbSerialProber.FTDI_SERIAL,
+                table.findFactory(UsbId.VENDOR_FTDI, UsbId.FTDI_FT232R));
+        assertNull(table.findFactory(CUSTOM_VENDOR, CUSTOM_PRODUCT + 1));
+        assertNull(table.findFactory(CUSTOM_VENDOR + 1, CUSTOM_PRODUCT));
+
+        // Many entries, so that the table is resized several times.
+        for (int i = 0; i < 100; ++i) {
+            table.addProduct(CUSTOM_VENDOR + 1, i, UsbSerialProber.PROLIFIC_SERIAL);
+        }
+        for (int i = 0; i < 100; ++i) {
+            assertSame(UsbSerialProber.PROLIFIC_SERIAL, table.findFactory(CUSTOM_VENDOR + 1, i));
+        }
+        assertSame(factory, table.findFactory(CUSTOM_VENDOR, CUSTOM_PRODUCT));
+
+        final Device device = new Device(CUSTOM_VENDOR, CUSTOM_PRODUCT);
+        assertNull(table.probeDevice(device));
+        assertSame(device, factory.mDevice);
+    }
+
+    @Test
+    public void interfaceClassMatch() {
+        final ProbeTable table = new ProbeTable()
+                .addProduct(CUSTOM_VENDOR, CUSTOM_PRODUCT, UsbSerialProber.FTDI_SERIAL)
+                .addInterfaceClass(UsbConstants.USB_CLASS_COMM, UsbSerialProber.CDC_ACM_SERIAL);
+
+        // Any interface of the device may match.
+        assertSame(UsbSerialProber.CDC_ACM_SERIAL, table.findFactory(new Device(
+                CUSTOM_VENDOR + 1, CUSTOM_PRODUCT, UsbConstants.USB_CLASS_VENDOR_SPEC,
+                UsbConstants.USB_CLASS_COMM)));
+        assertNull(table.findFactory(new Device(CUSTOM_VENDOR + 1, CUSTOM_PRODUCT,
+                UsbConstants.USB_CLASS_VENDOR_SPEC, UsbConstants.USB_CLASS_CDC_DATA)));
+
+        // A product entry takes precedence.
+        final Device device = new Device(CUSTOM_VENDOR, CUSTOM_PRODUCT,
+                UsbConstants.USB_CLASS_COMM);
+        assertSame(UsbSerialProber.FTDI_SERIAL, table.findFactory(device));
+        // The lookup by IDs alone ignores the interface classes.
+        assertNull(table.findFactory(CUSTOM_VENDOR + 1, CUSTOM_PRODUCT));
+    }
+
+}
@@ -0,0 +1,154 @@
+/* This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package com.hoho.android.usbserial.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link ByteRingBuffer} keeps the bytes in order when its data
+ * wraps around the end of the array, and when the array is resized.
+ */
+public class ByteRingBufferTest {
+
+    private static byte[] pattern(int length, int seed) {
+        final byte[] data = new byte[length];
+        for (int i = 0; i < length; ++i) {
+            data[i] = (byte) (i * 31 + seed);
+        }
+        return data;
+    }
+
+    private static byte[] range(byte[] data, int offset, int length) {
+        final byte[] result = new byte[length];
+        System.arraycopy(data, offset, result, 0, length);
+        return result;
+    }
+
+    private static byte[] take(ByteRingBuffer buffer, int length) {
+        final byte[] data = new byte[length];
+        assertEquals(length, buffer.take(data, 0, length));
+        return data;
+    }
+
+    @Test
+    public void wrapAround() {
+        final ByteRingBuffer buffer = new ByteRingBuffer(8, 8);
+        final byte[] data = pattern(11, 1);
+        assertEquals(6, buffer.put(data, 0, 6));
+        assertArrayEquals(range(data, 0, 4), take(buffer, 4));
+
+        // Fills bytes 6, 7 and 0 to 2 of the array.
+        assertEquals(5, buffer.put(data, 6, 5));
+        assertEquals(7, buffer.size());
+        assertEquals(1, buffer.free());
+
+        final byte[] dest = new byte[10];
+        assertEquals(7, buffer.take(dest, 3, 10 - 3));
+        assertArrayEquals(range(data, 4, 7), range(dest, 3, 7));
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void putIsLimitedToMaxCapacity() {
+        final ByteRingBuffer buffer = new ByteRingBuffer(4, 10);
+        final byte[] data = pattern(16, 2);
+        assertEquals(10, buffer.put(data, 0, data.length));
+        assertEquals(0, buffer.free());
+        assertEquals(0, buffer.put(data, 10, 6));
+        assertArrayEquals(range(data, 0, 10), take(buffer, 10));
+    }
+
+    @Test
+    public void growWhileWrapped() {
+        final ByteRingBuffer buffer = new ByteRingBuffer(8, 64);
+        final byte[] data = pattern(30, 3);
+        buffer.put(data, 0, 7);
+        assertArrayEquals(range(data, 0, 5), take(buffer, 5));
+        // Wraps, then grows the array while the data wraps.
+        buffer.put(data, 7, 4);
+        buffer.put(data, 11, 19);
+        assertEquals(25, buffer.size());
+        assertArrayEquals(range(data, 5, 25), take(buffer, 25));
+    }
+
+    @Test
+    public void shrinkWhileWrapped() {
+        final ByteRingBuffer buffer = new ByteRingBuffer(16, 16);
+        final byte[] data = pattern(20, 4);
+        buffer.put(data, 0, 14);
+        buffer.discard(12);
+        buffer.put(data, 14, 6);
+
+        buffer.setMaxCapacity(8);
+        assertEquals(8, buffer.getMaxCapacity());
+        assertEquals(0, buffer.free());
+        try {
+            buffer.setMaxCapacity(7);
+            fail("Capacity below size accepted");
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+        assertArrayEquals(range(data, 12, 8), take(buffer, 8));
+
+        // Grows again up to the new maximum.
+        buffer.setMaxCapacity(32);
+        assertEquals(20, buffer.put(data, 0, 20));
+        assertArrayEquals(data, take(buffer, 20));
+    }
+
+    @Test
+    public void discardAndClear() {
+        final ByteRingBuffer buffer = new ByteRingBuffer(8, 8);
+        final byte[] data = pattern(8, 5);
+        buffer.put(data, 0, 8);
+        assertEquals(3, buffer.discard(3));
+        assertArrayEquals(range(data, 3, 2), take(buffer, 2));
+        assertEquals(3, buffer.discard(10));
+        assertEquals(0, buffer.discard(1));
+        assertTrue(buffer.isEmpty());
+
+        buffer.put(data, 0, 5);
+        buffer.clear();
+        assertTrue(buffer.isEmpty());
+        assertEquals(8, buffer.put(data, 0, 8));
+        assertArrayEquals(data, take(buffer, 8));
+    }
+
+    @Test
+    public void invalidCapacity() {
+        try {
+            new ByteRingBuffer(0, 8);
+            fail("Initial capacity 0 accepted");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+        try {
+            new ByteRingBuffer(8, 4);
+            fail("Max capacity below initial capacity accepted");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+}
@@ -0,0 +1,113 @@
+/* This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package com.hoho.android.usbserial.util;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Checks the bucket boundaries and the statistics of
+ * {@link LatencyHistogram}.
+ */
+public class LatencyHistogramTest {
+
+    private static final double DELTA = 1e-9;
+
+    // Returns the value which a single recorded value is reported as
+    private static long reported(long nanos) {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(nanos);
+        return histogram.getMax();
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        for (long value = 0; value < 64; ++value) {
+            assertEquals(value, reported(value));
+        }
+    }
+
+    @Test
+    public void bucketBoundaries() {
+        // Between 64 and 127 the buckets are 2 wide, between 128 and 255
+        // 4 wide, and so on.
+        assertEquals(64, reported(64));
+        assertEquals(64, reported(65));
+        assertEquals(66, reported(66));
+        assertEquals(126, reported(127));
+        assertEquals(128, reported(128));
+        assertEquals(128, reported(131));
+        assertEquals(132, reported(132));
+        assertEquals(252, reported(255));
+        assertEquals(256, reported(256));
+        // 2^19 * 61/32
+        assertEquals(999424, reported(1000000));
+        assertEquals(63L << 57, reported(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void negativeValuesCountAsZero() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MIN_VALUE);
+        assertEquals(2, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+    }
+
+    @Test
+    public void percentiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        for (int value = 1; value <= 10; ++value) {
+            histogram.record(value);
+        }
+        assertEquals(1, histogram.getValueAtPercentile(0));
+        assertEquals(1, histogram.getValueAtPercentile(10));
+        assertEquals(5, histogram.getValueAtPercentile(50));
+        assertEquals(6, histogram.getValueAtPercentile(51));
+        assertEquals(10, histogram.getValueAtPercentile(99));
+        assertEquals(10, histogram.getValueAtPercentile(100));
+        assertEquals(5.5, histogram.getMean(), DELTA);
+    }
+
+    @Test
+    public void addCopyAndReset() {
+        final LatencyHistogram first = new LatencyHistogram();
+        first.record(10);
+        first.record(20);
+        final LatencyHistogram second = new LatencyHistogram();
+        second.record(30);
+
+        final LatencyHistogram copy = first.copy();
+        first.add(second);
+        assertEquals(3, first.getCount());
+        assertEquals(30, first.getMax());
+        assertEquals(20, first.getMean(), DELTA);
+        assertEquals(2, copy.getCount());
+        assertEquals(20, copy.getMax());
+
+        first.reset();
+        assertEquals(0, first.getCount());
+        assertEquals(0, first.getMax());
+        assertEquals(0, first.getMean(), DELTA);
+        assertEquals(1, second.getCount());
+    }
+
+}
@@ -0,0 +1,275 @@
+/* This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package com.hoho.android.usbserial.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.hoho.android.usbserial.benchmark.SimulatedDevices;
+import com.hoho.android.usbserial.driver.UsbSerialPort;
+import com.hoho.android.usbserial.util.SerialInputOutputManager.WriteOverflowPolicy;
+import com.hoho.android.usbserial.util.SimulatedUsbTransport.DeviceType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives {@link SerialInputOutputManager} in its blocking mode through a CDC
+ * ACM device emulated by {@link SimulatedUsbTransport}.
+ */
+public class SerialInputOutputManagerTest {
+
+    private static final int TIMEOUT_MILLIS = 5000;
+
+    /**
+     * Collects the received data, and the error which ended run().
+     */
+    private static final class RecordingListener implements SerialInputOutputManager.Listener {
+        private final ByteArrayOutputStream mData = new ByteArrayOutputStream();
+        private Exception mError;
+
+        @Override
+        public synchronized void onNewData(byte[] data) {
+            mData.write(data, 0, data.length);
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void onRunError(Exception e) {
+            mError = e;
+        }
+
+        synchronized byte[] awaitData(int length) throws InterruptedException {
+            final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (mData.size() < length) {
+                final long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                wait(remaining);
+            }
+            return mData.toByteArray();
+        }
+
+        synchronized Exception getError() {
+            return mError;
+        }
+    }
+
+    /**
+     * Records which {@link SerialInputOutputManager.WriteCallback} method
+     * was called. The callbacks may run after drain() has returned.
+     */
+    private static final class RecordingCallback implements SerialInputOutputManager.WriteCallback {
+        private final CountDownLatch mCalled = new CountDownLatch(1);
+        private volatile boolean mCompleted = false;
+
+        @Override
+        public void onWriteComplete() {
+            mCompleted = true;
+            mCalled.countDown();
+        }
+
+        @Override
+        public void onWriteAborted() {
+            mCalled.countDown();
+        }
+
+        boolean awaitCompleted() throws InterruptedException {
+            assertTrue("Callback not called", mCalled.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+            return mCompleted;
+        }
+    }
+
+    private SimulatedUsbTransport mTransport;
+    private UsbSerialPort mPort;
+    private RecordingListener mListener;
+    private SerialInputOutputManager mManager;
+    private Thread mThread;
+
+    @Before
+    public void setUp() throws IOException {
+        mTransport = new SimulatedUsbTransport(DeviceType.CDC_ACM);
+        mPort = SimulatedDevices.createDriver("test", mTransport).getPort(0);
+        mPort.open(null);
+        mListener = new RecordingListener();
+        mManager = new SerialInputOutputManager(mPort, mListener);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (mThread != null) {
+            mManager.stop();
+            mThread.join(TIMEOUT_MILLIS);
+            assertFalse("run() did not end", mThread.isAlive());
+        }
+        mPort.close();
+    }
+
+    private void start() {
+        mThread = new Thread(mManager, "SerialInputOutputManagerTest");
+        mThread.start();
+    }
+
+    private static byte[] pattern(int length, int seed) {
+        final byte[] data = new byte[length];
+        for (int i = 0; i < length; ++i) {
+            data[i] = (byte) (i * 31 + seed);
+        }
+        return data;
+    }
+
+    // Reads 'length' bytes on the device side of the transport.
+    private byte[] receiveFromHost(int length) {
+        final byte[] data = new byte[length];
+        int count = 0;
+        while (count < length) {
+            final int n = mTransport.receiveFromHost(data, count, length - count, TIMEOUT_MILLIS);
+            if (n == 0) {
+                fail("Received " + count + " of " + length + " bytes");
+            }
+            count += n;
+        }
+        return data;
+    }
+
+    @Test
+    public void echoRoundTrip() throws Exception {
+        mTransport.setLoopback(true);
+        start();
+
+        final byte[] first = pattern(1000, 1);
+        final byte[] second = pattern(20000, 2);
+        mManager.writeAsync(first);
+        mManager.writeAsync(second);
+
+        final byte[] expected = new byte[first.length + second.length];
+        System.arraycopy(first, 0, expected, 0, first.length);
+        System.arraycopy(second, 0, expected, first.length, second.length);
+        assertArrayEquals(expected, mListener.awaitData(expected.length));
+        assertEquals(null, mListener.getError());
+    }
+
+    @Test
+    public void drainWaitsUntilDataIsWritten() throws Exception {
+        start();
+
+        final byte[] data = pattern(10000, 3);
+        final RecordingCallback callback = new RecordingCallback();
+        mManager.writeAsync(data, callback);
+        assertTrue(mManager.drain(TIMEOUT_MILLIS));
+        assertTrue(callback.awaitCompleted());
+        assertArrayEquals(data, receiveFromHost(data.length));
+    }
+
+    @Test
+    public void drainReturnsWhenStopped() throws Exception {
+        // The device accepts only a few bytes, so most data stays buffered.
+        mTransport.setBufferCapacity(8);
+        start();
+
+        final RecordingCallback callback = new RecordingCallback();
+        mManager.writeAsync(pattern(4000, 4), callback);
+        assertFalse(mManager.drain(200));
+
+        mManager.stop();
+        mThread.join(TIMEOUT_MILLIS);
+        assertFalse(mThread.isAlive());
+        mThread = null;
+        assertTrue(mManager.drain(TIMEOUT_MILLIS));
+        assertFalse(callback.awaitCompleted());
+    }
+
+    @Test
+    public void failPolicyRejectsData() {
+        mManager.setWriteBufferCapacity(16);
+        mManager.writeAsync(pattern(10, 5));
+        try {
+            mManager.writeAsync(pattern(7, 6));
+            fail("Overflow not rejected");
+        } catch (BufferOverflowException e) {
+            // Expected.
+        }
+        mManager.writeAsync(pattern(6, 7));
+    }
+
+    @Test
+    public void dropOldestPolicyKeepsNewestData() throws Exception {
+        mManager.setWriteBufferCapacity(16);
+        mManager.setWriteOverflowPolicy(WriteOverflowPolicy.DROP_OLDEST);
+
+        final RecordingCallback dropped = new RecordingCallback();
+        final RecordingCallback kept = new RecordingCallback();
+        mManager.writeAsync(pattern(12, 8), dropped);
+        final byte[] data = pattern(16, 9);
+        mManager.writeAsync(data, kept);
+        assertFalse(dropped.awaitCompleted());
+
+        start();
+        assertTrue(mManager.drain(TIMEOUT_MILLIS));
+        assertTrue(kept.awaitCompleted());
+        assertArrayEquals(data, receiveFromHost(data.length));
+    }
+
+    @Test
+    public void blockPolicyRejectsDataWhenNotRunning() {
+        mManager.setWriteBufferCapacity(16);
+        mManager.setWriteOverflowPolicy(WriteOverflowPolicy.BLOCK);
+        try {
+            mManager.writeAsync(pattern(17, 10));
+            fail("Overflow not rejected");
+        } catch (BufferOverflowException e) {
+            // Expected, waiting would never end.
+        }
+    }
+
+    @Test
+    public void blockPolicyWaitsForSpace() throws Exception {
+        mManager.setWriteBufferCapacity(256);
+        mManager.setWriteOverflowPolicy(WriteOverflowPolicy.BLOCK);
+        mTransport.setBufferCapacity(64);
+        start();
+
+        final byte[] data = pattern(4096, 11);
+        final byte[][] received = new byte[1][];
+        final Thread device = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                received[0] = receiveFromHost(data.length);
+            }
+        });
+        device.start();
+
+        mManager.writeAsync(data);
+        device.join(TIMEOUT_MILLIS);
+        assertFalse(device.isAlive());
+        assertArrayEquals(data, received[0]);
+    }
+
+}
@@ -0,0 +1,191 @@
+/* This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package com.hoho.android.usbserial.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbEndpoint;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Checks which transfers {@link TransferTraceBuffer} keeps, and that entries
+ * read while several threads record are never torn.
+ */
+public class TransferTraceBufferTest {
+
+    private static final int TIMEOUT_MILLIS = 10000;
+
+    private static final UsbDevice DEVICE = new UsbDevice() {
+        @Override
+        public int getDeviceId() {
+            return 1002;
+        }
+    };
+
+    private static final UsbEndpoint ENDPOINT = new UsbEndpoint() {
+        @Override
+        public int getAddress() {
+            return 0x81;
+        }
+    };
+
+    // Records a control transfer whose fields are all derived from 'value'
+    private static void recordControl(TransferTraceBuffer buffer, int value) {
+        buffer.onControlTransfer(DEVICE, 0x40, value & 0xff, value, value + 1, value + 2,
+                value + 3, value * 1000L, value + 4L);
+    }
+
+    private static void assertControl(int value, TransferTraceBuffer.Entry entry) {
+        assertTrue(entry.isControl());
+        assertEquals(1002, entry.getDeviceId());
+        assertEquals(0, entry.getEndpointAddress());
+        assertEquals(0x40, entry.getRequestType());
+        assertEquals(value & 0xff, entry.getRequest());
+        assertEquals(value, entry.getValue());
+        assertEquals(value + 1, entry.getIndex());
+        assertEquals(value + 2, entry.getLength());
+        assertEquals(value + 3, entry.getResult());
+        assertEquals(value * 1000L, entry.getStartNanos());
+        assertEquals(value + 4L, entry.getDurationNanos());
+    }
+
+    @Test
+    public void capacityIsRoundedUp() {
+        assertEquals(1, new TransferTraceBuffer(1).getCapacity());
+        assertEquals(4, new TransferTraceBuffer(3).getCapacity());
+        assertEquals(4, new TransferTraceBuffer(4).getCapacity());
+        assertEquals(1024, new TransferTraceBuffer(1000).getCapacity());
+    }
+
+    @Test
+    public void recordsBothKindsOfTransfers() {
+        final TransferTraceBuffer buffer = new TransferTraceBuffer(4);
+        assertTrue(buffer.getEntries().isEmpty());
+        recordControl(buffer, 7);
+        buffer.onBulkTransfer(DEVICE, ENDPOINT, 64, 12, 5000L, 300L);
+
+        final List<TransferTraceBuffer.Entry> entries = buffer.getEntries();
+        assertEquals(2, entries.size());
+        assertEquals(0, entries.get(0).getSequence());
+        assertControl(7, entries.get(0));
+
+        final TransferTraceBuffer.Entry bulk = entries.get(1);
+        assertEquals(1, bulk.getSequence());
+        assertFalse(bulk.isControl());
+        assertEquals(1002, bulk.getDeviceId());
+        assertEquals(0x81, bulk.getEndpointAddress());
+        assertEquals(64, bulk.getLength());
+        assertEquals(12, bulk.getResult());
+        assertEquals(5000L, bulk.getStartNanos());
+        assertEquals(300L, bulk.getDurationNanos());
+    }
+
+    @Test
+    public void oldestEntriesAreOverwritten() {
+        final TransferTraceBuffer buffer = new TransferTraceBuffer(4);
+        for (int i = 0; i < 6; ++i) {
+            recordControl(buffer, i);
+        }
+        assertEquals(6, buffer.getTotalCount());
+
+        final List<TransferTraceBuffer.Entry> entries = buffer.getEntries();
+        assertEquals(4, entries.size());
+        for (int i = 0; i < 4; ++i) {
+            assertEquals(i + 2, entries.get(i).getSequence());
+            assertControl(i + 2, entries.get(i));
+        }
+    }
+
+    @Test
+    public void clearRemovesEntries() {
+        final TransferTraceBuffer buffer = new TransferTraceBuffer(4);
+        for (int i = 0; i < 3; ++i) {
+            recordControl(buffer, i);
+        }
+        buffer.clear();
+        assertTrue(buffer.getEntries().isEmpty());
+        assertEquals(3, buffer.getTotalCount());
+
+        recordControl(buffer, 3);
+        final List<TransferTraceBuffer.Entry> entries = buffer.getEntries();
+        assertEquals(1, entries.size());
+        assertEquals(3, entries.get(0).getSequence());
+        assertControl(3, entries.get(0));
+    }
+
+    @Test
+    public void concurrentWritersNeverTearEntries() throws Exception {
+        // With many more writers than slots, transfers are regularly dropped
+        // because their slot is still being written. Whatever is returned
+        // must be complete.
+        final TransferTraceBuffer buffer = new TransferTraceBuffer(4);
+        final int writerCount = 4;
+        final int transfersPerWriter = 50000;
+        final CountDownLatch done = new CountDownLatch(writerCount);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        for (int w = 0; w < writerCount; ++w) {
+            final int writer = w;
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < transfersPerWriter; ++i) {
+                        recordControl(buffer, writer * transfersPerWriter + i);
+                    }
+                    done.countDown();
+                }
+            });
+            thread.start();
+        }
+
+        while (done.getCount() > 0) {
+            long previous = -1;
+            for (final TransferTraceBuffer.Entry entry : buffer.getEntries()) {
+                try {
+                    assertTrue(entry.getSequence() > previous);
+                    assertControl(entry.getValue(), entry);
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+                previous = entry.getSequence();
+            }
+        }
+        assertTrue(done.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+
+        assertEquals(writerCount * transfersPerWriter, buffer.getTotalCount());
+        final List<TransferTraceBuffer.Entry> entries = buffer.getEntries();
+        assertTrue(entries.size() <= buffer.getCapacity());
+        for (final TransferTraceBuffer.Entry entry : entries) {
+            assertControl(entry.getValue(), entry);
+        }
+    }
+
+}
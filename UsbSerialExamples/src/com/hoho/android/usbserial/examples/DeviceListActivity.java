@@ -24,11 +24,7 @@ import android.app.Activity;
 import android.content.Context;
 import android.hardware.usb.UsbDevice;
 import android.hardware.usb.UsbManager;
-import android.os.AsyncTask;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Message;
-import android.os.SystemClock;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -42,7 +38,7 @@ import android.widget.TwoLineListItem;
 
 import com.hoho.android.usbserial.driver.UsbSerialDriver;
 import com.hoho.android.usbserial.driver.UsbSerialPort;
-import com.hoho.android.usbserial.driver.UsbSerialProber;
+import com.hoho.android.usbserial.util.DeviceRegistry;
 import com.hoho.android.usbserial.util.HexDump;
 
 import java.util.ArrayList;
@@ -58,27 +54,21 @@ public class DeviceListActivity extends Activity {
     private final String TAG = DeviceListActivity.class.getSimpleName();
 
     private UsbManager mUsbManager;
+    private DeviceRegistry mDeviceRegistry;
     private ListView mListView;
     private TextView mProgressBarTitle;
     private ProgressBar mProgressBar;
 
-    private static final int MESSAGE_REFRESH = 101;
-    private static final long REFRESH_TIMEOUT_MILLIS = 5000;
-
-    private final Handler mHandler = new Handler() {
+    private final DeviceRegistry.Listener mDeviceListener = new DeviceRegistry.Listener() {
         @Override
-        public void handleMessage(Message msg) {
-            switch (msg.what) {
-                case MESSAGE_REFRESH:
-                    refreshDeviceList();
-                    mHandler.sendEmptyMessageDelayed(MESSAGE_REFRESH, REFRESH_TIMEOUT_MILLIS);
-                    break;
-                default:
-                    super.handleMessage(msg);
-                    break;
-            }
+        public void onDeviceAdded(UsbSerialDriver driver) {
+            refreshDeviceList();
         }
 
+        @Override
+        public void onDeviceRemoved(UsbSerialDriver driver) {
+            refreshDeviceList();
+        }
     };
 
     /** Simple container for a UsbDevice and its driver. */
@@ -103,6 +93,8 @@ public class DeviceListActivity extends Activity {
         setContentView(R.layout.main);
 
         mUsbManager = (UsbManager) getSystemService(Context.USB_SERVICE);
+        mDeviceRegistry = new DeviceRegistry(this);
+        mDeviceRegistry.addListener(mDeviceListener);
         mListView = (ListView) findViewById(R.id.deviceList);
         mProgressBar = (ProgressBar) findViewById(R.id.progressBar);
         mProgressBarTitle = (TextView) findViewById(R.id.progressBarTitle);
@@ -125,7 +117,7 @@ public class DeviceListActivity extends Activity {
                         HexDump.toHexString((short) entry.device.getProductId()));
                 row.getText1().setText(title);
 
-                final String subtitle = entry.device != null ?
+                final String subtitle = entry.driver != null ?
                         entry.driver.getShortDeviceName() + " port " + entry.portIdx : "No Port";
                 row.getText2().setText(subtitle);
 
@@ -159,58 +151,38 @@ public class DeviceListActivity extends Activity {
     @Override
     protected void onResume() {
         super.onResume();
-        mHandler.sendEmptyMessage(MESSAGE_REFRESH);
+        mDeviceRegistry.start();
+        refreshDeviceList();
     }
 
     @Override
     protected void onPause() {
         super.onPause();
-        mHandler.removeMessages(MESSAGE_REFRESH);
+        mDeviceRegistry.stop();
     }
 
+    // Called on the main thread whenever the registry has changed.
     private void refreshDeviceList() {
-        showProgressBar();
-
-        new AsyncTask<Void, Void, List<DeviceEntry>>() {
-            @Override
-            protected List<DeviceEntry> doInBackground(Void... params) {
-                Log.d(TAG, "Refreshing device list ...");
-                SystemClock.sleep(1000);
-                final List<DeviceEntry> result = new ArrayList<DeviceEntry>();
-                for (final UsbDevice device : mUsbManager.getDeviceList().values()) {
-                    final UsbSerialDriver driver =
-                            UsbSerialProber.probeSingleDevice(device);
-                    Log.d(TAG, "Found usb device: " + device);
-                    if (driver == null) {
-                        Log.d(TAG, "  - No UsbSerialDriver available.");
-                        result.add(new DeviceEntry(device, null, 0));
-                    } else {
-                        Log.d(TAG, "  + " + driver + ", " + driver.getPortCount() + " ports.");
-                        for (int i = 0; i < driver.getPortCount(); ++i) {
-                            result.add(new DeviceEntry(device, driver, i));
-                        }
-                    }
+        Log.d(TAG, "Refreshing device list ...");
+        mEntries.clear();
+        for (final UsbDevice device : mUsbManager.getDeviceList().values()) {
+            final UsbSerialDriver driver = mDeviceRegistry.getDriver(device);
+            Log.d(TAG, "Found usb device: " + device);
+            if (driver == null) {
+                Log.d(TAG, "  - No UsbSerialDriver available.");
+                mEntries.add(new DeviceEntry(device, null, 0));
+            } else {
+                Log.d(TAG, "  + " + driver + ", " + driver.getPortCount() + " ports.");
+                for (int i = 0; i < driver.getPortCount(); ++i) {
+                    mEntries.add(new DeviceEntry(device, driver, i));
                 }
-                return result;
             }
-
-            @Override
-            protected void onPostExecute(List<DeviceEntry> result) {
-                mEntries.clear();
-                mEntries.addAll(result);
-                mAdapter.notifyDataSetChanged();
-                mProgressBarTitle.setText(
-                        String.format("%s device(s) found",Integer.valueOf(mEntries.size())));
-                hideProgressBar();
-                Log.d(TAG, "Done refreshing, " + mEntries.size() + " entries found.");
-            }
-
-        }.execute((Void) null);
-    }
-
-    private void showProgressBar() {
-        mProgressBar.setVisibility(View.VISIBLE);
-        mProgressBarTitle.setText(R.string.refreshing);
+        }
+        mAdapter.notifyDataSetChanged();
+        mProgressBarTitle.setText(
+                String.format("%s device(s) found",Integer.valueOf(mEntries.size())));
+        hideProgressBar();
+        Log.d(TAG, "Done refreshing, " + mEntries.size() + " entries found.");
     }
 
     private void hideProgressBar() {
@@ -28,9 +28,6 @@ public class CdcAcmSerialDriver extends CommonSinglePortUsbSerialDriver {
     protected UsbEndpoint mReadEndpoint;
     protected UsbEndpoint mWriteEndpoint;
 
-    private boolean mRts = false;
-    private boolean mDtr = false;
-
     private static final int USB_RECIP_INTERFACE = 0x01;
     private static final int USB_RT_ACM = UsbConstants.USB_DIR_OUT
             | UsbConstants.USB_TYPE_CLASS
@@ -46,7 +43,36 @@ public class CdcAcmSerialDriver extends CommonSinglePortUsbSerialDriver {
     protected static final int STATUS_FLAG_RI = 0x08;
     protected static final int STATUS_FLAG_CTS = 0x80;
 
-    protected int mBaudRate = -1, mDataBits = -1, mStopBits = -1, mParity = -1;
+    // Notifications received from the control endpoint, USB CDC 1.1
+    // section 6.3. SERIAL_STATE is specific to PSTN devices.
+    private static final int NOTIFICATION_HEADER_LENGTH = 8;
+    private static final int NOTIFICATION_SERIAL_STATE = 0x20;
+    private static final int SERIAL_STATE_LENGTH = 2;
+
+    // The SERIAL_STATE bits of the status lines, which are the same as the
+    // STATUS_FLAG_* bits. CDC does not report CTS.
+    private static final int SERIAL_STATE_FLAGS = STATUS_FLAG_CD | STATUS_FLAG_DSR
+            | STATUS_FLAG_RI;
+
+    private final Object mStatusPollingLock = new Object();
+
+    // Synchronized by 'mStatusPollingLock'
+    private boolean mStatusPolling = false;
+
+    private volatile int mSerialState = 0;
+
+    // Only used by the status polling thread, reassembles notifications
+    // which are split into several packets.
+    private final byte[] mNotification =
+            new byte[NOTIFICATION_HEADER_LENGTH + SERIAL_STATE_LENGTH];
+    private int mNotificationLength = 0;
+
+    private final StatusPoller.Callback mStatusCallback = new StatusPoller.Callback() {
+        @Override
+        public void onStatusData(byte[] data, int length) {
+            handleStatusData(data, length);
+        }
+    };
 
     public CdcAcmSerialDriver(UsbDevice device) {
         super(device);
@@ -54,15 +80,90 @@ public class CdcAcmSerialDriver extends CommonSinglePortUsbSerialDriver {
 
     @Override
     protected void initDriverSpecific(UsbManager usbManager) throws IOException, AccessControlException {
+        // The status is only polled once it is needed.
         initEndpoints();
+        if (getModemStatusListener() != null) {
+            startStatusPolling();
+        }
     }
 
     @Override
     protected void deinitDriverSpecific() throws IOException {
+        stopStatusPolling();
+    }
+
+    /**
+     * Has the shared {@link StatusPoller} read the control endpoint, unless
+     * this is already the case. Data is passed to
+     * {@link #handleStatusData(byte[], int)}.
+     */
+    protected void startStatusPolling() {
+        synchronized (mStatusPollingLock) {
+            if (mStatusPolling) {
+                return;
+            }
+            if ((mControlEndpoint == null)
+                    || (mControlEndpoint.getType() != UsbConstants.USB_ENDPOINT_XFER_INT)
+                    || (mControlEndpoint.getDirection() != UsbConstants.USB_DIR_IN)) {
+                Log.w(TAG, "No interrupt endpoint, status lines not available");
+                return;
+            }
+            readInitialStatus();
+            StatusPoller.getInstance().register(mTransport, mControlEndpoint, mStatusCallback);
+            mStatusPolling = true;
+        }
+    }
+
+    protected void stopStatusPolling() {
+        synchronized (mStatusPollingLock) {
+            if (mStatusPolling) {
+                StatusPoller.getInstance().unregister(mStatusCallback);
+                mStatusPolling = false;
+            }
+        }
+    }
+
+    /**
+     * Called by {@link #startStatusPolling()} before the polling starts. CDC
+     * devices only send the status when it changes, so the status lines are
+     * considered inactive until then.
+     */
+    protected void readInitialStatus() {
+        mSerialState = 0;
+        mNotificationLength = 0;
+    }
+
+    /**
+     * Handles data received from the control endpoint, called on the
+     * polling thread.
+     *
+     * @param data the received data
+     * @param length the number of bytes received
+     */
+    protected void handleStatusData(byte[] data, int length) {
+        for (int i = 0; i < length; ++i) {
+            if (mNotificationLength < mNotification.length) {
+                mNotification[mNotificationLength] = data[i];
+            }
+            ++mNotificationLength;
+            if (mNotificationLength < NOTIFICATION_HEADER_LENGTH) {
+                continue;
+            }
+
+            final int dataLength = (mNotification[6] & 0xff) | ((mNotification[7] & 0xff) << 8);
+            if (mNotificationLength == NOTIFICATION_HEADER_LENGTH + dataLength) {
+                if ((mNotification[1] == NOTIFICATION_SERIAL_STATE)
+                        && (dataLength >= SERIAL_STATE_LENGTH)) {
+                    mSerialState = mNotification[NOTIFICATION_HEADER_LENGTH] & 0xff;
+                    reportModemStatus(mSerialState & SERIAL_STATE_FLAGS);
+                }
+                mNotificationLength = 0;
+            }
+        }
     }
 
     protected int sendAcmControlMessage(int request, int value, byte[] buf) {
-        return mConnection.controlTransfer(
+        return mTransport.controlTransfer(
                 USB_RT_ACM, request, value, 0, buf, buf != null ? buf.length : 0, 5000);
     }
 
@@ -72,7 +173,7 @@ public class CdcAcmSerialDriver extends CommonSinglePortUsbSerialDriver {
         Log.d(TAG, "Control iface=" + controlInterface);
         // class should be USB_CLASS_COMM
 
-        if (!mConnection.claimInterface(controlInterface, true)) {
+        if (!mTransport.claimInterface(controlInterface, true)) {
             throw new IOException("Could not claim control interface.");
         }
         mControlEndpoint = controlInterface.getEndpoint(0);
@@ -83,7 +184,7 @@ public class CdcAcmSerialDriver extends CommonSinglePortUsbSerialDriver {
         Log.d(TAG, "data iface=" + dataInterface);
         // class should be USB_CLASS_CDC_DATA
 
-        if (!mConnection.claimInterface(dataInterface, true)) {
+        if (!mTransport.claimInterface(dataInterface, true)) {
             throw new IOException("Could not claim data interface.");
         }
         mReadEndpoint = dataInterface.getEndpoint(1);
@@ -93,24 +194,20 @@ public class CdcAcmSerialDriver extends CommonSinglePortUsbSerialDriver {
     }
 
     @Override
-    public int read(final byte[] dest,
-            final int timeoutMillis) throws IOException {
-        final int count = mConnection.bulkTransfer(mReadEndpoint, dest, dest.length, timeoutMillis);
-        return (count < 0) ? 0 : count;
+    public UsbEndpoint getReadEndpoint() {
+        return mReadEndpoint;
     }
 
     @Override
-    public int write(byte[] src, final int length, int timeoutMillis) throws IOException {
-        final int count = mConnection.bulkTransfer(mWriteEndpoint, src, length, timeoutMillis);
-        return (count < 0) ? 0 : count;
+    public UsbEndpoint getWriteEndpoint() {
+        return mWriteEndpoint;
     }
 
     @Override
-    public void setParameters(int baudRate, int dataBits, int stopBits, int parity) throws IOException {
-        if ((mBaudRate == baudRate) && (mDataBits == dataBits)
-                && (mStopBits == stopBits) && (mParity == parity)) {
+    public int setParameters(int baudRate, int dataBits, int stopBits, int parity) throws IOException {
+        if (!mLineState.isLineCodingChanged(baudRate, dataBits, stopBits, parity)) {
             // Make sure no action is performed if there is nothing to change
-            return;
+            return baudRate;
         }
 
         byte stopBitsByte;
@@ -139,54 +236,73 @@ public class CdcAcmSerialDriver extends CommonSinglePortUsbSerialDriver {
                 stopBitsByte,
                 parityBitesByte,
                 (byte) dataBits};
-        sendAcmControlMessage(SET_LINE_CODING, 0, msg);
+        if (sendAcmControlMessage(SET_LINE_CODING, 0, msg) < 0) {
+            // Some devices don't support this request, they are retried on
+            // the next call.
+            Log.w(TAG, "SET_LINE_CODING failed");
+        } else {
+            mLineState.setLineCoding(baudRate, dataBits, stopBits, parity);
+        }
+        return baudRate;
+    }
 
-        mBaudRate = baudRate;
-        mDataBits = dataBits;
-        mStopBits = stopBits;
-        mParity = parity;
+    /**
+     * Also starts reading status changes from the device, if a listener is
+     * set while the port is open.
+     */
+    @Override
+    public void setModemStatusListener(ModemStatusListener listener) {
+        super.setModemStatusListener(listener);
+        if ((listener != null) && isOpen()) {
+            startStatusPolling();
+        }
+    }
+
+    // Starts polling on the first status query. A notification sent by the
+    // device before is kept in its interrupt endpoint until then.
+    private int getSerialState() {
+        startStatusPolling();
+        return mSerialState;
     }
 
     @Override
     public boolean getCD() throws IOException {
-        return false;  // TODO
+        return (getSerialState() & STATUS_FLAG_CD) != 0;
     }
 
     @Override
     public boolean getCTS() throws IOException {
-        return false;  // TODO
+        return false;  // Not reported by CDC devices
     }
 
     @Override
     public boolean getDSR() throws IOException {
-        return false;  // TODO
+        return (getSerialState() & STATUS_FLAG_DSR) != 0;
     }
 
     @Override
     public boolean getDTR() throws IOException {
-        return mDtr;
+        return mLineState.getDtr();
     }
 
     @Override
     public void setDTR(boolean value) throws IOException {
-        mDtr = value;
-        setDtrRts();
+        setDtrRts(value, mLineState.getRts());
     }
 
     @Override
     public boolean getRI() throws IOException {
-        return false;  // TODO
+        return (getSerialState() & STATUS_FLAG_RI) != 0;
     }
 
     @Override
     public boolean getRTS() throws IOException {
-        return mRts;
+        return mLineState.getRts();
     }
 
     @Override
     public void setRTS(boolean value) throws IOException {
-        mRts = value;
-        setDtrRts();
+        setDtrRts(mLineState.getDtr(), value);
     }
 
     @Override
@@ -218,9 +334,17 @@ public class CdcAcmSerialDriver extends CommonSinglePortUsbSerialDriver {
         return shortDeviceName;
     }
 
-    private void setDtrRts() {
-        int value = (mRts ? 0x2 : 0) | (mDtr ? 0x1 : 0);
-        sendAcmControlMessage(SET_CONTROL_LINE_STATE, value, null);
+    // Both lines are set with one request, which is skipped if neither
+    // changes.
+    private void setDtrRts(boolean dtr, boolean rts) {
+        if (!mLineState.isDtrChanged(dtr) && !mLineState.isRtsChanged(rts)) {
+            return;
+        }
+        int value = (rts ? 0x2 : 0) | (dtr ? 0x1 : 0);
+        if (sendAcmControlMessage(SET_CONTROL_LINE_STATE, value, null) >= 0) {
+            mLineState.setDtr(dtr);
+            mLineState.setRts(rts);
+        }
     }
 
     public static Map<Integer, int[]> getSupportedDevices() {
@@ -10,12 +10,25 @@ import android.hardware.usb.UsbManager;
 public abstract class CommonSinglePortUsbSerialDriver extends CommonUsbSerialPort implements UsbSerialDriver {
 
     protected final UsbDevice mDevice;
-    protected UsbDeviceConnection mConnection;
+    protected UsbTransport mTransport;
+
+    private volatile UsbTransport.Factory mTransportFactory = DeviceConnectionTransport.FACTORY;
 
     public CommonSinglePortUsbSerialDriver(UsbDevice device) {
         mDevice = device;
     }
 
+    /**
+     * Sets the factory which opens the transport to the device when the port
+     * is opened, for example to use a simulated device.
+     *
+     * @param factory the factory, {@link DeviceConnectionTransport#FACTORY}
+     *            by default
+     */
+    public void setTransportFactory(UsbTransport.Factory factory) {
+        mTransportFactory = factory;
+    }
+
  // Implementors implement their port specific initialization
     // in this method.
     protected abstract void initDriverSpecific(UsbManager usbManager)
@@ -27,7 +40,8 @@ public abstract class CommonSinglePortUsbSerialDriver extends CommonUsbSerialPor
 
     @Override
     protected final void initPortSepcific(UsbManager usbManager) throws IOException, AccessControlException {
-        mConnection = CommonUsbSerialDriver.openDeviceConnection(usbManager, mDevice);
+        mTransport = TransferTracing.wrap(mDevice,
+                mTransportFactory.openTransport(usbManager, mDevice));
         initDriverSpecific(usbManager);
     }
 
@@ -35,13 +49,13 @@ public abstract class CommonSinglePortUsbSerialDriver extends CommonUsbSerialPor
     protected final void deinitPortSpecific() throws IOException {
         try {
             deinitDriverSpecific();
-            mConnection.close();
-            mConnection = null;
+            mTransport.close();
+            mTransport = null;
         } finally {
-            if (mConnection != null) {
+            if (mTransport != null) {
                 try {
-                    mConnection.close();
-                    mConnection = null;
+                    mTransport.close();
+                    mTransport = null;
                 } catch (Exception e) {
                 }
             }
@@ -53,6 +67,17 @@ public abstract class CommonSinglePortUsbSerialDriver extends CommonUsbSerialPor
     protected void portClosed() {
     }
 
+    @Override
+    public UsbDeviceConnection getConnection() {
+        final UsbTransport transport = mTransport;
+        return (transport != null) ? transport.getConnection() : null;
+    }
+
+    @Override
+    public UsbTransport getTransport() {
+        return mTransport;
+    }
+
     @Override
     public UsbDevice getDevice() {
         return mDevice;
@@ -37,30 +37,53 @@ abstract class CommonUsbSerialDriver implements UsbSerialDriver {
     public static final int DEFAULT_WRITE_TIMEOUT = 1000;
 
     protected final UsbDevice mDevice;
-    protected UsbDeviceConnection mConnection;
+    protected UsbTransport mTransport;
+
+    private volatile UsbTransport.Factory mTransportFactory = DeviceConnectionTransport.FACTORY;
 
     public CommonUsbSerialDriver(UsbDevice device) {
         mDevice = device;
     }
 
+    /**
+     * Sets the factory which opens the transport to the device when the first
+     * port is opened, for example to use a simulated device.
+     *
+     * @param factory the factory, {@link DeviceConnectionTransport#FACTORY}
+     *            by default
+     */
+    public void setTransportFactory(UsbTransport.Factory factory) {
+        mTransportFactory = factory;
+    }
+
     protected final void open(UsbManager usbManager) throws IOException, AccessControlException {
-        if (mConnection != null) {
+        if (mTransport != null) {
             throw new IllegalStateException("Driver already open");
         }
-        mConnection = openDeviceConnection(usbManager, mDevice);
+        mTransport = TransferTracing.wrap(mDevice,
+                mTransportFactory.openTransport(usbManager, mDevice));
     }
 
     protected final void close() {
-        if (mConnection == null) {
+        if (mTransport == null) {
             throw new IllegalStateException("Driver not open");
         }
 
-        mConnection.close();
-        mConnection = null;
+        mTransport.close();
+        mTransport = null;
     }
 
     protected final boolean isOpen() {
-        return (mConnection != null);
+        return (mTransport != null);
+    }
+
+    /**
+     * Returns the connection of the transport, or {@code null} if the driver
+     * is not open or does not use a {@link UsbDeviceConnection}.
+     */
+    protected final UsbDeviceConnection getTransportConnection() {
+        final UsbTransport transport = mTransport;
+        return (transport != null) ? transport.getConnection() : null;
     }
 
     static UsbDeviceConnection openDeviceConnection(UsbManager usbManager, UsbDevice device) throws IOException, AccessControlException {
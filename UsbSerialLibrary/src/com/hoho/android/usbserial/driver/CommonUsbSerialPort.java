@@ -1,17 +1,63 @@
 package com.hoho.android.usbserial.driver;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.security.AccessControlException;
-import java.util.Arrays;
 
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
 import android.hardware.usb.UsbManager;
 
 public abstract class CommonUsbSerialPort implements UsbSerialPort {
 
     public static final int DEFAULT_WRITE_TIMEOUT = 1000;
 
+    /**
+     * Size of the buffer used to read data which does not start at the
+     * beginning of an array, or which is not backed by an array.
+     */
+    protected static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * Size of the buffer used to write data which does not start at the
+     * beginning of an array, or which is not backed by an array.
+     */
+    protected static final int WRITE_BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * Flow control modes which {@link #setFlowControl(int)} accepts even if
+     * the device cannot handle them, see {@link #getSoftwareFlowControl()}.
+     */
+    public static final int SOFTWARE_FLOW_CONTROL = FLOWCONTROL_XONXOFF_OUT;
+
     protected boolean mOpen = false;
 
+    private volatile int mFlowControl = FLOWCONTROL_NONE;
+
+    /**
+     * The line settings last sent to the device, used by drivers to skip
+     * control transfers which would not change anything. Invalidated when
+     * the port is opened.
+     */
+    protected final LineState mLineState = new LineState();
+
+    private volatile ModemStatusListener mModemStatusListener = null;
+
+    // Synchronized by 'mModemStatusLock', the status last reported to the
+    // listener, -1 if none
+    private final Object mModemStatusLock = new Object();
+    private int mReportedModemStatus = -1;
+
+    protected final Object mReadBufferLock = new Object();
+
+    // Synchronized by 'mReadBufferLock'
+    protected final byte[] mReadBuffer = new byte[READ_BUFFER_SIZE];
+
+    protected final Object mWriteBufferLock = new Object();
+
+    // Synchronized by 'mWriteBufferLock'
+    protected final byte[] mWriteBuffer = new byte[WRITE_BUFFER_SIZE];
+
     // Implementors implement their port specific initialization
     // in this method.
     protected abstract void initPortSepcific(UsbManager usbManager)
@@ -31,6 +77,10 @@ public abstract class CommonUsbSerialPort implements UsbSerialPort {
             throw new IllegalStateException("Port already open");
         }
 
+        synchronized (mModemStatusLock) {
+            mReportedModemStatus = -1;
+        }
+        mLineState.invalidate();
         initPortSepcific(usbManager);
         mOpen = true;
     }
@@ -52,47 +102,281 @@ public abstract class CommonUsbSerialPort implements UsbSerialPort {
         return mOpen;
     }
 
+    /**
+     * Returns the connection used by this port, or {@code null} if the
+     * underlying device is not open, or is not accessed through a
+     * {@link UsbDeviceConnection} (see {@link #getTransport()}).
+     *
+     * @return the {@link UsbDeviceConnection} shared by all ports of the device
+     */
+    public abstract UsbDeviceConnection getConnection();
+
+    /**
+     * Returns the transport used by this port, or {@code null} if the
+     * underlying device is not open.
+     *
+     * @return the {@link UsbTransport} shared by all ports of the device
+     */
+    public abstract UsbTransport getTransport();
+
+    /**
+     * Returns the bulk IN endpoint of this port, or {@code null} if the port
+     * is not open.
+     *
+     * @return the read endpoint
+     */
+    public abstract UsbEndpoint getReadEndpoint();
+
+    /**
+     * Returns the bulk OUT endpoint of this port, or {@code null} if the port
+     * is not open.
+     *
+     * @return the write endpoint
+     */
+    public abstract UsbEndpoint getWriteEndpoint();
+
+    /**
+     * Returns the number of bytes which should be requested per read
+     * transfer, as used by
+     * {@link com.hoho.android.usbserial.util.SerialInputOutputManager}.
+     *
+     * @return the preferred read size, or 0 if the port has no preference
+     */
+    public int getReadChunkSize() {
+        return 0;
+    }
+
+    /**
+     * Removes driver specific framing (such as per-packet status headers)
+     * from data which has been received from {@link #getReadEndpoint()}
+     * without going through {@link #read(byte[], int)}, for example by an
+     * asynchronous {@link android.hardware.usb.UsbRequest}. The payload is
+     * moved to the start of the buffer.
+     *
+     * @param buffer the raw data as received from the read endpoint
+     * @param length the number of raw bytes in {@code buffer}
+     * @return the number of payload bytes
+     */
+    public int filterReadData(byte[] buffer, int length) {
+        return length;
+    }
+
+    @Override
+    public int read(final byte[] dest, final int timeoutMillis) throws IOException {
+        return read(dest, 0, dest.length, timeoutMillis);
+    }
+
+    @Override
+    public int read(final byte[] dest, final int offset, final int length,
+            final int timeoutMillis) throws IOException {
+        if (offset == 0) {
+            final int count = getTransport().bulkTransfer(getReadEndpoint(),
+                    dest, length, timeoutMillis);
+            return (count < 0) ? 0 : count;
+        }
+
+        // bulkTransfer does not support offsets before API level 18.
+        synchronized (mReadBufferLock) {
+            final int count = getTransport().bulkTransfer(getReadEndpoint(),
+                    mReadBuffer, Math.min(length, mReadBuffer.length), timeoutMillis);
+            if (count <= 0) {
+                return 0;
+            }
+            System.arraycopy(mReadBuffer, 0, dest, offset, count);
+            return count;
+        }
+    }
+
+    @Override
+    public int read(final ByteBuffer dest, final int timeoutMillis) throws IOException {
+        if (dest.hasArray()) {
+            final int count = read(dest.array(), dest.arrayOffset() + dest.position(),
+                    dest.remaining(), timeoutMillis);
+            dest.position(dest.position() + count);
+            return count;
+        }
+
+        synchronized (mReadBufferLock) {
+            final int count = read(mReadBuffer, 0,
+                    Math.min(dest.remaining(), mReadBuffer.length), timeoutMillis);
+            dest.put(mReadBuffer, 0, count);
+            return count;
+        }
+    }
+
     @Override
     public void write(final byte[] src) throws IOException {
+        writeFully(src, 0, src.length);
+    }
+
+    @Override
+    public int write(final byte[] src, final int length, final int timeoutMillis)
+            throws IOException {
+        return write(src, 0, length, timeoutMillis);
+    }
+
+    @Override
+    public int write(final byte[] src, final int offset, final int length,
+            final int timeoutMillis) throws IOException {
+        final int count;
+        if (offset == 0) {
+            count = getTransport().bulkTransfer(getWriteEndpoint(), src, length, timeoutMillis);
+        } else {
+            // bulkTransfer does not support offsets before API level 18, so
+            // the range has to be moved to the start of an array.
+            synchronized (mWriteBufferLock) {
+                final int writeLength = Math.min(length, mWriteBuffer.length);
+                System.arraycopy(src, offset, mWriteBuffer, 0, writeLength);
+                count = getTransport().bulkTransfer(getWriteEndpoint(),
+                        mWriteBuffer, writeLength, timeoutMillis);
+            }
+        }
+        return (count < 0) ? 0 : count;
+    }
+
+    @Override
+    public void write(final ByteBuffer src) throws IOException {
+        if (src.hasArray()) {
+            writeFully(src.array(), src.arrayOffset() + src.position(), src.remaining());
+            src.position(src.limit());
+        } else {
+            write(new ByteBuffer[] { src });
+        }
+    }
+
+    @Override
+    public void write(final ByteBuffer[] srcs) throws IOException {
+        synchronized (mWriteBufferLock) {
+            int index = 0;
+            while (true) {
+                // Fill the write buffer with as many sources as fit, and
+                // send them with one transfer.
+                int length = 0;
+                while ((index < srcs.length) && (length < mWriteBuffer.length)) {
+                    final ByteBuffer src = srcs[index];
+                    final int count = Math.min(src.remaining(), mWriteBuffer.length - length);
+                    src.get(mWriteBuffer, length, count);
+                    length += count;
+                    if (!src.hasRemaining()) {
+                        ++index;
+                    }
+                }
+                if (length == 0) {
+                    break;
+                }
+                writeBufferFully(length);
+            }
+        }
+    }
+
+    // Sends the first 'length' bytes of the write buffer. write() with an
+    // offset would stage its data through the write buffer, overwriting it,
+    // so the bytes not yet sent are moved to the front here instead. Must
+    // hold 'mWriteBufferLock'.
+    private void writeBufferFully(int length) throws IOException {
+        while (length > 0) {
+            final int count = getTransport().bulkTransfer(getWriteEndpoint(),
+                    mWriteBuffer, length, DEFAULT_WRITE_TIMEOUT);
+            if (count <= 0) {
+                throw new IOException("Could not write data to device");
+            }
+            length -= count;
+            System.arraycopy(mWriteBuffer, count, mWriteBuffer, 0, length);
+        }
+    }
+
+    private void writeFully(final byte[] src, final int offset, final int length)
+            throws IOException {
         int count = 0;
-        byte[] buffer = src;
-        int bufferPayloadLength = src.length;
 
         // If not all of the data could be transferred with one step,
         // try again until all bytes are transferred.
-        while (count < src.length) {
-            int writeRet = write(buffer, bufferPayloadLength, DEFAULT_WRITE_TIMEOUT);
+        while (count < length) {
+            int writeRet = write(src, offset + count, length - count, DEFAULT_WRITE_TIMEOUT);
             if (writeRet == 0) {
                 // The timeout should be large enough that at least some
                 // bytes should have been transferred, so throw an exception
                 // if not
                 throw new IOException("Could not write data to device");
-            } else if (writeRet != bufferPayloadLength) {
-                if (src == buffer) {
-                    // In the next transfer steps, we need to use a temporary array
-                    // copy of src, because bulkTransfer does not support offsets
-                    // and moving bytes in src might a bad idea, maybe the
-                    // caller does not want src to be modified.
-                    buffer = Arrays.copyOfRange(src,
-                            writeRet,
-                            src.length);
-                    bufferPayloadLength = buffer.length; 
-                } else {
-                    // We already use a temporary array copy of src, so
-                    // we can move the non transferred data to the beginning
-                    // of the array.
-                    bufferPayloadLength -= writeRet;
-                    System.arraycopy(buffer,
-                            writeRet,
-                            buffer,
-                            0,
-                            bufferPayloadLength);
-                }
             }
             count += writeRet;
         }
     }
 
+    @Override
+    public void setFlowControl(int flowControl) throws IOException {
+        final int hardwareFlowControl = flowControl & getHardwareFlowControlModes();
+        if (((flowControl & ~hardwareFlowControl) & ~SOFTWARE_FLOW_CONTROL) != 0) {
+            throw new UnsupportedOperationException("Flow control not supported: " + flowControl);
+        }
+        setHardwareFlowControl(hardwareFlowControl);
+        mFlowControl = flowControl;
+    }
+
+    @Override
+    public int getFlowControl() {
+        return mFlowControl;
+    }
+
+    /**
+     * Returns the part of the flow control mode which has to be handled by
+     * the host, because the device cannot handle it.
+     *
+     * @return a combination of {@link #SOFTWARE_FLOW_CONTROL} flags
+     */
+    public int getSoftwareFlowControl() {
+        return mFlowControl & ~getHardwareFlowControlModes();
+    }
+
+    /**
+     * Returns the flow control modes which the device handles itself. None
+     * by default.
+     */
+    protected int getHardwareFlowControlModes() {
+        return FLOWCONTROL_NONE;
+    }
+
+    /**
+     * Configures the device for the given flow control mode, which only
+     * contains modes returned by {@link #getHardwareFlowControlModes()}.
+     */
+    protected void setHardwareFlowControl(int flowControl) throws IOException {
+    }
+
+    /**
+     * Sets the listener which is notified when the modem status lines
+     * change, as far as the driver can detect this without polling.
+     *
+     * @param listener the listener, or {@code null}
+     */
+    public void setModemStatusListener(ModemStatusListener listener) {
+        mModemStatusListener = listener;
+    }
+
+    public ModemStatusListener getModemStatusListener() {
+        return mModemStatusListener;
+    }
+
+    /**
+     * Called by drivers with the current state of the modem status lines,
+     * notifies the listener if it has changed.
+     *
+     * @param status a combination of the {@code ModemStatusListener.STATUS_*}
+     *            flags
+     */
+    protected void reportModemStatus(int status) {
+        synchronized (mModemStatusLock) {
+            if (status == mReportedModemStatus) {
+                return;
+            }
+            mReportedModemStatus = status;
+        }
+        final ModemStatusListener listener = mModemStatusListener;
+        if (listener != null) {
+            listener.onModemStatusChanged(this, status);
+        }
+    }
+
     @Override
     public boolean purgeHwBuffers(boolean flushReadBuffers, boolean flushWriteBuffers) throws IOException {
         return !flushReadBuffers && !flushWriteBuffers;
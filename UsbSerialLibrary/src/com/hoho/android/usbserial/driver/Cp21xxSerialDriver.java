@@ -7,6 +7,7 @@ import java.util.Map;
 
 import android.hardware.usb.UsbConstants;
 import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbDeviceConnection;
 import android.hardware.usb.UsbEndpoint;
 import android.hardware.usb.UsbInterface;
 import android.hardware.usb.UsbManager;
@@ -36,6 +37,7 @@ public class Cp21xxSerialDriver extends CommonMultiPortUsbSerialDriver {
         private static final int SILABSER_SET_MHS_REQUEST_CODE = 0x07;
         private static final int SILABSER_SET_BAUDRATE = 0x1E;
         private static final int SILABSER_FLUSH_REQUEST_CODE = 0x12;
+        private static final int SILABSER_SET_FLOW_REQUEST_CODE = 0x13;
 
         private static final int FLUSH_READ_CODE = 0x0a;
         private static final int FLUSH_WRITE_CODE = 0x05;
@@ -51,16 +53,45 @@ public class Cp21xxSerialDriver extends CommonMultiPortUsbSerialDriver {
          */
         private static final int BAUD_RATE_GEN_FREQ = 0x384000;
 
+        /*
+         * SILABSER_SET_BAUDRATE, clock of the CP2105 and CP2108 baud rate
+         * generator
+         */
+        private static final int BAUD_RATE_CLOCK = 48000000;
+
         /*
          * SILABSER_SET_MHS_REQUEST_CODE
          */
-//        private static final int MCR_DTR = 0x0001;
-//        private static final int MCR_RTS = 0x0002;
+        private static final int MCR_DTR = 0x0001;
+        private static final int MCR_RTS = 0x0002;
         private static final int MCR_ALL = 0x0003;
 
         private static final int CONTROL_WRITE_DTR = 0x0100;
         private static final int CONTROL_WRITE_RTS = 0x0200;
 
+        /*
+         * SILABSER_SET_FLOW_REQUEST_CODE, ulControlHandshake
+         */
+        private static final int SERIAL_DTR_ACTIVE = 0x00000001;
+        private static final int SERIAL_DTR_SHAKE = 0x00000002;
+        private static final int SERIAL_CTS_HANDSHAKE = 0x00000008;
+        private static final int SERIAL_DSR_HANDSHAKE = 0x00000010;
+
+        /*
+         * SILABSER_SET_FLOW_REQUEST_CODE, ulFlowReplace
+         */
+        private static final int SERIAL_AUTO_TRANSMIT = 0x00000001;
+        private static final int SERIAL_AUTO_RECEIVE = 0x00000002;
+        private static final int SERIAL_RTS_ACTIVE = 0x00000040;
+        private static final int SERIAL_RTS_SHAKE = 0x00000080;
+
+        /*
+         * SILABSER_SET_FLOW_REQUEST_CODE, receive buffer fill levels at which
+         * XON and XOFF are sent
+         */
+        private static final int XON_LIMIT = 128;
+        private static final int XOFF_LIMIT = 128;
+
         private final int mPortIdx;
 
         private UsbEndpoint mReadEndpoint;
@@ -71,7 +102,7 @@ public class Cp21xxSerialDriver extends CommonMultiPortUsbSerialDriver {
         }
 
         private int setConfigSingle(int request, int value) {
-            return mConnection.controlTransfer(REQTYPE_HOST_TO_DEVICE, request, value, 
+            return mTransport.controlTransfer(REQTYPE_HOST_TO_DEVICE, request, value, 
                     mPortIdx, null, 0, USB_WRITE_TIMEOUT_MILLIS);
         }
 
@@ -83,7 +114,7 @@ public class Cp21xxSerialDriver extends CommonMultiPortUsbSerialDriver {
             try {
                 
                 UsbInterface usbIface = mDevice.getInterface(mPortIdx);
-                if (mConnection.claimInterface(usbIface, true)) {
+                if (mTransport.claimInterface(usbIface, true)) {
                     Log.d(TAG, "claimInterface " + mPortIdx + " SUCCESS");
                 } else {
                     Log.d(TAG, "claimInterface " + mPortIdx + " FAIL");
@@ -102,7 +133,10 @@ public class Cp21xxSerialDriver extends CommonMultiPortUsbSerialDriver {
                 }
 
                 setConfigSingle(SILABSER_IFC_ENABLE_REQUEST_CODE, UART_ENABLE);
-                setConfigSingle(SILABSER_SET_MHS_REQUEST_CODE, MCR_ALL | CONTROL_WRITE_DTR | CONTROL_WRITE_RTS);
+                if (setConfigSingle(SILABSER_SET_MHS_REQUEST_CODE, MCR_ALL | CONTROL_WRITE_DTR | CONTROL_WRITE_RTS) >= 0) {
+                    mLineState.setDtr(true);
+                    mLineState.setRts(true);
+                }
                 setConfigSingle(SILABSER_SET_BAUDDIV_REQUEST_CODE, BAUD_RATE_GEN_FREQ / DEFAULT_BAUD_RATE);
                 //            setParameters(DEFAULT_BAUD_RATE, DEFAULT_DATA_BITS, DEFAULT_STOP_BITS, DEFAULT_PARITY);
                 opened = true;
@@ -126,16 +160,23 @@ public class Cp21xxSerialDriver extends CommonMultiPortUsbSerialDriver {
         }
 
         @Override
-        public int read(final byte[] dest,
-                final int timeoutMillis) throws IOException {
-            final int count = mConnection.bulkTransfer(mReadEndpoint, dest, dest.length, timeoutMillis);
-            return (count < 0) ? 0 : count;
+        public UsbDeviceConnection getConnection() {
+            return getTransportConnection();
+        }
+
+        @Override
+        public UsbTransport getTransport() {
+            return mTransport;
         }
 
         @Override
-        public int write(byte[] src, final int length, int timeoutMillis) throws IOException {
-            final int count = mConnection.bulkTransfer(mWriteEndpoint, src, length, timeoutMillis);
-            return (count < 0) ? 0 : count;
+        public UsbEndpoint getReadEndpoint() {
+            return mReadEndpoint;
+        }
+
+        @Override
+        public UsbEndpoint getWriteEndpoint() {
+            return mWriteEndpoint;
         }
 
         private void setBaudRate(int baudRate) throws IOException {
@@ -145,59 +186,103 @@ public class Cp21xxSerialDriver extends CommonMultiPortUsbSerialDriver {
                     (byte) ((baudRate >> 16) & 0xff),
                     (byte) ((baudRate >> 24) & 0xff)
             };
-            int ret = mConnection.controlTransfer(REQTYPE_HOST_TO_DEVICE, SILABSER_SET_BAUDRATE,
+            int ret = mTransport.controlTransfer(REQTYPE_HOST_TO_DEVICE, SILABSER_SET_BAUDRATE,
                     0, mPortIdx, data, 4, USB_WRITE_TIMEOUT_MILLIS);
             if (ret < 0) {
                 throw new IOException("Error setting baud rate.");
             }
         }
 
+        /**
+         * Returns the baud rate which the baud rate generator produces for
+         * the requested rate. The CP2105 and CP2108 derive the rate from a
+         * 48 MHz clock, see the CP210x baud rate calculation in the Linux
+         * kernel. For the other models, the requested rate is returned.
+         */
+        private int getActualBaudRate(int baudRate) {
+            final int productId = mDevice.getProductId();
+            if ((productId != UsbId.SILABS_CP2105) && (productId != UsbId.SILABS_CP2108)) {
+                return baudRate;
+            }
+            final int prescale = (baudRate <= 365) ? 4 : 1;
+            final int divisor = (BAUD_RATE_CLOCK + prescale * baudRate)
+                    / (2 * prescale * baudRate);
+            return BAUD_RATE_CLOCK / (2 * prescale * divisor);
+        }
+
         @Override
-        public void setParameters(int baudRate, int dataBits, int stopBits, int parity)
+        public int setParameters(int baudRate, int dataBits, int stopBits, int parity)
                 throws IOException {
-            setBaudRate(baudRate);
+            if (baudRate <= 0) {
+                throw new IllegalArgumentException("Invalid baud rate: " + baudRate);
+            }
 
-            int configDataBits = 0;
+            // Data bits, parity and stop bits share one register, so they
+            // are set with a single request. All values are checked before
+            // anything is sent.
+            int lineControl;
             switch (dataBits) {
             case DATABITS_5:
-                configDataBits |= 0x0500;
+                lineControl = 0x0500;
                 break;
             case DATABITS_6:
-                configDataBits |= 0x0600;
+                lineControl = 0x0600;
                 break;
             case DATABITS_7:
-                configDataBits |= 0x0700;
+                lineControl = 0x0700;
                 break;
             case DATABITS_8:
-                configDataBits |= 0x0800;
+                lineControl = 0x0800;
                 break;
             default:
-                configDataBits |= 0x0800;
-                break;
+                throw new IllegalArgumentException("Bad value for dataBits: " + dataBits);
             }
-            setConfigSingle(SILABSER_SET_LINE_CTL_REQUEST_CODE, configDataBits);
 
-            int configParityBits = 0; // PARITY_NONE
             switch (parity) {
+            case PARITY_NONE:
+                break;
             case PARITY_ODD:
-                configParityBits |= 0x0010;
+                lineControl |= 0x0010;
                 break;
             case PARITY_EVEN:
-                configParityBits |= 0x0020;
-                break;            
+                lineControl |= 0x0020;
+                break;
+            case PARITY_MARK:
+                lineControl |= 0x0030;
+                break;
+            case PARITY_SPACE:
+                lineControl |= 0x0040;
+                break;
+            default:
+                throw new IllegalArgumentException("Bad value for parity: " + parity);
             }
-            setConfigSingle(SILABSER_SET_LINE_CTL_REQUEST_CODE, configParityBits);
 
-            int configStopBits = 0;
             switch (stopBits) {
             case STOPBITS_1:
-                configStopBits |= 0;
+                lineControl |= 0;
+                break;
+            case STOPBITS_1_5:
+                lineControl |= 1;
                 break;
             case STOPBITS_2:
-                configStopBits |= 2;
+                lineControl |= 2;
                 break;
+            default:
+                throw new IllegalArgumentException("Bad value for stopBits: " + stopBits);
+            }
+
+            // Make sure no action is performed if there is nothing to change
+            if (mLineState.isBaudRateChanged(baudRate)) {
+                setBaudRate(baudRate);
+                mLineState.setBaudRate(baudRate);
+            }
+            if (mLineState.isDataFormatChanged(dataBits, stopBits, parity)) {
+                if (setConfigSingle(SILABSER_SET_LINE_CTL_REQUEST_CODE, lineControl) < 0) {
+                    throw new IOException("Error setting line control.");
+                }
+                mLineState.setDataFormat(dataBits, stopBits, parity);
             }
-            setConfigSingle(SILABSER_SET_LINE_CTL_REQUEST_CODE, configStopBits);
+            return getActualBaudRate(baudRate);
         }
 
         @Override
@@ -217,11 +302,19 @@ public class Cp21xxSerialDriver extends CommonMultiPortUsbSerialDriver {
 
         @Override
         public boolean getDTR() throws IOException {
-            return true;
+            return mLineState.getDtr();
         }
 
         @Override
         public void setDTR(boolean value) throws IOException {
+            if (!mLineState.isDtrChanged(value)) {
+                return;
+            }
+            if (setConfigSingle(SILABSER_SET_MHS_REQUEST_CODE,
+                    CONTROL_WRITE_DTR | (value ? MCR_DTR : 0)) < 0) {
+                throw new IOException("Error setting DTR.");
+            }
+            mLineState.setDtr(value);
         }
 
         @Override
@@ -231,7 +324,71 @@ public class Cp21xxSerialDriver extends CommonMultiPortUsbSerialDriver {
 
         @Override
         public boolean getRTS() throws IOException {
-            return true;
+            return mLineState.getRts();
+        }
+
+        @Override
+        protected int getHardwareFlowControlModes() {
+            return FLOWCONTROL_RTSCTS_IN | FLOWCONTROL_RTSCTS_OUT
+                    | FLOWCONTROL_DTRDSR_IN | FLOWCONTROL_DTRDSR_OUT
+                    | FLOWCONTROL_XONXOFF_IN | FLOWCONTROL_XONXOFF_OUT;
+        }
+
+        @Override
+        protected void setHardwareFlowControl(int flowControl) throws IOException {
+            int controlHandshake = 0;
+            int flowReplace = 0;
+
+            if ((flowControl & FLOWCONTROL_RTSCTS_OUT) != 0) {
+                controlHandshake |= SERIAL_CTS_HANDSHAKE;
+            }
+            if ((flowControl & FLOWCONTROL_DTRDSR_OUT) != 0) {
+                controlHandshake |= SERIAL_DSR_HANDSHAKE;
+            }
+            // Without input handshake, RTS and DTR are held active.
+            controlHandshake |= ((flowControl & FLOWCONTROL_DTRDSR_IN) != 0)
+                    ? SERIAL_DTR_SHAKE : SERIAL_DTR_ACTIVE;
+            flowReplace |= ((flowControl & FLOWCONTROL_RTSCTS_IN) != 0)
+                    ? SERIAL_RTS_SHAKE : SERIAL_RTS_ACTIVE;
+            if ((flowControl & FLOWCONTROL_XONXOFF_OUT) != 0) {
+                flowReplace |= SERIAL_AUTO_TRANSMIT;
+            }
+            if ((flowControl & FLOWCONTROL_XONXOFF_IN) != 0) {
+                flowReplace |= SERIAL_AUTO_RECEIVE;
+            }
+
+            final byte[] data = new byte[16];
+            putInt(data, 0, controlHandshake);
+            putInt(data, 4, flowReplace);
+            putInt(data, 8, XON_LIMIT);
+            putInt(data, 12, XOFF_LIMIT);
+            int ret = mTransport.controlTransfer(REQTYPE_HOST_TO_DEVICE,
+                    SILABSER_SET_FLOW_REQUEST_CODE, 0, mPortIdx, data, data.length,
+                    USB_WRITE_TIMEOUT_MILLIS);
+            if (ret < 0) {
+                throw new IOException("Error setting flow control.");
+            }
+
+            // SET_FLOW also sets DTR and RTS, active or under handshake
+            // control.
+            if ((flowControl & FLOWCONTROL_DTRDSR_IN) != 0) {
+                mLineState.invalidateDtr();
+            } else {
+                mLineState.setDtr(true);
+            }
+            if ((flowControl & FLOWCONTROL_RTSCTS_IN) != 0) {
+                mLineState.invalidateRts();
+            } else {
+                mLineState.setRts(true);
+            }
+        }
+
+        // Stores 'value' in little endian byte order.
+        private void putInt(byte[] data, int offset, int value) {
+            data[offset] = (byte) (value & 0xff);
+            data[offset + 1] = (byte) ((value >> 8) & 0xff);
+            data[offset + 2] = (byte) ((value >> 16) & 0xff);
+            data[offset + 3] = (byte) ((value >> 24) & 0xff);
         }
 
         @Override
@@ -249,6 +406,14 @@ public class Cp21xxSerialDriver extends CommonMultiPortUsbSerialDriver {
 
         @Override
         public void setRTS(boolean value) throws IOException {
+            if (!mLineState.isRtsChanged(value)) {
+                return;
+            }
+            if (setConfigSingle(SILABSER_SET_MHS_REQUEST_CODE,
+                    CONTROL_WRITE_RTS | (value ? MCR_RTS : 0)) < 0) {
+                throw new IOException("Error setting RTS.");
+            }
+            mLineState.setRts(value);
         }
     }
 
@@ -0,0 +1,105 @@
+/* This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package com.hoho.android.usbserial.driver;
+
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbInterface;
+import android.hardware.usb.UsbManager;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.security.AccessControlException;
+
+/**
+ * {@link UsbTransport} which performs the transfers with a
+ * {@link UsbDeviceConnection}. Used by all drivers unless another
+ * {@link UsbTransport.Factory} is set.
+ */
+public final class DeviceConnectionTransport implements UsbTransport {
+
+    /**
+     * Opens a {@link UsbDeviceConnection} with {@link UsbManager#openDevice(UsbDevice)}.
+     */
+    public static final Factory FACTORY = new Factory() {
+        @Override
+        public UsbTransport openTransport(UsbManager usbManager, UsbDevice device)
+                throws IOException, AccessControlException {
+            return new DeviceConnectionTransport(
+                    CommonUsbSerialDriver.openDeviceConnection(usbManager, device));
+        }
+    };
+
+    private final UsbDeviceConnection mConnection;
+
+    public DeviceConnectionTransport(UsbDeviceConnection connection) {
+        mConnection = connection;
+    }
+
+    @Override
+    public int bulkTransfer(UsbEndpoint endpoint, byte[] buffer, int length, int timeout) {
+        return mConnection.bulkTransfer(endpoint, buffer, length, timeout);
+    }
+
+    @Override
+    public int controlTransfer(int requestType, int request, int value, int index,
+            byte[] buffer, int length, int timeout) {
+        return mConnection.controlTransfer(requestType, request, value, index,
+                buffer, length, timeout);
+    }
+
+    @Override
+    public boolean claimInterface(UsbInterface intf, boolean force) {
+        return mConnection.claimInterface(intf, force);
+    }
+
+    @Override
+    public boolean releaseInterface(UsbInterface intf) {
+        return mConnection.releaseInterface(intf);
+    }
+
+    /**
+     * Calls {@code UsbDeviceConnection.getRawDescriptors()}, which is only
+     * available as of API level 13.
+     */
+    @Override
+    public byte[] getRawDescriptors() {
+        try {
+            final Method getRawDescriptorsMethod =
+                    mConnection.getClass().getMethod("getRawDescriptors");
+            return (byte[]) getRawDescriptorsMethod.invoke(mConnection);
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (Exception e) {
+            throw new UsbSerialRuntimeException(e);
+        }
+    }
+
+    @Override
+    public UsbDeviceConnection getConnection() {
+        return mConnection;
+    }
+
+    @Override
+    public void close() {
+        mConnection.close();
+    }
+
+}
@@ -0,0 +1,188 @@
+/* This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package com.hoho.android.usbserial.driver;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Baud rate divisors of one kind of FTDI chip, computed once per requested
+ * baud rate.
+ *
+ * <p/>
+ * The baud rate generator divides a 3 MHz clock (24 MHz / 8) by a divisor
+ * with 14 integer bits and 3 fraction bits. The H chips can use a 12 MHz
+ * clock (120 MHz / 10) instead, for rates up to 12 Mbaud. The divisors 1
+ * and 1.5 have special encodings; other divisors below 2 do not exist. AM
+ * chips only support the fractions 0, 1/8, 1/4 and 1/2, and not the divisor
+ * 1.5.
+ *
+ * <p/>
+ * Of the divisors next to the exact one, the one giving the baud rate
+ * closest to the requested rate is used.
+ */
+final class FtdiBaudRateTable {
+
+    private static final int CLOCK = 3000000;
+    private static final int HIGH_SPEED_CLOCK = 12000000;
+
+    /**
+     * Selects the 12 MHz clock in the encoded divisor of H chips.
+     */
+    private static final int HIGH_SPEED_CLOCK_BIT = 0x20000;
+
+    // Divisors are handled in eighths
+    private static final int MIN_DIVISOR = 1 << 3;
+    private static final int MAX_DIVISOR = (0x3fff << 3) | 7;
+    private static final int MAX_AM_DIVISOR = (0x3fff << 3) | 4;
+
+    /**
+     * Encoding of each fraction (in eighths) in bits 14 to 16 of the divisor.
+     */
+    private static final int[] FRACTION_CODE = {
+            0, 3, 2, 4, 1, 5, 6, 7
+    };
+
+    /**
+     * Common baud rates, whose divisors are computed in advance.
+     */
+    private static final int[] STANDARD_BAUD_RATES = {
+            300, 600, 1200, 2400, 4800, 9600, 14400, 19200, 38400, 57600, 115200,
+            230400, 460800, 921600
+    };
+
+    /**
+     * A divisor, and the baud rate which it actually gives.
+     */
+    static final class Divisor {
+        final int actualBaudRate;
+
+        /**
+         * The divisor as sent to the device, the low 16 bits as the value,
+         * the higher bits in the index of the request.
+         */
+        final int encoded;
+
+        Divisor(int actualBaudRate, int encoded) {
+            this.actualBaudRate = actualBaudRate;
+            this.encoded = encoded;
+        }
+    }
+
+    private final boolean mAmType;
+    private final boolean mHighSpeed;
+
+    // Synchronized by 'mDivisors', by requested baud rate
+    private final Map<Integer, Divisor> mDivisors = new HashMap<Integer, Divisor>();
+
+    /**
+     * Creates the table of a kind of chip.
+     *
+     * @param amType whether the chip is an AM chip, with restricted fractions
+     * @param highSpeed whether the chip is an H chip, with the 12 MHz clock
+     */
+    FtdiBaudRateTable(boolean amType, boolean highSpeed) {
+        mAmType = amType;
+        mHighSpeed = highSpeed;
+        for (final int baudRate : STANDARD_BAUD_RATES) {
+            getDivisor(baudRate);
+        }
+    }
+
+    /**
+     * Returns the divisor closest to a baud rate.
+     *
+     * @param baudRate the requested baud rate
+     * @return the divisor
+     * @throws IllegalArgumentException if {@code baudRate} is not positive
+     */
+    Divisor getDivisor(int baudRate) {
+        if (baudRate <= 0) {
+            throw new IllegalArgumentException("Invalid baud rate: " + baudRate);
+        }
+        final Integer key = Integer.valueOf(baudRate);
+        synchronized (mDivisors) {
+            Divisor divisor = mDivisors.get(key);
+            if (divisor == null) {
+                divisor = computeDivisor(baudRate);
+                mDivisors.put(key, divisor);
+            }
+            return divisor;
+        }
+    }
+
+    private Divisor computeDivisor(int baudRate) {
+        final Divisor divisor = computeDivisor(baudRate, CLOCK);
+        if (!mHighSpeed) {
+            return divisor;
+        }
+        final Divisor highSpeedDivisor = computeDivisor(baudRate, HIGH_SPEED_CLOCK);
+        return closer(baudRate, highSpeedDivisor, divisor);
+    }
+
+    private Divisor computeDivisor(int baudRate, int clock) {
+        final int maxDivisor = mAmType ? MAX_AM_DIVISOR : MAX_DIVISOR;
+        final long exact = (8L * clock + baudRate / 2) / baudRate;
+        final int nearest = (int) Math.max(MIN_DIVISOR, Math.min(maxDivisor, exact));
+
+        int below = nearest;
+        while (!isValid(below)) {
+            --below;
+        }
+        int above = nearest;
+        while (!isValid(above)) {
+            ++above;
+        }
+        return closer(baudRate, createDivisor(below, clock), createDivisor(above, clock));
+    }
+
+    private boolean isValid(int divisor) {
+        if (divisor == MIN_DIVISOR) {
+            return true;
+        } else if (divisor < 2 << 3) {
+            return !mAmType && (divisor == ((1 << 3) | 4));
+        } else if (mAmType) {
+            final int fraction = divisor & 7;
+            return (fraction == 0) || (fraction == 1) || (fraction == 2) || (fraction == 4);
+        }
+        return true;
+    }
+
+    private static Divisor createDivisor(int divisor, int clock) {
+        int encoded;
+        if (divisor == MIN_DIVISOR) {
+            encoded = 0;
+        } else if (divisor == ((1 << 3) | 4)) {
+            encoded = 1;
+        } else {
+            encoded = (divisor >> 3) | (FRACTION_CODE[divisor & 7] << 14);
+        }
+        if (clock == HIGH_SPEED_CLOCK) {
+            encoded |= HIGH_SPEED_CLOCK_BIT;
+        }
+        final int actualBaudRate = (int) ((8L * clock + divisor / 2) / divisor);
+        return new Divisor(actualBaudRate, encoded);
+    }
+
+    private static Divisor closer(int baudRate, Divisor first, Divisor second) {
+        return (Math.abs(second.actualBaudRate - baudRate)
+                < Math.abs(first.actualBaudRate - baudRate)) ? second : first;
+    }
+
+}
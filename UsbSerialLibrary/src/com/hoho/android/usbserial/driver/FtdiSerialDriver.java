@@ -22,6 +22,7 @@ package com.hoho.android.usbserial.driver;
 
 import android.hardware.usb.UsbConstants;
 import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbDeviceConnection;
 import android.hardware.usb.UsbEndpoint;
 import android.hardware.usb.UsbInterface;
 import android.hardware.usb.UsbManager;
@@ -92,11 +93,19 @@ public class FtdiSerialDriver extends CommonMultiPortUsbSerialDriver {
      * FTDI chip types.
      */
     private static enum DeviceType {
-        TYPE_BM, TYPE_AM, TYPE_2232, TYPE_R, TYPE_4232H;
+        TYPE_BM, TYPE_AM, TYPE_2232, TYPE_2232H, TYPE_R, TYPE_4232H;
     }
 
+    /**
+     * Max packet size of the bulk endpoints when connected at high speed,
+     * which only the H chips support.
+     */
+    private static final int HIGH_SPEED_MAX_PACKET_SIZE = 512;
+
     private DeviceType mType;
 
+    private final FtdiBaudRateTable mBaudRateTable;
+
     public class FtdiSerialPort extends CommonUsbSerialPort {
 
         public static final int USB_RECIP_DEVICE = 0x00;
@@ -119,12 +128,12 @@ public class FtdiSerialDriver extends CommonMultiPortUsbSerialDriver {
         /**
          * Set the modem control register.
          */
-//        private static final int SIO_MODEM_CTRL_REQUEST = 1;
+        private static final int SIO_MODEM_CTRL_REQUEST = 1;
 
         /**
          * Set flow control register.
          */
-//        private static final int SIO_SET_FLOW_CTRL_REQUEST = 2;
+        private static final int SIO_SET_FLOW_CTRL_REQUEST = 2;
 
         /**
          * Set baud rate.
@@ -136,6 +145,48 @@ public class FtdiSerialDriver extends CommonMultiPortUsbSerialDriver {
          */
         private static final int SIO_SET_DATA_REQUEST = 4;
 
+        /**
+         * Get the current value of the modem status register.
+         */
+        private static final int SIO_POLL_MODEM_STATUS_REQUEST = 5;
+
+        /**
+         * Set the latency timer.
+         */
+        private static final int SIO_SET_LATENCY_TIMER_REQUEST = 9;
+
+        /**
+         * Get the latency timer.
+         */
+        private static final int SIO_GET_LATENCY_TIMER_REQUEST = 10;
+
+        /**
+         * Range of the latency timer, in milliseconds. The device sends a
+         * short packet when data has been waiting for this long.
+         */
+        public static final int MIN_LATENCY_TIMER_MILLIS = 1;
+        public static final int MAX_LATENCY_TIMER_MILLIS = 255;
+
+        /*
+         * SIO_SET_FLOW_CTRL_REQUEST, the mode is passed in the high byte of
+         * the index.
+         */
+        private static final int SIO_DISABLE_FLOW_CTRL = 0x0000;
+        private static final int SIO_RTS_CTS_HS = 0x0100;
+        private static final int SIO_DTR_DSR_HS = 0x0200;
+        private static final int SIO_XON_XOFF_HS = 0x0400;
+
+        private static final int XON_CHAR = 0x11;
+        private static final int XOFF_CHAR = 0x13;
+
+        /*
+         * SIO_MODEM_CTRL_REQUEST, the high byte selects the lines to change
+         */
+        private static final int SIO_SET_DTR_MASK = 0x0100;
+        private static final int SIO_SET_DTR_HIGH = 0x0101;
+        private static final int SIO_SET_RTS_MASK = 0x0200;
+        private static final int SIO_SET_RTS_HIGH = 0x0202;
+
         private static final int SIO_RESET_SIO = 0;
         private static final int SIO_RESET_PURGE_RX = 1;
         private static final int SIO_RESET_PURGE_TX = 2;
@@ -151,6 +202,28 @@ public class FtdiSerialDriver extends CommonMultiPortUsbSerialDriver {
          */
         private static final int MODEM_STATUS_HEADER_LENGTH = 2;
 
+        // Bits of the first status byte (modem status)
+        private static final int MODEM_STATUS_CTS = 0x10;
+        private static final int MODEM_STATUS_DSR = 0x20;
+        private static final int MODEM_STATUS_RI = 0x40;
+        private static final int MODEM_STATUS_CD = 0x80;
+
+        // Bits of the second status byte (line status)
+        private static final int LINE_STATUS_OVERRUN = 0x02;
+        private static final int LINE_STATUS_PARITY = 0x04;
+        private static final int LINE_STATUS_FRAMING = 0x08;
+        private static final int LINE_STATUS_BREAK = 0x10;
+        private static final int LINE_STATUS_ERRORS = LINE_STATUS_OVERRUN
+                | LINE_STATUS_PARITY | LINE_STATUS_FRAMING | LINE_STATUS_BREAK;
+
+        /**
+         * Age after which the modem status of the most recently received
+         * packet is no longer used. While the port is being read, the device
+         * sends a packet at least once per latency timer period (16 ms by
+         * default).
+         */
+        private static final long MODEM_STATUS_MAX_AGE_NANOS = 50 * 1000000L;
+
         private final int mPortIdx;
         private final int mControlIdx;
 
@@ -158,6 +231,26 @@ public class FtdiSerialDriver extends CommonMultiPortUsbSerialDriver {
         private UsbEndpoint mWriteEndpoint;
         private int mReadEndpointMaxPacketSize;
 
+        // Requested read size in bytes, 0 if not set.
+        private volatile int mReadChunkSize = 0;
+
+        /**
+         * Modem status byte of the most recently received packet or status
+         * query, or -1 if there was none since the port was opened.
+         */
+        private volatile int mModemStatus = -1;
+
+        // System.nanoTime() when 'mModemStatus' was received
+        private volatile long mModemStatusNanos = 0;
+
+        private final Object mLineErrorLock = new Object();
+
+        // Synchronized by 'mLineErrorLock'
+        private long mOverrunErrorCount = 0;
+        private long mParityErrorCount = 0;
+        private long mFramingErrorCount = 0;
+        private long mBreakCount = 0;
+
         /**
          * Constructor.
          *
@@ -168,7 +261,7 @@ public class FtdiSerialDriver extends CommonMultiPortUsbSerialDriver {
          */
         public FtdiSerialPort(int portIdx) {
             mPortIdx = portIdx;
-            if ((mType == DeviceType.TYPE_2232) || (mType == DeviceType.TYPE_4232H)) {
+            if (isMultiInterface()) {
                 mControlIdx = (mPortIdx + 1);
             } else if (portIdx == 0) {
                 mControlIdx = 0;
@@ -177,38 +270,13 @@ public class FtdiSerialDriver extends CommonMultiPortUsbSerialDriver {
             }
         }
 
-        /**
-         * Filter FTDI status bytes from buffer
-         * @param src The source buffer (which contains status bytes)
-         * @param dest The destination buffer to write the status bytes into (can be src)
-         * @param totalBytesRead Number of bytes read to src
-         * @param maxPacketSize The USB endpoint max packet size
-         * @return The number of payload bytes
-         */
-        private final int filterStatusBytes(byte[] src, byte[] dest, int totalBytesRead, int maxPacketSize) {
-            final int packetsCount = totalBytesRead / maxPacketSize + 1;
-            for (int packetIdx = 0; packetIdx < packetsCount; ++packetIdx) {
-                final int count = (packetIdx == (packetsCount - 1))
-                        ? (totalBytesRead % maxPacketSize) - MODEM_STATUS_HEADER_LENGTH
-                                : maxPacketSize - MODEM_STATUS_HEADER_LENGTH;
-                        if (count > 0) {
-                            System.arraycopy(src,
-                                    packetIdx * maxPacketSize + MODEM_STATUS_HEADER_LENGTH,
-                                    dest,
-                                    packetIdx * (maxPacketSize - MODEM_STATUS_HEADER_LENGTH),
-                                    count);
-                        }
-            }
-
-            return totalBytesRead - (packetsCount * 2);
-        }
-
         public void reset() throws IOException {
-            int result = mConnection.controlTransfer(FTDI_DEVICE_OUT_REQTYPE, SIO_RESET_REQUEST,
+            int result = mTransport.controlTransfer(FTDI_DEVICE_OUT_REQTYPE, SIO_RESET_REQUEST,
                     SIO_RESET_SIO, mControlIdx, null, 0, USB_WRITE_TIMEOUT_MILLIS);
             if (result != 0) {
                 throw new IOException("Reset failed: result=" + result);
             }
+            mLineState.invalidate();
         }
 
         @Override
@@ -218,13 +286,15 @@ public class FtdiSerialDriver extends CommonMultiPortUsbSerialDriver {
             boolean opened = false;
             try {
                 UsbInterface usbInterface = mDevice.getInterface(mPortIdx);
-                if (!mConnection.claimInterface(usbInterface, true)) {
+                if (!mTransport.claimInterface(usbInterface, true)) {
                     throw new IOException("Could not claim USB interface " + mPortIdx);
                 }
                 reset();
                 mReadEndpoint = usbInterface.getEndpoint(0);
                 mWriteEndpoint = usbInterface.getEndpoint(1);
                 mReadEndpointMaxPacketSize = mReadEndpoint.getMaxPacketSize();
+                mModemStatus = -1;
+                resetLineErrorCounts();
 
                 opened = true;
             } finally {
@@ -246,41 +316,278 @@ public class FtdiSerialDriver extends CommonMultiPortUsbSerialDriver {
         }
 
         @Override
-        public int read(final byte[] dest,
+        public UsbDeviceConnection getConnection() {
+            return getTransportConnection();
+        }
+
+        @Override
+        public UsbTransport getTransport() {
+            return mTransport;
+        }
+
+        @Override
+        public UsbEndpoint getReadEndpoint() {
+            return mReadEndpoint;
+        }
+
+        @Override
+        public UsbEndpoint getWriteEndpoint() {
+            return mWriteEndpoint;
+        }
+
+        @Override
+        public int read(final byte[] dest, final int offset, final int length,
                 final int timeoutMillis) throws IOException {
-            final int count = mConnection.bulkTransfer(mReadEndpoint, dest, dest.length, timeoutMillis);
-            return (count < MODEM_STATUS_HEADER_LENGTH)
-                    ? 0
-                            : filterStatusBytes(dest,
-                                    dest,
-                                    count,
-                                    mReadEndpointMaxPacketSize);
+            // The raw data is received into the port's read buffer, and the
+            // payload is copied to 'dest' while skipping the status headers.
+            final int chunkSize = getReadChunkSize();
+            final int readLength = Math.min(length,
+                    (chunkSize > 0) ? chunkSize : mReadBuffer.length);
+            synchronized (mReadBufferLock) {
+                final int count = mTransport.bulkTransfer(mReadEndpoint, mReadBuffer,
+                        readLength, timeoutMillis);
+                updateStatus(mReadBuffer, count);
+                return filterStatusBytes(mReadBuffer, count, dest, offset,
+                        mReadEndpointMaxPacketSize);
+            }
+        }
+
+        @Override
+        public int filterReadData(byte[] buffer, int length) {
+            updateStatus(buffer, length);
+            return filterStatusBytes(buffer, length, buffer, 0, mReadEndpointMaxPacketSize);
+        }
+
+        /**
+         * Sets the number of bytes requested per read transfer. Larger
+         * transfers reduce the per-transfer overhead at high data rates,
+         * smaller ones hand received data over sooner. The size is rounded
+         * up to a multiple of the read endpoint's maximum packet size, and
+         * limited to {@value #READ_BUFFER_SIZE} bytes.
+         *
+         * @param chunkSize the read size in bytes, or 0 to read as much as
+         *            the destination buffer can take
+         */
+        public void setReadChunkSize(int chunkSize) {
+            if (chunkSize < 0) {
+                throw new IllegalArgumentException("Invalid read chunk size: " + chunkSize);
+            }
+            mReadChunkSize = chunkSize;
         }
 
         @Override
-        public int write(byte[] src, final int length, int timeoutMillis) throws IOException {
-            final int count = mConnection.bulkTransfer(mWriteEndpoint, src, length, timeoutMillis);
-            return (count < 0) ? 0 : count;
+        public int getReadChunkSize() {
+            final int chunkSize = mReadChunkSize;
+            final int packetSize = mReadEndpointMaxPacketSize;
+            if ((chunkSize == 0) || (packetSize <= 0)) {
+                return chunkSize;
+            }
+            final int maxChunkSize = READ_BUFFER_SIZE - (READ_BUFFER_SIZE % packetSize);
+            final int packets = (chunkSize + packetSize - 1) / packetSize;
+            return Math.min(packets * packetSize, maxChunkSize);
+        }
+
+        /**
+         * Sets the latency timer of the device. Received data which does not
+         * fill a packet is sent to the host when the timer expires, so lower
+         * values reduce the latency of small messages at the cost of more
+         * USB traffic. The device default is 16 milliseconds.
+         *
+         * @param latencyMillis the timer value, between
+         *            {@value #MIN_LATENCY_TIMER_MILLIS} and
+         *            {@value #MAX_LATENCY_TIMER_MILLIS} milliseconds
+         * @throws IOException if the device rejected the request
+         */
+        public void setLatencyTimer(int latencyMillis) throws IOException {
+            if ((latencyMillis < MIN_LATENCY_TIMER_MILLIS)
+                    || (latencyMillis > MAX_LATENCY_TIMER_MILLIS)) {
+                throw new IllegalArgumentException("Invalid latency timer: " + latencyMillis);
+            }
+            final int result = mTransport.controlTransfer(FTDI_DEVICE_OUT_REQTYPE,
+                    SIO_SET_LATENCY_TIMER_REQUEST, latencyMillis, mControlIdx,
+                    null, 0, USB_WRITE_TIMEOUT_MILLIS);
+            if (result != 0) {
+                throw new IOException("Setting latency timer failed: result=" + result);
+            }
+        }
+
+        /**
+         * Returns the latency timer of the device.
+         *
+         * @return the timer value in milliseconds
+         * @throws IOException if the device rejected the request
+         */
+        public int getLatencyTimer() throws IOException {
+            final byte[] buffer = new byte[1];
+            final int result = mTransport.controlTransfer(FTDI_DEVICE_IN_REQTYPE,
+                    SIO_GET_LATENCY_TIMER_REQUEST, 0, mControlIdx,
+                    buffer, buffer.length, USB_READ_TIMEOUT_MILLIS);
+            if (result != buffer.length) {
+                throw new IOException("Getting latency timer failed: result=" + result);
+            }
+            return buffer[0] & 0xff;
+        }
+
+        /**
+         * Records the status bytes of each packet of raw received data.
+         */
+        private void updateStatus(byte[] raw, int rawLength) {
+            int lastPacket = -1;
+            for (int pos = 0; pos + 1 < rawLength; pos += mReadEndpointMaxPacketSize) {
+                if ((raw[pos + 1] & LINE_STATUS_ERRORS) != 0) {
+                    countLineErrors(raw[pos + 1]);
+                }
+                lastPacket = pos;
+            }
+            if (lastPacket >= 0) {
+                setModemStatus(raw[lastPacket] & 0xff);
+            }
+        }
+
+        private void setModemStatus(int modemStatus) {
+            mModemStatusNanos = System.nanoTime();
+            if (mModemStatus != modemStatus) {
+                mModemStatus = modemStatus;
+                reportModemStatus(toModemStatusFlags(modemStatus));
+            }
+        }
+
+        // Converts the MODEM_STATUS_* bits to the ModemStatusListener flags.
+        private int toModemStatusFlags(int modemStatus) {
+            int flags = 0;
+            if ((modemStatus & MODEM_STATUS_CD) != 0) {
+                flags |= ModemStatusListener.STATUS_CD;
+            }
+            if ((modemStatus & MODEM_STATUS_DSR) != 0) {
+                flags |= ModemStatusListener.STATUS_DSR;
+            }
+            if ((modemStatus & MODEM_STATUS_RI) != 0) {
+                flags |= ModemStatusListener.STATUS_RI;
+            }
+            if ((modemStatus & MODEM_STATUS_CTS) != 0) {
+                flags |= ModemStatusListener.STATUS_CTS;
+            }
+            return flags;
+        }
+
+        private void countLineErrors(int lineStatus) {
+            synchronized (mLineErrorLock) {
+                if ((lineStatus & LINE_STATUS_OVERRUN) != 0) {
+                    ++mOverrunErrorCount;
+                }
+                if ((lineStatus & LINE_STATUS_PARITY) != 0) {
+                    ++mParityErrorCount;
+                }
+                if ((lineStatus & LINE_STATUS_FRAMING) != 0) {
+                    ++mFramingErrorCount;
+                }
+                if ((lineStatus & LINE_STATUS_BREAK) != 0) {
+                    ++mBreakCount;
+                }
+            }
+        }
+
+        /**
+         * Returns the number of received packets which reported an overrun
+         * error, since the port was opened or the counts were reset.
+         */
+        public long getOverrunErrorCount() {
+            synchronized (mLineErrorLock) {
+                return mOverrunErrorCount;
+            }
+        }
+
+        /**
+         * Returns the number of received packets which reported a parity
+         * error, since the port was opened or the counts were reset.
+         */
+        public long getParityErrorCount() {
+            synchronized (mLineErrorLock) {
+                return mParityErrorCount;
+            }
+        }
+
+        /**
+         * Returns the number of received packets which reported a framing
+         * error, since the port was opened or the counts were reset.
+         */
+        public long getFramingErrorCount() {
+            synchronized (mLineErrorLock) {
+                return mFramingErrorCount;
+            }
+        }
+
+        /**
+         * Returns the number of received packets which reported a break
+         * condition, since the port was opened or the counts were reset.
+         */
+        public long getBreakCount() {
+            synchronized (mLineErrorLock) {
+                return mBreakCount;
+            }
+        }
+
+        public void resetLineErrorCounts() {
+            synchronized (mLineErrorLock) {
+                mOverrunErrorCount = 0;
+                mParityErrorCount = 0;
+                mFramingErrorCount = 0;
+                mBreakCount = 0;
+            }
+        }
+
+        /**
+         * Returns the modem status byte of the most recently received packet.
+         * If no packet has been received recently, for example because the
+         * port is not being read, the modem status register is queried with a
+         * control transfer instead.
+         */
+        private int getModemStatus() throws IOException {
+            final int modemStatus = mModemStatus;
+            if ((modemStatus >= 0)
+                    && (System.nanoTime() - mModemStatusNanos < MODEM_STATUS_MAX_AGE_NANOS)) {
+                return modemStatus;
+            }
+
+            final byte[] buffer = new byte[2];
+            final int result = mTransport.controlTransfer(FTDI_DEVICE_IN_REQTYPE,
+                    SIO_POLL_MODEM_STATUS_REQUEST, 0, mControlIdx,
+                    buffer, buffer.length, USB_READ_TIMEOUT_MILLIS);
+            if (result != buffer.length) {
+                throw new IOException("Getting modem status failed: result=" + result);
+            }
+            setModemStatus(buffer[0] & 0xff);
+            return buffer[0] & 0xff;
         }
 
         private int setBaudRate(int baudRate) throws IOException {
-            long[] vals = convertBaudrate(baudRate);
-            long actualBaudrate = vals[0];
-            long index = vals[1];
-            long value = vals[2];
-            int result = mConnection.controlTransfer(FTDI_DEVICE_OUT_REQTYPE,
-                    SIO_SET_BAUD_RATE_REQUEST, (int) value, (int) index,
+            final FtdiBaudRateTable.Divisor divisor = mBaudRateTable.getDivisor(baudRate);
+            final int value = divisor.encoded & 0xffff;
+            final int index;
+            if (isMultiInterface()) {
+                index = ((divisor.encoded >> 8) & 0xff00) | mControlIdx;
+            } else {
+                index = divisor.encoded >> 16;
+            }
+            int result = mTransport.controlTransfer(FTDI_DEVICE_OUT_REQTYPE,
+                    SIO_SET_BAUD_RATE_REQUEST, value, index,
                     null, 0, USB_WRITE_TIMEOUT_MILLIS);
             if (result != 0) {
                 throw new IOException("Setting baudrate failed: result=" + result);
             }
-            return (int) actualBaudrate;
+            return divisor.actualBaudRate;
         }
 
         @Override
-        public void setParameters(int baudRate, int dataBits, int stopBits, int parity)
+        public int setParameters(int baudRate, int dataBits, int stopBits, int parity)
                 throws IOException {
-            setBaudRate(baudRate);
+            final int actualBaudRate;
+            if (mLineState.isBaudRateChanged(baudRate)) {
+                actualBaudRate = setBaudRate(baudRate);
+                mLineState.setBaudRate(baudRate);
+            } else {
+                actualBaudRate = mBaudRateTable.getDivisor(baudRate).actualBaudRate;
+            }
 
             int config = dataBits;
 
@@ -318,142 +625,123 @@ public class FtdiSerialDriver extends CommonMultiPortUsbSerialDriver {
                 throw new IllegalArgumentException("Unknown stopBits value: " + stopBits);
             }
 
-            int result = mConnection.controlTransfer(FTDI_DEVICE_OUT_REQTYPE,
-                    SIO_SET_DATA_REQUEST, config, mControlIdx,
-                    null, 0, USB_WRITE_TIMEOUT_MILLIS);
-            if (result != 0) {
-                throw new IOException("Setting parameters failed: result=" + result);
-            }
-        }
-
-        private long[] convertBaudrate(int baudrate) {
-            // TODO(mikey): Braindead transcription of libfti method.  Clean up,
-            // using more idiomatic Java where possible.
-            int divisor = 24000000 / baudrate;
-            int bestDivisor = 0;
-            int bestBaud = 0;
-            int bestBaudDiff = 0;
-            int fracCode[] = {
-                    0, 3, 2, 4, 1, 5, 6, 7
-            };
-
-            for (int i = 0; i < 2; i++) {
-                int tryDivisor = divisor + i;
-                int baudEstimate;
-                int baudDiff;
-
-                if (tryDivisor <= 8) {
-                    // Round up to minimum supported divisor
-                    tryDivisor = 8;
-                } else if (mType != DeviceType.TYPE_AM && tryDivisor < 12) {
-                    // BM doesn't support divisors 9 through 11 inclusive
-                    tryDivisor = 12;
-                } else if (divisor < 16) {
-                    // AM doesn't support divisors 9 through 15 inclusive
-                    tryDivisor = 16;
-                } else {
-                    if (mType == DeviceType.TYPE_AM) {
-                        // TODO
-                    } else {
-                        if (tryDivisor > 0x1FFFF) {
-                            // Round down to maximum supported divisor value (for
-                            // BM)
-                            tryDivisor = 0x1FFFF;
-                        }
-                    }
-                }
-
-                // Get estimated baud rate (to nearest integer)
-                baudEstimate = (24000000 + (tryDivisor / 2)) / tryDivisor;
-
-                // Get absolute difference from requested baud rate
-                if (baudEstimate < baudrate) {
-                    baudDiff = baudrate - baudEstimate;
-                } else {
-                    baudDiff = baudEstimate - baudrate;
-                }
-
-                if (i == 0 || baudDiff < bestBaudDiff) {
-                    // Closest to requested baud rate so far
-                    bestDivisor = tryDivisor;
-                    bestBaud = baudEstimate;
-                    bestBaudDiff = baudDiff;
-                    if (baudDiff == 0) {
-                        // Spot on! No point trying
-                        break;
-                    }
+            if (mLineState.isDataFormatChanged(dataBits, stopBits, parity)) {
+                int result = mTransport.controlTransfer(FTDI_DEVICE_OUT_REQTYPE,
+                        SIO_SET_DATA_REQUEST, config, mControlIdx,
+                        null, 0, USB_WRITE_TIMEOUT_MILLIS);
+                if (result != 0) {
+                    throw new IOException("Setting parameters failed: result=" + result);
                 }
+                mLineState.setDataFormat(dataBits, stopBits, parity);
             }
-
-            // Encode the best divisor value
-            long encodedDivisor = (bestDivisor >> 3) | (fracCode[bestDivisor & 7] << 14);
-            // Deal with special cases for encoded value
-            if (encodedDivisor == 1) {
-                encodedDivisor = 0; // 3000000 baud
-            } else if (encodedDivisor == 0x4001) {
-                encodedDivisor = 1; // 2000000 baud (BM only)
-            }
-
-            // Split into "value" and "index" values
-            long value = encodedDivisor & 0xFFFF;
-            long index;
-            if (mType == DeviceType.TYPE_2232
-                    || mType == DeviceType.TYPE_4232H) {
-                index = (encodedDivisor >> 8) & 0xffff;
-                index &= 0xFF00;
-                index |= mControlIdx;
-            } else {
-                index = (encodedDivisor >> 16) & 0xffff;
-            }
-
-            // Return the nearest baud rate
-            return new long[] {
-                    bestBaud, index, value
-            };
+            return actualBaudRate;
         }
 
         @Override
         public boolean getCD() throws IOException {
-            return false;
+            return (getModemStatus() & MODEM_STATUS_CD) != 0;
         }
 
         @Override
         public boolean getCTS() throws IOException {
-            return false;
+            return (getModemStatus() & MODEM_STATUS_CTS) != 0;
         }
 
         @Override
         public boolean getDSR() throws IOException {
-            return false;
+            return (getModemStatus() & MODEM_STATUS_DSR) != 0;
         }
 
         @Override
         public boolean getDTR() throws IOException {
-            return false;
+            return mLineState.getDtr();
         }
 
         @Override
         public void setDTR(boolean value) throws IOException {
+            if (!mLineState.isDtrChanged(value)) {
+                return;
+            }
+            setModemControl(value ? SIO_SET_DTR_HIGH : SIO_SET_DTR_MASK);
+            mLineState.setDtr(value);
         }
 
         @Override
         public boolean getRI() throws IOException {
-            return false;
+            return (getModemStatus() & MODEM_STATUS_RI) != 0;
         }
 
         @Override
         public boolean getRTS() throws IOException {
-            return false;
+            return mLineState.getRts();
         }
 
         @Override
         public void setRTS(boolean value) throws IOException {
+            if (!mLineState.isRtsChanged(value)) {
+                return;
+            }
+            setModemControl(value ? SIO_SET_RTS_HIGH : SIO_SET_RTS_MASK);
+            mLineState.setRts(value);
+        }
+
+        private void setModemControl(int value) throws IOException {
+            int result = mTransport.controlTransfer(FTDI_DEVICE_OUT_REQTYPE,
+                    SIO_MODEM_CTRL_REQUEST, value, mControlIdx,
+                    null, 0, USB_WRITE_TIMEOUT_MILLIS);
+            if (result != 0) {
+                throw new IOException("Setting modem control failed: result=" + result);
+            }
+        }
+
+        @Override
+        protected int getHardwareFlowControlModes() {
+            return FLOWCONTROL_RTSCTS_IN | FLOWCONTROL_RTSCTS_OUT
+                    | FLOWCONTROL_DTRDSR_IN | FLOWCONTROL_DTRDSR_OUT
+                    | FLOWCONTROL_XONXOFF_IN | FLOWCONTROL_XONXOFF_OUT;
+        }
+
+        /**
+         * The FTDI handshakes always work in both directions, so requesting
+         * either the input or the output mode enables both. Only one kind of
+         * handshake can be active at a time.
+         */
+        @Override
+        protected void setHardwareFlowControl(int flowControl) throws IOException {
+            int value = 0;
+            final int mode;
+            if (flowControl == FLOWCONTROL_NONE) {
+                mode = SIO_DISABLE_FLOW_CTRL;
+            } else if ((flowControl & ~(FLOWCONTROL_RTSCTS_IN | FLOWCONTROL_RTSCTS_OUT)) == 0) {
+                mode = SIO_RTS_CTS_HS;
+            } else if ((flowControl & ~(FLOWCONTROL_DTRDSR_IN | FLOWCONTROL_DTRDSR_OUT)) == 0) {
+                mode = SIO_DTR_DSR_HS;
+            } else if ((flowControl & ~(FLOWCONTROL_XONXOFF_IN | FLOWCONTROL_XONXOFF_OUT)) == 0) {
+                mode = SIO_XON_XOFF_HS;
+                value = (XOFF_CHAR << 8) | XON_CHAR;
+            } else {
+                throw new UnsupportedOperationException(
+                        "Only one kind of flow control supported: " + flowControl);
+            }
+            final int result = mTransport.controlTransfer(FTDI_DEVICE_OUT_REQTYPE,
+                    SIO_SET_FLOW_CTRL_REQUEST, value, mode | mControlIdx,
+                    null, 0, USB_WRITE_TIMEOUT_MILLIS);
+            if (result != 0) {
+                throw new IOException("Setting flow control failed: result=" + result);
+            }
+
+            // With handshake, the chip drives RTS or DTR itself.
+            if (mode == SIO_RTS_CTS_HS) {
+                mLineState.invalidateRts();
+            } else if (mode == SIO_DTR_DSR_HS) {
+                mLineState.invalidateDtr();
+            }
         }
 
         @Override
         public boolean purgeHwBuffers(boolean purgeReadBuffers, boolean purgeWriteBuffers) throws IOException {
             if (purgeReadBuffers) {
-                int result = mConnection.controlTransfer(FTDI_DEVICE_OUT_REQTYPE, SIO_RESET_REQUEST,
+                int result = mTransport.controlTransfer(FTDI_DEVICE_OUT_REQTYPE, SIO_RESET_REQUEST,
                         SIO_RESET_PURGE_RX, mControlIdx, null, 0, USB_WRITE_TIMEOUT_MILLIS);
                 if (result != 0) {
                     throw new IOException("Flushing RX failed: result=" + result);
@@ -461,7 +749,7 @@ public class FtdiSerialDriver extends CommonMultiPortUsbSerialDriver {
             }
 
             if (purgeWriteBuffers) {
-                int result = mConnection.controlTransfer(FTDI_DEVICE_OUT_REQTYPE, SIO_RESET_REQUEST,
+                int result = mTransport.controlTransfer(FTDI_DEVICE_OUT_REQTYPE, SIO_RESET_REQUEST,
                         SIO_RESET_PURGE_TX, mControlIdx, null, 0, USB_WRITE_TIMEOUT_MILLIS);
                 if (result != 0) {
                     throw new IOException("Flushing RX failed: result=" + result);
@@ -478,7 +766,13 @@ public class FtdiSerialDriver extends CommonMultiPortUsbSerialDriver {
 
         switch (device.getProductId()) {
         case UsbId.FTDI_FT2232:
-            mType = DeviceType.TYPE_2232;
+            // The FT2232C/D and the FT2232H have the same product ID, but
+            // only the latter has high speed endpoints.
+            if (isHighSpeed(device)) {
+                mType = DeviceType.TYPE_2232H;
+            } else {
+                mType = DeviceType.TYPE_2232;
+            }
             break;
 
         case UsbId.FTDI_FT4232H:
@@ -489,6 +783,23 @@ public class FtdiSerialDriver extends CommonMultiPortUsbSerialDriver {
             // TODO: other types?
             mType = DeviceType.TYPE_R;
         }
+
+        mBaudRateTable = new FtdiBaudRateTable(mType == DeviceType.TYPE_AM,
+                (mType == DeviceType.TYPE_2232H) || (mType == DeviceType.TYPE_4232H));
+    }
+
+    private boolean isMultiInterface() {
+        return (mType == DeviceType.TYPE_2232) || (mType == DeviceType.TYPE_2232H)
+                || (mType == DeviceType.TYPE_4232H);
+    }
+
+    private static boolean isHighSpeed(UsbDevice device) {
+        if ((device.getInterfaceCount() == 0)
+                || (device.getInterface(0).getEndpointCount() == 0)) {
+            return false;
+        }
+        return device.getInterface(0).getEndpoint(0).getMaxPacketSize()
+                >= HIGH_SPEED_MAX_PACKET_SIZE;
     }
 
     @Override
@@ -497,6 +808,9 @@ public class FtdiSerialDriver extends CommonMultiPortUsbSerialDriver {
         case TYPE_2232:
             return "FT2232";
 
+        case TYPE_2232H:
+            return "FT2232H";
+
         case TYPE_4232H:
             return "FT4232H";
 
@@ -526,6 +840,35 @@ public class FtdiSerialDriver extends CommonMultiPortUsbSerialDriver {
         return new FtdiSerialPort(portIdx);
     }
 
+    /**
+     * Removes the status header from each packet of the raw data received
+     * from a read endpoint, in a single pass over the data. The final packet
+     * may be shorter than {@code maxPacketSize}.
+     *
+     * @param src the raw data, which contains status bytes
+     * @param srcLength the number of raw bytes in {@code src}; may be negative
+     *            if the transfer failed
+     * @param dest the buffer to copy the payload to (can be {@code src}, if
+     *            {@code destOffset} is {@code 0})
+     * @param destOffset the index in {@code dest} of the first payload byte
+     * @param maxPacketSize the max packet size of the read endpoint
+     * @return the number of payload bytes
+     */
+    static int filterStatusBytes(byte[] src, int srcLength, byte[] dest, int destOffset,
+            int maxPacketSize) {
+        int destPos = destOffset;
+        for (int srcPos = 0; srcPos < srcLength; srcPos += maxPacketSize) {
+            final int count = Math.min(maxPacketSize, srcLength - srcPos)
+                    - FtdiSerialPort.MODEM_STATUS_HEADER_LENGTH;
+            if (count > 0) {
+                System.arraycopy(src, srcPos + FtdiSerialPort.MODEM_STATUS_HEADER_LENGTH,
+                        dest, destPos, count);
+                destPos += count;
+            }
+        }
+        return destPos - destOffset;
+    }
+
     public static Map<Integer, int[]> getSupportedDevices() {
         final Map<Integer, int[]> supportedDevices = new LinkedHashMap<Integer, int[]>();
         supportedDevices.put(Integer.valueOf(UsbId.VENDOR_FTDI),
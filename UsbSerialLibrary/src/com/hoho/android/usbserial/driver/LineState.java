@@ -0,0 +1,132 @@
+/* This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package com.hoho.android.usbserial.driver;
+
+/**
+ * The line settings last sent to a device. Drivers compare new settings
+ * against it, and only send the control transfers for settings which have
+ * changed. All settings are unknown until they have been sent once, and
+ * again after {@link #invalidate()}.
+ *
+ * <p/>
+ * Drivers update the state only after the device has accepted a setting, so
+ * a failed transfer is retried by the next call.
+ */
+public final class LineState {
+
+    private static final int UNKNOWN = -1;
+
+    // Synchronized by 'this'
+    private int mBaudRate = UNKNOWN;
+    private int mDataBits = UNKNOWN;
+    private int mStopBits = UNKNOWN;
+    private int mParity = UNKNOWN;
+    private int mDtr = UNKNOWN;
+    private int mRts = UNKNOWN;
+
+    /**
+     * Forgets all settings, for example because the device has been reset.
+     */
+    public synchronized void invalidate() {
+        mBaudRate = UNKNOWN;
+        mDataBits = UNKNOWN;
+        mStopBits = UNKNOWN;
+        mParity = UNKNOWN;
+        mDtr = UNKNOWN;
+        mRts = UNKNOWN;
+    }
+
+    public synchronized boolean isBaudRateChanged(int baudRate) {
+        return mBaudRate != baudRate;
+    }
+
+    public synchronized boolean isDataFormatChanged(int dataBits, int stopBits, int parity) {
+        return (mDataBits != dataBits) || (mStopBits != stopBits) || (mParity != parity);
+    }
+
+    public synchronized boolean isLineCodingChanged(int baudRate, int dataBits,
+            int stopBits, int parity) {
+        return isBaudRateChanged(baudRate) || isDataFormatChanged(dataBits, stopBits, parity);
+    }
+
+    public synchronized void setBaudRate(int baudRate) {
+        mBaudRate = baudRate;
+    }
+
+    public synchronized void setDataFormat(int dataBits, int stopBits, int parity) {
+        mDataBits = dataBits;
+        mStopBits = stopBits;
+        mParity = parity;
+    }
+
+    public synchronized void setLineCoding(int baudRate, int dataBits, int stopBits,
+            int parity) {
+        setBaudRate(baudRate);
+        setDataFormat(dataBits, stopBits, parity);
+    }
+
+    public synchronized boolean isDtrChanged(boolean dtr) {
+        return mDtr != toState(dtr);
+    }
+
+    public synchronized boolean isRtsChanged(boolean rts) {
+        return mRts != toState(rts);
+    }
+
+    public synchronized void setDtr(boolean dtr) {
+        mDtr = toState(dtr);
+    }
+
+    public synchronized void setRts(boolean rts) {
+        mRts = toState(rts);
+    }
+
+    /**
+     * Forgets the DTR state, for example because the device controls it.
+     */
+    public synchronized void invalidateDtr() {
+        mDtr = UNKNOWN;
+    }
+
+    /**
+     * Forgets the RTS state, for example because the device controls it.
+     */
+    public synchronized void invalidateRts() {
+        mRts = UNKNOWN;
+    }
+
+    /**
+     * Returns the DTR state last sent, {@code false} if unknown.
+     */
+    public synchronized boolean getDtr() {
+        return mDtr == toState(true);
+    }
+
+    /**
+     * Returns the RTS state last sent, {@code false} if unknown.
+     */
+    public synchronized boolean getRts() {
+        return mRts == toState(true);
+    }
+
+    private static int toState(boolean value) {
+        return value ? 1 : 0;
+    }
+
+}
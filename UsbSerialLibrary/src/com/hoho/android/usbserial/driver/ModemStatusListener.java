@@ -0,0 +1,51 @@
+/* This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package com.hoho.android.usbserial.driver;
+
+/**
+ * Notified when the modem status lines of a port change, see
+ * {@link CommonUsbSerialPort#setModemStatusListener(ModemStatusListener)}.
+ */
+public interface ModemStatusListener {
+
+    /** CD (Carrier Detect) is set. */
+    public static final int STATUS_CD = 0x01;
+
+    /** DSR (Data Set Ready) is set. */
+    public static final int STATUS_DSR = 0x02;
+
+    /** RI (Ring Indicator) is set. */
+    public static final int STATUS_RI = 0x08;
+
+    /** CTS (Clear To Send) is set. */
+    public static final int STATUS_CTS = 0x80;
+
+    /**
+     * Called with the new state of the status lines, whenever one of them
+     * has changed. Called on an internal thread of the library, which must
+     * not be blocked. FTDI devices report the status with the received data,
+     * so for them it is called on the thread reading the port, or querying
+     * the status.
+     *
+     * @param port the port whose status changed
+     * @param status a combination of the {@code STATUS_*} flags
+     */
+    public void onModemStatusChanged(UsbSerialPort port, int status);
+
+}
@@ -0,0 +1,267 @@
+/* This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package com.hoho.android.usbserial.driver;
+
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Table which maps USB devices to the factories of their
+ * {@link UsbSerialDriver}s.
+ *
+ * <p/>
+ * Devices are matched by their exact vendor and product ID first. If there is
+ * no such entry, each interface of the device is matched by its interface
+ * class, for example to use {@link CdcAcmSerialDriver} for any device with a
+ * {@link android.hardware.usb.UsbConstants#USB_CLASS_COMM} interface. Both
+ * lookups are hash table lookups, independent of the size of the table.
+ *
+ * <p/>
+ * Entries may be added at any time; lookups do not block and see either the
+ * old or the new contents of the table.
+ *
+ * <p/>
+ * The table used by the static methods of {@link UsbSerialProber} is returned
+ * by {@link UsbSerialProber#getDefaultProbeTable()}. A custom product is added
+ * to it with, for example:
+ *
+ * <pre>
+ * UsbSerialProber.getDefaultProbeTable().addProduct(0x1234, 0x0001,
+ *         UsbSerialProber.FTDI_SERIAL);
+ * </pre>
+ */
+public final class ProbeTable {
+
+    /**
+     * Creates the driver for a device matched by a {@link ProbeTable}.
+     */
+    public interface DriverFactory {
+        /**
+         * Creates a new driver instance.
+         *
+         * @param usbDevice the matched device
+         * @return the new driver, or {@code null} if the device cannot be used
+         */
+        public UsbSerialDriver createDriver(UsbDevice usbDevice);
+    }
+
+    // Replaced as a whole when an entry is added, never modified
+    private volatile IntIndex<DriverFactory> mProducts = new IntIndex<DriverFactory>();
+    private volatile IntIndex<DriverFactory> mInterfaceClasses = new IntIndex<DriverFactory>();
+
+    /**
+     * Maps a single product to a driver, replacing any previous mapping of
+     * the same product.
+     *
+     * @param vendorId the USB vendor ID
+     * @param productId the USB product ID
+     * @param factory the factory creating the driver
+     * @return this table
+     */
+    public synchronized ProbeTable addProduct(int vendorId, int productId,
+            DriverFactory factory) {
+        mProducts = mProducts.with(productKey(vendorId, productId), factory);
+        return this;
+    }
+
+    /**
+     * Maps all products of a supported devices map, as returned by the
+     * drivers' {@code getSupportedDevices()} methods, to a driver.
+     *
+     * @param supportedDevices map of vendor IDs to product IDs
+     * @param factory the factory creating the driver
+     * @return this table
+     */
+    public synchronized ProbeTable addProducts(Map<Integer, int[]> supportedDevices,
+            DriverFactory factory) {
+        IntIndex<DriverFactory> products = mProducts;
+        for (final Map.Entry<Integer, int[]> entry : supportedDevices.entrySet()) {
+            final int vendorId = entry.getKey().intValue();
+            for (final int productId : entry.getValue()) {
+                products = products.with(productKey(vendorId, productId), factory);
+            }
+        }
+        mProducts = products;
+        return this;
+    }
+
+    /**
+     * Maps all devices which have an interface of the given class, and no
+     * product entry, to a driver.
+     *
+     * @param interfaceClass the USB interface class, for example
+     *            {@link android.hardware.usb.UsbConstants#USB_CLASS_COMM}
+     * @param factory the factory creating the driver
+     * @return this table
+     */
+    public synchronized ProbeTable addInterfaceClass(int interfaceClass,
+            DriverFactory factory) {
+        mInterfaceClasses = mInterfaceClasses.with(interfaceClass, factory);
+        return this;
+    }
+
+    /**
+     * Looks up the factory for the given device.
+     *
+     * @param usbDevice the device to look up
+     * @return the factory, or {@code null} if the device is not supported
+     */
+    public DriverFactory findFactory(UsbDevice usbDevice) {
+        final DriverFactory factory = findFactory(usbDevice.getVendorId(),
+                usbDevice.getProductId());
+        if (factory != null) {
+            return factory;
+        }
+
+        final IntIndex<DriverFactory> interfaceClasses = mInterfaceClasses;
+        if (interfaceClasses.size() == 0) {
+            return null;
+        }
+        for (int i = 0; i < usbDevice.getInterfaceCount(); ++i) {
+            final DriverFactory classFactory =
+                    interfaceClasses.get(usbDevice.getInterface(i).getInterfaceClass());
+            if (classFactory != null) {
+                return classFactory;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Looks up the factory of a product, ignoring the interface class
+     * entries.
+     *
+     * @param vendorId the USB vendor ID
+     * @param productId the USB product ID
+     * @return the factory, or {@code null} if the product has no entry
+     */
+    public DriverFactory findFactory(int vendorId, int productId) {
+        return mProducts.get(productKey(vendorId, productId));
+    }
+
+    /**
+     * Creates a driver for the given device.
+     *
+     * @param usbDevice the device to probe
+     * @return the new driver, or {@code null} if the device is not supported
+     */
+    public UsbSerialDriver probeDevice(UsbDevice usbDevice) {
+        final DriverFactory factory = findFactory(usbDevice);
+        return (factory != null) ? factory.createDriver(usbDevice) : null;
+    }
+
+    /**
+     * Creates a driver for each supported device found on the bus.
+     *
+     * @param usbManager the {@link UsbManager} to use
+     * @return a list containing zero or more {@link UsbSerialDriver} instances
+     */
+    public List<UsbSerialDriver> findAllDevices(UsbManager usbManager) {
+        final List<UsbSerialDriver> result = new ArrayList<UsbSerialDriver>();
+        for (final UsbDevice usbDevice : usbManager.getDeviceList().values()) {
+            final UsbSerialDriver driver = probeDevice(usbDevice);
+            if (driver != null) {
+                result.add(driver);
+            }
+        }
+        return result;
+    }
+
+    private static int productKey(int vendorId, int productId) {
+        return (vendorId << 16) | (productId & 0xffff);
+    }
+
+    /**
+     * Immutable hash table with primitive int keys and open addressing.
+     */
+    private static final class IntIndex<V> {
+
+        private final int[] mKeys;
+        private final Object[] mValues;
+        private final int mSize;
+
+        IntIndex() {
+            this(new int[8], new Object[8], 0);
+        }
+
+        private IntIndex(int[] keys, Object[] values, int size) {
+            mKeys = keys;
+            mValues = values;
+            mSize = size;
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        @SuppressWarnings("unchecked")
+        V get(int key) {
+            final int mask = mKeys.length - 1;
+            for (int i = hash(key) & mask; mValues[i] != null; i = (i + 1) & mask) {
+                if (mKeys[i] == key) {
+                    return (V) mValues[i];
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Returns a copy of this table in which {@code key} maps to
+         * {@code value}. The table is kept at most half full.
+         */
+        IntIndex<V> with(int key, V value) {
+            if (value == null) {
+                throw new NullPointerException("value");
+            }
+            final boolean replace = (get(key) != null);
+            final int size = replace ? mSize : (mSize + 1);
+            final int capacity = (size * 2 > mKeys.length) ? (mKeys.length * 2) : mKeys.length;
+
+            final int[] keys = new int[capacity];
+            final Object[] values = new Object[capacity];
+            for (int i = 0; i < mKeys.length; ++i) {
+                if ((mValues[i] != null) && (mKeys[i] != key)) {
+                    insert(keys, values, mKeys[i], mValues[i]);
+                }
+            }
+            insert(keys, values, key, value);
+            return new IntIndex<V>(keys, values, size);
+        }
+
+        private static void insert(int[] keys, Object[] values, int key, Object value) {
+            final int mask = keys.length - 1;
+            int i = hash(key) & mask;
+            while (values[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            values[i] = value;
+        }
+
+        private static int hash(int key) {
+            final int h = key * 0x9e3779b9;
+            return h ^ (h >>> 16);
+        }
+    }
+
+}
@@ -35,7 +35,6 @@ import android.hardware.usb.UsbManager;
 import android.util.Log;
 
 import java.io.IOException;
-import java.lang.reflect.Method;
 import java.security.AccessControlException;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -65,18 +64,18 @@ public class ProlificSerialDriver extends CdcAcmSerialDriver {
 
     private int mDeviceType = DEVICE_TYPE_HX;
 
-    private int mStatus = 0;
-    private volatile Thread mReadStatusThread = null;
-    private final Object mReadStatusThreadLock = new Object();
-    boolean mStopReadStatusThread = false;
-    private IOException mReadStatusException = null;
+    private static final int STATUS_FLAGS = STATUS_FLAG_CD | STATUS_FLAG_DSR
+            | STATUS_FLAG_RI | STATUS_FLAG_CTS;
+
+    private volatile int mStatus = 0;
+    private volatile IOException mReadStatusException = null;
 
     private final String TAG = ProlificSerialDriver.class.getSimpleName();
 
     private final byte[] inControlTransfer(int requestType, int request,
             int value, int index, int length) throws IOException {
         byte[] buffer = new byte[length];
-        int result = mConnection.controlTransfer(requestType, request, value,
+        int result = mTransport.controlTransfer(requestType, request, value,
                 index, buffer, length, USB_READ_TIMEOUT_MILLIS);
         if (result != length) {
             throw new IOException(
@@ -89,7 +88,7 @@ public class ProlificSerialDriver extends CdcAcmSerialDriver {
     private final void outControlTransfer(int requestType, int request,
             int value, int index, byte[] data) throws IOException {
         int length = (data == null) ? 0 : data.length;
-        int result = mConnection.controlTransfer(requestType, request, value,
+        int result = mTransport.controlTransfer(requestType, request, value,
                 index, data, length, USB_WRITE_TIMEOUT_MILLIS);
         if (result != length) {
             throw new IOException(
@@ -128,62 +127,44 @@ public class ProlificSerialDriver extends CdcAcmSerialDriver {
         purgeHwBuffers(true, true);
     }
 
-    private final void readStatusThreadFunction() {
-        try {
-            while (!mStopReadStatusThread) {
-                byte[] buffer = new byte[STATUS_BUFFER_SIZE];
-                int readBytesCount = mConnection.bulkTransfer(mControlEndpoint,
-                        buffer,
-                        STATUS_BUFFER_SIZE,
-                        500);
-                if (readBytesCount > 0) {
-                    if (readBytesCount == STATUS_BUFFER_SIZE) {
-                        mStatus = buffer[STATUS_BYTE_IDX] & 0xff;
-                        Log.i(TAG, "mStatus: " + mStatus);
-                    } else {
-                        throw new IOException(
-                                String.format("Invalid CTS / DSR / CD / RI status buffer received, expected %d bytes, but received %d",
-                                        STATUS_BUFFER_SIZE,
-                                        readBytesCount));
-                    }
-                }
-            }
-        } catch (IOException e) {
-            mReadStatusException = e;
+    private void setStatus(int status) {
+        mStatus = status;
+        // The STATUS_FLAG_* bits match the ModemStatusListener.STATUS_* bits.
+        reportModemStatus(status & STATUS_FLAGS);
+    }
+
+    @Override
+    protected void readInitialStatus() {
+        byte[] buffer = new byte[STATUS_BUFFER_SIZE];
+        int readBytes = mTransport.bulkTransfer(mControlEndpoint,
+                buffer,
+                STATUS_BUFFER_SIZE,
+                100);
+        if (readBytes != STATUS_BUFFER_SIZE) {
+            Log.w(TAG, "Could not read initial CTS / DSR / CD / RI status");
+        } else {
+            setStatus(buffer[STATUS_BYTE_IDX] & 0xff);
         }
     }
 
-    private final int getStatus() throws IOException {
-        if ((mReadStatusThread == null) && (mReadStatusException == null)) {
-            synchronized (mReadStatusThreadLock) {
-                if (mReadStatusThread == null) {
-                    byte[] buffer = new byte[STATUS_BUFFER_SIZE];
-                    int readBytes = mConnection.bulkTransfer(mControlEndpoint,
-                            buffer,
+    @Override
+    protected void handleStatusData(byte[] data, int length) {
+        if (length == STATUS_BUFFER_SIZE) {
+            setStatus(data[STATUS_BYTE_IDX] & 0xff);
+        } else {
+            mReadStatusException = new IOException(
+                    String.format("Invalid CTS / DSR / CD / RI status buffer received, expected %d bytes, but received %d",
                             STATUS_BUFFER_SIZE,
-                            100);
-                    if (readBytes != STATUS_BUFFER_SIZE) {
-                        Log.w(TAG, "Could not read initial CTS / DSR / CD / RI status");
-                    } else {
-                        mStatus = buffer[STATUS_BYTE_IDX] & 0xff;
-                        Log.i(TAG, "mStatus: " + mStatus);
-                    }
-
-                    mReadStatusThread = new Thread(new Runnable() {
-                        @Override
-                        public void run() {
-                            readStatusThreadFunction();
-                        }
-                    });
-                    mReadStatusThread.setDaemon(true);
-                    mReadStatusThread.start();
-                }
-            }
+                            length));
         }
+    }
+
+    private final int getStatus() throws IOException {
+        startStatusPolling();
 
-        /* throw and clear an exception which occured in the status read thread */
+        /* throw and clear an exception which occured while polling the status */
         IOException readStatusException = mReadStatusException;
-        if (mReadStatusException != null) {
+        if (readStatusException != null) {
             mReadStatusException = null;
             throw readStatusException;
         }
@@ -200,10 +181,14 @@ public class ProlificSerialDriver extends CdcAcmSerialDriver {
             mDeviceType = DEVICE_TYPE_0;
         } else {
             try {
-                Method getRawDescriptorsMethod
-                    = mConnection.getClass().getMethod("getRawDescriptors");
-                byte[] rawDescriptors
-                    = (byte[]) getRawDescriptorsMethod.invoke(mConnection);
+                byte[] rawDescriptors = mTransport.getRawDescriptors();
+                if (rawDescriptors == null) {
+                    Log.w(TAG, "Method UsbDeviceConnection.getRawDescriptors, "
+                            + "required for PL2303 subtype detection, not "
+                            + "available! Assuming that it is a HX device");
+                    mDeviceType = DEVICE_TYPE_HX;
+                    return;
+                }
                 byte maxPacketSize0 = rawDescriptors[7];
                 if (maxPacketSize0 == 64) {
                     mDeviceType = DEVICE_TYPE_HX;
@@ -215,11 +200,6 @@ public class ProlificSerialDriver extends CdcAcmSerialDriver {
                       + "Assuming that it is a HX device");
                   mDeviceType = DEVICE_TYPE_HX;
                 }
-            } catch (NoSuchMethodException e) {
-                Log.w(TAG, "Method UsbDeviceConnection.getRawDescriptors, "
-                        + "required for PL2303 subtype detection, not "
-                        + "available! Assuming that it is a HX device");
-                mDeviceType = DEVICE_TYPE_HX;
             } catch (Exception e) {
                 Log.e(TAG, "An unexpected exception occured while trying "
                         + "to detect PL2303 subtype", e);
@@ -231,7 +211,7 @@ public class ProlificSerialDriver extends CdcAcmSerialDriver {
     protected void initEndpoints() throws IOException {
         UsbInterface usbInterface = mDevice.getInterface(0);
 
-        if (!mConnection.claimInterface(usbInterface, true)) {
+        if (!mTransport.claimInterface(usbInterface, true)) {
             throw new IOException("Error claiming Prolific interface 0");
         }
 
@@ -260,40 +240,37 @@ public class ProlificSerialDriver extends CdcAcmSerialDriver {
 
     @Override
     protected void initDriverSpecific(UsbManager usbManager) throws IOException, AccessControlException {
-        super.initDriverSpecific(usbManager);
+        // The status is only polled once it is needed.
+        initEndpoints();
 
         detectSubtype();
         resetDevice();
         doBlackMagic();
+
+        if (getModemStatusListener() != null) {
+            startStatusPolling();
+        }
     }
 
     @Override
     protected void deinitDriverSpecific() throws IOException {
-        mStopReadStatusThread = true;
-        synchronized (mReadStatusThreadLock) {
-            if (mReadStatusThread != null) {
-                try {
-                    mReadStatusThread.join();
-                } catch (Exception e) {
-                    Log.w(TAG, "An error occured while waiting for status read thread", e);
-                }
-            }
-        }
+        stopStatusPolling();
+        mReadStatusException = null;
 
         resetDevice();
     }
 
     @Override
-    public void setParameters(int baudRate, int dataBits, int stopBits,
+    public int setParameters(int baudRate, int dataBits, int stopBits,
             int parity) throws IOException {
-        if ((mBaudRate == baudRate) && (mDataBits == dataBits)
-                && (mStopBits == stopBits) && (mParity == parity)) {
+        if (!mLineState.isLineCodingChanged(baudRate, dataBits, stopBits, parity)) {
             // Make sure no action is performed if there is nothing to change
-            return;
+            return baudRate;
         }
 
-        super.setParameters(baudRate, dataBits, stopBits, parity);
+        final int actualBaudRate = super.setParameters(baudRate, dataBits, stopBits, parity);
         resetDevice();
+        return actualBaudRate;
     }
 
     @Override
@@ -0,0 +1,250 @@
+/* This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package com.hoho.android.usbserial.driver;
+
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+import android.util.Log;
+
+/**
+ * Reads the interrupt (status) endpoints of all open devices from a single
+ * shared thread.
+ *
+ * <p/>
+ * The endpoints are polled in turn with a short timeout, since
+ * {@link UsbDeviceConnection#requestWait()} can only wait on one connection,
+ * and would also take completed requests away from other users of the
+ * connection. The thread is started when the first endpoint is registered,
+ * and ends when the last one is unregistered. Each endpoint has its own
+ * receive buffer, so polling does not allocate.
+ *
+ * <p/>
+ * An endpoint without pending data blocks the thread for the poll timeout of
+ * 20 ms, so with {@code n} registered endpoints a status change is seen
+ * within about {@code n * 20} ms. An endpoint whose transfers fail
+ * immediately, for example because its device has been detached, is polled
+ * less and less often, down to once per second, until a transfer succeeds or
+ * times out again.
+ */
+final class StatusPoller {
+
+    private static final String TAG = StatusPoller.class.getSimpleName();
+
+    private static final int POLL_TIMEOUT_MILLIS = 20;
+
+    // A transfer failing faster than this did not time out
+    private static final long FAST_FAILURE_NANOS = POLL_TIMEOUT_MILLIS * 1000000L / 2;
+
+    // Fast failures in a row before an endpoint is backed off
+    private static final int MAX_FAST_FAILURES = 3;
+
+    private static final long MIN_BACKOFF_NANOS = POLL_TIMEOUT_MILLIS * 1000000L;
+    private static final long MAX_BACKOFF_NANOS = 1000 * 1000000L;
+
+    /**
+     * Receives the data read from a registered endpoint, on the polling
+     * thread.
+     */
+    interface Callback {
+        /**
+         * Called for each transfer which received data.
+         *
+         * @param data the buffer holding the data, only valid during the call
+         * @param length the number of bytes received
+         */
+        void onStatusData(byte[] data, int length);
+    }
+
+    private static final class Entry {
+        final UsbTransport transport;
+        final UsbEndpoint endpoint;
+        final Callback callback;
+        final byte[] buffer;
+
+        // Only used by the polling thread
+        int fastFailures = 0;
+        long nextPollNanos = System.nanoTime();
+
+        Entry(UsbTransport transport, UsbEndpoint endpoint, Callback callback) {
+            this.transport = transport;
+            this.endpoint = endpoint;
+            this.callback = callback;
+            this.buffer = new byte[endpoint.getMaxPacketSize()];
+        }
+    }
+
+    private static final StatusPoller sInstance = new StatusPoller();
+
+    // Synchronized by 'this'. Replaced as a whole when an endpoint is
+    // registered or unregistered, so that the polling loop can iterate a
+    // snapshot without holding the lock.
+    private Entry[] mEntries = new Entry[0];
+    private Thread mThread = null;
+    private Entry mPolling = null;
+
+    static StatusPoller getInstance() {
+        return sInstance;
+    }
+
+    private StatusPoller() {
+    }
+
+    /**
+     * Starts polling an endpoint.
+     *
+     * @param transport the transport of the endpoint's device
+     * @param endpoint the interrupt IN endpoint to read
+     * @param callback the callback receiving the data, which identifies the
+     *            registration
+     */
+    synchronized void register(UsbTransport transport, UsbEndpoint endpoint,
+            Callback callback) {
+        final Entry[] entries = new Entry[mEntries.length + 1];
+        System.arraycopy(mEntries, 0, entries, 0, mEntries.length);
+        entries[mEntries.length] = new Entry(transport, endpoint, callback);
+        mEntries = entries;
+
+        if (mThread == null) {
+            mThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    poll();
+                }
+            }, TAG);
+            mThread.setDaemon(true);
+            mThread.start();
+        }
+    }
+
+    /**
+     * Stops polling the endpoint registered with {@code callback}. When this
+     * method returns, the transport is no longer used and the callback is
+     * no longer called, unless this is called by the callback itself.
+     *
+     * @param callback the callback passed to {@link #register}
+     */
+    synchronized void unregister(Callback callback) {
+        int index = -1;
+        for (int i = 0; i < mEntries.length; ++i) {
+            if (mEntries[i].callback == callback) {
+                index = i;
+                break;
+            }
+        }
+        if (index < 0) {
+            return;
+        }
+
+        final Entry removed = mEntries[index];
+        final Entry[] entries = new Entry[mEntries.length - 1];
+        System.arraycopy(mEntries, 0, entries, 0, index);
+        System.arraycopy(mEntries, index + 1, entries, index, entries.length - index);
+        mEntries = entries;
+        notifyAll();
+
+        if (Thread.currentThread() == mThread) {
+            return;
+        }
+        boolean interrupted = false;
+        while (mPolling == removed) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void poll() {
+        Entry[] entries;
+        int index = 0;
+        while (true) {
+            Entry entry = null;
+            synchronized (this) {
+                mPolling = null;
+                notifyAll();
+                entries = mEntries;
+                if (entries.length == 0) {
+                    mThread = null;
+                    return;
+                }
+
+                // Take the next endpoint which is not backed off.
+                final long now = System.nanoTime();
+                long delay = MAX_BACKOFF_NANOS;
+                for (int i = 0; (i < entries.length) && (entry == null); ++i) {
+                    if (index >= entries.length) {
+                        index = 0;
+                    }
+                    final Entry candidate = entries[index++];
+                    final long remaining = candidate.nextPollNanos - now;
+                    if (remaining <= 0) {
+                        entry = candidate;
+                    } else {
+                        delay = Math.min(delay, remaining);
+                    }
+                }
+                if (entry == null) {
+                    try {
+                        wait(Math.max(1, delay / 1000000L));
+                    } catch (InterruptedException e) {
+                        Log.w(TAG, "Interrupted while backing off");
+                    }
+                    continue;
+                }
+                mPolling = entry;
+            }
+
+            try {
+                final long startNanos = System.nanoTime();
+                final int length = entry.transport.bulkTransfer(entry.endpoint,
+                        entry.buffer, entry.buffer.length, POLL_TIMEOUT_MILLIS);
+                if ((length < 0) && (System.nanoTime() - startNanos < FAST_FAILURE_NANOS)) {
+                    onFastFailure(entry);
+                } else {
+                    entry.fastFailures = 0;
+                }
+                if (length > 0) {
+                    entry.callback.onStatusData(entry.buffer, length);
+                }
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Status callback failed", e);
+            }
+        }
+    }
+
+    // Polls an endpoint whose transfers keep failing immediately less often,
+    // so that the thread doesn't spin.
+    private static void onFastFailure(Entry entry) {
+        ++entry.fastFailures;
+        if (entry.fastFailures < MAX_FAST_FAILURES) {
+            return;
+        }
+        if (entry.fastFailures == MAX_FAST_FAILURES) {
+            Log.w(TAG, "Status transfers failing, backing off");
+        }
+        final int shift = Math.min(entry.fastFailures - MAX_FAST_FAILURES, 10);
+        entry.nextPollNanos = System.nanoTime()
+                + Math.min(MAX_BACKOFF_NANOS, MIN_BACKOFF_NANOS << shift);
+    }
+
+}
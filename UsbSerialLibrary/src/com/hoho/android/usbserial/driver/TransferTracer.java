@@ -0,0 +1,66 @@
+/* This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package com.hoho.android.usbserial.driver;
+
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbEndpoint;
+
+/**
+ * Notified of every synchronous transfer made by the drivers, once it has
+ * completed. Installed with {@link TransferTracing#setTracer(TransferTracer)}.
+ *
+ * <p/>
+ * The methods are called from the thread which made the transfer, possibly
+ * from several threads at once, and should return quickly.
+ */
+public interface TransferTracer {
+
+    /**
+     * Called after a bulk or interrupt transfer.
+     *
+     * @param device the device
+     * @param endpoint the endpoint of the transfer
+     * @param length the number of bytes requested
+     * @param result the number of bytes transferred, or a negative value on
+     *            failure
+     * @param startNanos {@link System#nanoTime()} when the transfer started
+     * @param durationNanos the duration of the transfer
+     */
+    public void onBulkTransfer(UsbDevice device, UsbEndpoint endpoint, int length,
+            int result, long startNanos, long durationNanos);
+
+    /**
+     * Called after a control transfer.
+     *
+     * @param device the device
+     * @param requestType the request type of the transfer
+     * @param request the request
+     * @param value the value field
+     * @param index the index field
+     * @param length the number of bytes requested
+     * @param result the number of bytes transferred, or a negative value on
+     *            failure
+     * @param startNanos {@link System#nanoTime()} when the transfer started
+     * @param durationNanos the duration of the transfer
+     */
+    public void onControlTransfer(UsbDevice device, int requestType, int request,
+            int value, int index, int length, int result, long startNanos,
+            long durationNanos);
+
+}
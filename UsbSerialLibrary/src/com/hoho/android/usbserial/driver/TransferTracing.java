@@ -0,0 +1,142 @@
+/* This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package com.hoho.android.usbserial.driver;
+
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbInterface;
+import android.util.Log;
+
+/**
+ * Holds the {@link TransferTracer} which observes the transfers of all
+ * drivers.
+ *
+ * <p/>
+ * Every driver wraps the {@link UsbTransport} it opens, so that each bulk
+ * and control transfer passes here. Without a tracer, this costs one read of
+ * a volatile field per transfer. Exceptions thrown by the tracer are logged
+ * and do not fail the transfer. Transfers queued with
+ * {@link android.hardware.usb.UsbRequest}, as done by the asynchronous modes
+ * of the I/O managers, are not traced.
+ */
+public final class TransferTracing {
+
+    private static final String TAG = TransferTracing.class.getSimpleName();
+
+    private static volatile TransferTracer sTracer;
+
+    private TransferTracing() {
+    }
+
+    /**
+     * Installs the tracer, replacing any previous one. Applies to devices
+     * which are already open as well.
+     *
+     * @param tracer the tracer, or {@code null} to stop tracing
+     */
+    public static void setTracer(TransferTracer tracer) {
+        sTracer = tracer;
+    }
+
+    public static TransferTracer getTracer() {
+        return sTracer;
+    }
+
+    /**
+     * Returns a transport which reports the transfers made through
+     * {@code transport} to the installed tracer.
+     */
+    static UsbTransport wrap(UsbDevice device, UsbTransport transport) {
+        return new TracingTransport(device, transport);
+    }
+
+    private static final class TracingTransport implements UsbTransport {
+        private final UsbDevice mDevice;
+        private final UsbTransport mTransport;
+
+        TracingTransport(UsbDevice device, UsbTransport transport) {
+            mDevice = device;
+            mTransport = transport;
+        }
+
+        @Override
+        public int bulkTransfer(UsbEndpoint endpoint, byte[] buffer, int length, int timeout) {
+            final TransferTracer tracer = sTracer;
+            if (tracer == null) {
+                return mTransport.bulkTransfer(endpoint, buffer, length, timeout);
+            }
+            final long startNanos = System.nanoTime();
+            final int result = mTransport.bulkTransfer(endpoint, buffer, length, timeout);
+            try {
+                tracer.onBulkTransfer(mDevice, endpoint, length, result, startNanos,
+                        System.nanoTime() - startNanos);
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Transfer tracer failed", e);
+            }
+            return result;
+        }
+
+        @Override
+        public int controlTransfer(int requestType, int request, int value, int index,
+                byte[] buffer, int length, int timeout) {
+            final TransferTracer tracer = sTracer;
+            if (tracer == null) {
+                return mTransport.controlTransfer(requestType, request, value, index,
+                        buffer, length, timeout);
+            }
+            final long startNanos = System.nanoTime();
+            final int result = mTransport.controlTransfer(requestType, request, value, index,
+                    buffer, length, timeout);
+            try {
+                tracer.onControlTransfer(mDevice, requestType, request, value, index, length,
+                        result, startNanos, System.nanoTime() - startNanos);
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Transfer tracer failed", e);
+            }
+            return result;
+        }
+
+        @Override
+        public boolean claimInterface(UsbInterface intf, boolean force) {
+            return mTransport.claimInterface(intf, force);
+        }
+
+        @Override
+        public boolean releaseInterface(UsbInterface intf) {
+            return mTransport.releaseInterface(intf);
+        }
+
+        @Override
+        public byte[] getRawDescriptors() {
+            return mTransport.getRawDescriptors();
+        }
+
+        @Override
+        public UsbDeviceConnection getConnection() {
+            return mTransport.getConnection();
+        }
+
+        @Override
+        public void close() {
+            mTransport.close();
+        }
+    }
+
+}
@@ -19,6 +19,7 @@
 package com.hoho.android.usbserial.driver;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.security.AccessControlException;
 
 import android.hardware.usb.UsbManager;
@@ -57,6 +58,12 @@ public interface UsbSerialPort {
     /** XON/XOFF output flow control. */
     public static final int FLOWCONTROL_XONXOFF_OUT = 8;
 
+    /** DTR/DSR input flow control. */
+    public static final int FLOWCONTROL_DTRDSR_IN = 16;
+
+    /** DTR/DSR output flow control. */
+    public static final int FLOWCONTROL_DTRDSR_OUT = 32;
+
     /** No parity. */
     public static final int PARITY_NONE = 0;
 
@@ -115,6 +122,33 @@ public interface UsbSerialPort {
      */
     public int read(final byte[] dest, final int timeoutMillis) throws IOException;
 
+    /**
+     * Reads as many bytes as possible into a range of the destination buffer.
+     *
+     * @param dest the destination byte buffer
+     * @param offset the index in {@code dest} of the first byte read
+     * @param length the maximum number of bytes to read
+     * @param timeoutMillis the timeout for reading
+     * @return the actual number of bytes read
+     * @throws IOException if an error occurred during reading
+     */
+    public int read(final byte[] dest,
+            final int offset,
+            final int length,
+            final int timeoutMillis) throws IOException;
+
+    /**
+     * Reads as many bytes as possible into the remaining space of the
+     * destination buffer, which may be a heap or a direct buffer. The
+     * position of the buffer is advanced by the number of bytes read.
+     *
+     * @param dest the destination buffer
+     * @param timeoutMillis the timeout for reading
+     * @return the actual number of bytes read
+     * @throws IOException if an error occurred during reading
+     */
+    public int read(final ByteBuffer dest, final int timeoutMillis) throws IOException;
+
     /**
      * Writes all bytes from the source buffer.
      *
@@ -136,6 +170,40 @@ public interface UsbSerialPort {
             final int length,
             final int timeoutMillis) throws IOException;
 
+    /**
+     * Writes as many bytes as possible from a range of the source buffer.
+     *
+     * @param src the source byte buffer
+     * @param offset the index of the first byte to write
+     * @param length the number of bytes to write
+     * @param timeoutMillis the timeout for writing
+     * @return the actual number of bytes written
+     * @throws IOException if an error occurred during writing
+     */
+    public int write(final byte[] src,
+            final int offset,
+            final int length,
+            final int timeoutMillis) throws IOException;
+
+    /**
+     * Writes all remaining bytes from the source buffer, which may be a heap
+     * or a direct buffer. The position of the buffer is advanced accordingly.
+     *
+     * @param src the source buffer
+     * @throws IOException if an error occurred during writing
+     */
+    public void write(final ByteBuffer src) throws IOException;
+
+    /**
+     * Writes all remaining bytes from a sequence of buffers, in order.
+     * Small buffers are combined into as few transfers as possible. The
+     * positions of the buffers are advanced accordingly.
+     *
+     * @param srcs the source buffers
+     * @throws IOException if an error occurred during writing
+     */
+    public void write(final ByteBuffer[] srcs) throws IOException;
+
     /**
      * Sets various serial port parameters.
      *
@@ -147,9 +215,11 @@ public interface UsbSerialPort {
      * @param parity one of {@link #PARITY_NONE}, {@link #PARITY_ODD},
      *            {@link #PARITY_EVEN}, {@link #PARITY_MARK}, or
      *            {@link #PARITY_SPACE}.
+     * @return the baud rate actually configured, which may differ from
+     *         {@code baudRate} if the device cannot generate it exactly
      * @throws IOException on error setting the port parameters
      */
-    public void setParameters(
+    public int setParameters(
             int baudRate, int dataBits, int stopBits, int parity) throws IOException;
 
     /**
@@ -218,6 +288,28 @@ public interface UsbSerialPort {
      */
     public void setRTS(boolean value) throws IOException;
 
+    /**
+     * Sets the flow control mode of the port. Modes which the device cannot
+     * handle itself may be emulated in software by
+     * {@link com.hoho.android.usbserial.util.SerialInputOutputManager}.
+     *
+     * @param flowControl {@link #FLOWCONTROL_NONE}, or a combination of
+     *            {@link #FLOWCONTROL_RTSCTS_IN}, {@link #FLOWCONTROL_RTSCTS_OUT},
+     *            {@link #FLOWCONTROL_XONXOFF_IN}, {@link #FLOWCONTROL_XONXOFF_OUT},
+     *            {@link #FLOWCONTROL_DTRDSR_IN} and {@link #FLOWCONTROL_DTRDSR_OUT}.
+     * @throws UnsupportedOperationException if the mode is not supported by
+     *             the driver
+     * @throws IOException if an error occurred during writing
+     */
+    public void setFlowControl(int flowControl) throws IOException;
+
+    /**
+     * Gets the flow control mode set with {@link #setFlowControl(int)}.
+     *
+     * @return the current flow control mode
+     */
+    public int getFlowControl();
+
     /**
      * Trigger purging non-transmitted output data and / or non-read input
      * from the device hardware buffers.
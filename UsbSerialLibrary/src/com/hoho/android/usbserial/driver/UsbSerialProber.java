@@ -23,7 +23,6 @@ package com.hoho.android.usbserial.driver;
 import android.hardware.usb.UsbDevice;
 import android.hardware.usb.UsbManager;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -43,7 +42,7 @@ import java.util.Map;
  *
  * @author mike wakerly (opensource@hoho.com)
  */
-public enum UsbSerialProber {
+public enum UsbSerialProber implements ProbeTable.DriverFactory {
 
     // TODO(mikey): Too much boilerplate.
 
@@ -54,65 +53,49 @@ public enum UsbSerialProber {
      */
     FTDI_SERIAL {
         @Override
-        public UsbSerialDriver getDevice(final UsbDevice usbDevice) {
-            if (testIfSupported(usbDevice)) {
-                return new FtdiSerialDriver(usbDevice);
-            } else {
-                return null;
-            }
+        public UsbSerialDriver createDriver(final UsbDevice usbDevice) {
+            return new FtdiSerialDriver(usbDevice);
         }
 
         @Override
-        public boolean testIfSupported(final UsbDevice usbDevice) {
-            return testIfInSupportedDevicesMap(usbDevice, FtdiSerialDriver.getSupportedDevices());
+        Map<Integer, int[]> getSupportedDevices() {
+            return FtdiSerialDriver.getSupportedDevices();
         }
     },
 
     CDC_ACM_SERIAL {
         @Override
-        public UsbSerialDriver getDevice(UsbDevice usbDevice) {
-            if (testIfSupported(usbDevice)) {
-               return new CdcAcmSerialDriver(usbDevice);
-            } else {
-                return null;
-            }
+        public UsbSerialDriver createDriver(final UsbDevice usbDevice) {
+            return new CdcAcmSerialDriver(usbDevice);
         }
 
         @Override
-        public boolean testIfSupported(final UsbDevice usbDevice) {
-            return testIfInSupportedDevicesMap(usbDevice, CdcAcmSerialDriver.getSupportedDevices());
+        Map<Integer, int[]> getSupportedDevices() {
+            return CdcAcmSerialDriver.getSupportedDevices();
         }
     },
 
     SILAB_SERIAL {
         @Override
-        public UsbSerialDriver getDevice(final UsbDevice usbDevice) {
-            if (testIfSupported(usbDevice)) {
-                return new Cp21xxSerialDriver(usbDevice);
-            } else {
-                return null;
-            }
+        public UsbSerialDriver createDriver(final UsbDevice usbDevice) {
+            return new Cp21xxSerialDriver(usbDevice);
         }
 
         @Override
-        public boolean testIfSupported(final UsbDevice usbDevice) {
-            return testIfInSupportedDevicesMap(usbDevice, Cp21xxSerialDriver.getSupportedDevices());
+        Map<Integer, int[]> getSupportedDevices() {
+            return Cp21xxSerialDriver.getSupportedDevices();
         }
     },
 
     PROLIFIC_SERIAL {
         @Override
-        public UsbSerialDriver getDevice(final UsbDevice usbDevice) {
-            if (testIfSupported(usbDevice)) {
-                return new ProlificSerialDriver(usbDevice);
-            } else {
-                return null;
-            }
+        public UsbSerialDriver createDriver(final UsbDevice usbDevice) {
+            return new ProlificSerialDriver(usbDevice);
         }
 
         @Override
-        public boolean testIfSupported(final UsbDevice usbDevice) {
-            return testIfInSupportedDevicesMap(usbDevice, ProlificSerialDriver.getSupportedDevices());
+        Map<Integer, int[]> getSupportedDevices() {
+            return ProlificSerialDriver.getSupportedDevices();
         }
     };
 
@@ -125,7 +108,20 @@ public enum UsbSerialProber {
      * @return the first available {@link UsbSerialDriver}, or {@code null} if
      *         no device could be acquired
      */
-    public abstract UsbSerialDriver getDevice(final UsbDevice usbDevice);
+    public UsbSerialDriver getDevice(final UsbDevice usbDevice) {
+        return testIfSupported(usbDevice) ? createDriver(usbDevice) : null;
+    }
+
+    /**
+     * Builds a new {@link UsbSerialDriver} instance for the device, without
+     * checking whether the device is one of the supported products. Allows
+     * the probers to be used in a {@link ProbeTable}.
+     *
+     * @param usbDevice the raw {@link UsbDevice} to use
+     * @return the new {@link UsbSerialDriver}
+     */
+    @Override
+    public abstract UsbSerialDriver createDriver(final UsbDevice usbDevice);
 
     /**
      * Check if a USB device is supported.
@@ -133,7 +129,43 @@ public enum UsbSerialProber {
      * @param usbDevice the raw {@link UsbDevice} to use
      * @return {@code true} if the device supported
      */
-    public abstract boolean testIfSupported(final UsbDevice usbDevice);
+    public boolean testIfSupported(final UsbDevice usbDevice) {
+        return BUILTIN_PROBE_TABLE.findFactory(usbDevice) == this;
+    }
+
+    /**
+     * Returns the devices supported by this prober's driver, as a map of
+     * vendor IDs to product IDs. Only used to build the probe tables.
+     */
+    abstract Map<Integer, int[]> getSupportedDevices();
+
+    // The products supported by the probers, never modified
+    private static final ProbeTable BUILTIN_PROBE_TABLE = new ProbeTable();
+
+    // Initially the same as BUILTIN_PROBE_TABLE, may be extended by clients
+    private static final ProbeTable DEFAULT_PROBE_TABLE = new ProbeTable();
+
+    static {
+        // Later entries replace earlier ones, add them in reverse so that
+        // the first prober supporting a product wins.
+        final UsbSerialProber[] probers = values();
+        for (int i = probers.length - 1; i >= 0; --i) {
+            final Map<Integer, int[]> supportedDevices = probers[i].getSupportedDevices();
+            BUILTIN_PROBE_TABLE.addProducts(supportedDevices, probers[i]);
+            DEFAULT_PROBE_TABLE.addProducts(supportedDevices, probers[i]);
+        }
+    }
+
+    /**
+     * Returns the {@link ProbeTable} used by the static methods of this class.
+     * It initially contains all products supported by the built-in drivers;
+     * clients may add further products and interface classes to it.
+     *
+     * @return the default probe table
+     */
+    public static ProbeTable getDefaultProbeTable() {
+        return DEFAULT_PROBE_TABLE;
+    }
 
     /**
      * Creates and returns a new {@link UsbSerialDriver} instance for the first
@@ -171,13 +203,7 @@ public enum UsbSerialProber {
      * @return a list containing zero or more {@link UsbSerialDriver} instances.
      */
     public static UsbSerialDriver probeSingleDevice(final UsbDevice usbDevice) {
-        for (final UsbSerialProber prober : values()) {
-            final UsbSerialDriver probedDevice = prober.getDevice(usbDevice);
-            if (probedDevice != null) {
-                return probedDevice;
-            }
-        }
-        return null;
+        return DEFAULT_PROBE_TABLE.probeDevice(usbDevice);
     }
 
     /**
@@ -187,13 +213,7 @@ public enum UsbSerialProber {
      * @return {@code true} if the device supported
      */
     public static boolean isDeviceSupported(final UsbDevice usbDevice) {
-        for (final UsbSerialProber prober : values()) {
-            final boolean supported = prober.testIfSupported(usbDevice);
-            if (supported) {
-                return true;
-            }
-        }
-        return false;
+        return DEFAULT_PROBE_TABLE.findFactory(usbDevice) != null;
     }
 
     /**
@@ -205,41 +225,7 @@ public enum UsbSerialProber {
      * @return a list containing zero or more {@link UsbSerialDriver} instances.
      */
     public static List<UsbSerialDriver> findAllDevices(final UsbManager usbManager) {
-        final List<UsbSerialDriver> result = new ArrayList<UsbSerialDriver>();
-
-        // For each UsbDevice, call probe() for each prober.
-        for (final UsbDevice usbDevice : usbManager.getDeviceList().values()) {
-            final UsbSerialDriver usbSerialDriver = probeSingleDevice(usbDevice);
-            if (usbSerialDriver != null) {
-                result.add(usbSerialDriver);
-            }
-        }
-        return result;
-    }
-
-    /**
-     * Returns {@code true} if the given device is found in the driver's
-     * vendor/product map.
-     *
-     * @param usbDevice the device to test
-     * @param supportedDevices map of vendor IDs to product ID(s)
-     * @return {@code true} if supported
-     */
-    private static boolean testIfInSupportedDevicesMap(final UsbDevice usbDevice,
-            final Map<Integer, int[]> supportedDevices) {
-        final int[] supportedProducts = supportedDevices.get(
-                Integer.valueOf(usbDevice.getVendorId()));
-        if (supportedProducts == null) {
-            return false;
-        }
-
-        final int productId = usbDevice.getProductId();
-        for (int supportedProductId : supportedProducts) {
-            if (productId == supportedProductId) {
-                return true;
-            }
-        }
-        return false;
+        return DEFAULT_PROBE_TABLE.findAllDevices(usbManager);
     }
 
 }
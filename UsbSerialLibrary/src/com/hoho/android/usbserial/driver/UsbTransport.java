@@ -0,0 +1,88 @@
+/* This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package com.hoho.android.usbserial.driver;
+
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbInterface;
+import android.hardware.usb.UsbManager;
+
+import java.io.IOException;
+import java.security.AccessControlException;
+
+/**
+ * The synchronous USB operations used by the drivers. Normally implemented by
+ * {@link DeviceConnectionTransport}, which passes them on to a
+ * {@link UsbDeviceConnection}; other implementations allow the drivers to run
+ * against simulated devices.
+ *
+ * <p/>
+ * The methods have the semantics of the {@link UsbDeviceConnection} methods
+ * of the same name.
+ */
+public interface UsbTransport {
+
+    /**
+     * Opens the transport of a driver, see
+     * {@link CommonUsbSerialDriver#setTransportFactory(Factory)}.
+     */
+    public interface Factory {
+        /**
+         * Opens the transport to a device.
+         *
+         * @param usbManager the {@link UsbManager} passed to
+         *            {@link UsbSerialPort#open(UsbManager)}
+         * @param device the device to open
+         * @return the open transport
+         * @throws IOException if the device could not be opened
+         * @throws AccessControlException if there is no permission to access
+         *             the device
+         */
+        public UsbTransport openTransport(UsbManager usbManager, UsbDevice device)
+                throws IOException, AccessControlException;
+    }
+
+    public int bulkTransfer(UsbEndpoint endpoint, byte[] buffer, int length, int timeout);
+
+    public int controlTransfer(int requestType, int request, int value, int index,
+            byte[] buffer, int length, int timeout);
+
+    public boolean claimInterface(UsbInterface intf, boolean force);
+
+    public boolean releaseInterface(UsbInterface intf);
+
+    /**
+     * Returns the raw USB descriptors of the device.
+     *
+     * @return the descriptors, or {@code null} if they are not available
+     */
+    public byte[] getRawDescriptors();
+
+    /**
+     * Returns the connection used by this transport, which is needed for
+     * asynchronous transfers with {@link android.hardware.usb.UsbRequest}.
+     *
+     * @return the connection, or {@code null} if there is none
+     */
+    public UsbDeviceConnection getConnection();
+
+    public void close();
+
+}
@@ -0,0 +1,94 @@
+/* This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package com.hoho.android.usbserial.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Pool of equally sized heap {@link ByteBuffer}s, so that received data can
+ * be handed around without allocating a new buffer for every transfer.
+ *
+ * <p/>
+ * Buffers are allocated on demand when the pool is empty. At most
+ * {@code maxPooled} released buffers are retained, any further ones are
+ * left to the garbage collector.
+ */
+public final class ByteBufferPool {
+
+    private final int mBufferSize;
+
+    // Synchronized by 'this'
+    private final ByteBuffer[] mBuffers;
+    private int mCount = 0;
+
+    /**
+     * Creates a new, empty pool.
+     *
+     * @param bufferSize the capacity of each buffer
+     * @param maxPooled the maximum number of idle buffers to retain
+     */
+    public ByteBufferPool(int bufferSize, int maxPooled) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Invalid buffer size: " + bufferSize);
+        }
+        mBufferSize = bufferSize;
+        mBuffers = new ByteBuffer[maxPooled];
+    }
+
+    public int getBufferSize() {
+        return mBufferSize;
+    }
+
+    /**
+     * Takes a cleared buffer from the pool, or allocates a new one if the
+     * pool is empty.
+     *
+     * @return a buffer with a capacity of {@link #getBufferSize()} bytes,
+     *         backed by an accessible array
+     */
+    public ByteBuffer acquire() {
+        synchronized (this) {
+            if (mCount > 0) {
+                final ByteBuffer buffer = mBuffers[--mCount];
+                mBuffers[mCount] = null;
+                buffer.clear();
+                return buffer;
+            }
+        }
+        return ByteBuffer.allocate(mBufferSize);
+    }
+
+    /**
+     * Returns a buffer obtained from {@link #acquire()} to the pool. The
+     * caller must not access the buffer afterwards.
+     *
+     * @param buffer the buffer to return
+     */
+    public void release(ByteBuffer buffer) {
+        if ((buffer.capacity() != mBufferSize) || !buffer.hasArray()) {
+            throw new IllegalArgumentException("Buffer does not belong to this pool");
+        }
+        synchronized (this) {
+            if (mCount < mBuffers.length) {
+                mBuffers[mCount++] = buffer;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,157 @@
+/* This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package com.hoho.android.usbserial.util;
+
+/**
+ * Bounded FIFO of bytes, backed by a circular array which grows on demand
+ * up to a maximum capacity.
+ *
+ * <p/>
+ * Not thread safe; callers synchronize on the instance.
+ */
+final class ByteRingBuffer {
+
+    private int mMaxCapacity;
+    private byte[] mBuffer;
+
+    /** Index of the oldest byte. */
+    private int mHead = 0;
+
+    /** Number of bytes stored. */
+    private int mSize = 0;
+
+    ByteRingBuffer(int initialCapacity, int maxCapacity) {
+        if ((initialCapacity <= 0) || (maxCapacity < initialCapacity)) {
+            throw new IllegalArgumentException("Invalid capacity: initial="
+                    + initialCapacity + ", max=" + maxCapacity);
+        }
+        mBuffer = new byte[initialCapacity];
+        mMaxCapacity = maxCapacity;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    int getMaxCapacity() {
+        return mMaxCapacity;
+    }
+
+    /**
+     * Returns the number of bytes which can be added before the maximum
+     * capacity is reached.
+     */
+    int free() {
+        return mMaxCapacity - mSize;
+    }
+
+    /**
+     * Changes the maximum capacity.
+     *
+     * @throws IllegalStateException if more than {@code maxCapacity} bytes
+     *             are currently stored
+     */
+    void setMaxCapacity(int maxCapacity) {
+        if (maxCapacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity: " + maxCapacity);
+        }
+        if (maxCapacity < mSize) {
+            throw new IllegalStateException("Buffer holds more than " + maxCapacity + " bytes");
+        }
+        if (maxCapacity < mBuffer.length) {
+            resize(maxCapacity);
+        }
+        mMaxCapacity = maxCapacity;
+    }
+
+    /**
+     * Appends as many bytes from {@code src} as fit.
+     *
+     * @return the number of bytes appended
+     */
+    int put(byte[] src, int offset, int length) {
+        final int count = Math.min(length, free());
+        if (count <= 0) {
+            return 0;
+        }
+        if (mSize + count > mBuffer.length) {
+            resize(Math.min(Math.max(mBuffer.length * 2, mSize + count), mMaxCapacity));
+        }
+
+        final int tail = (mHead + mSize) % mBuffer.length;
+        final int first = Math.min(count, mBuffer.length - tail);
+        System.arraycopy(src, offset, mBuffer, tail, first);
+        System.arraycopy(src, offset + first, mBuffer, 0, count - first);
+        mSize += count;
+        return count;
+    }
+
+    /**
+     * Removes up to {@code length} of the oldest bytes and copies them to
+     * {@code dest}.
+     *
+     * @return the number of bytes removed
+     */
+    int take(byte[] dest, int offset, int length) {
+        final int count = Math.min(length, mSize);
+        if (count <= 0) {
+            return 0;
+        }
+
+        final int first = Math.min(count, mBuffer.length - mHead);
+        System.arraycopy(mBuffer, mHead, dest, offset, first);
+        System.arraycopy(mBuffer, 0, dest, offset + first, count - first);
+        discard(count);
+        return count;
+    }
+
+    /**
+     * Removes up to {@code length} of the oldest bytes.
+     *
+     * @return the number of bytes removed
+     */
+    int discard(int length) {
+        final int count = Math.min(length, mSize);
+        if (count <= 0) {
+            return 0;
+        }
+        mSize -= count;
+        mHead = (mSize == 0) ? 0 : (mHead + count) % mBuffer.length;
+        return count;
+    }
+
+    void clear() {
+        mHead = 0;
+        mSize = 0;
+    }
+
+    private void resize(int capacity) {
+        final byte[] buffer = new byte[capacity];
+        final int first = Math.min(mSize, mBuffer.length - mHead);
+        System.arraycopy(mBuffer, mHead, buffer, 0, first);
+        System.arraycopy(mBuffer, 0, buffer, first, mSize - first);
+        mBuffer = buffer;
+        mHead = 0;
+    }
+
+}
@@ -0,0 +1,275 @@
+/* This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package com.hoho.android.usbserial.util;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbManager;
+import android.util.Log;
+
+import com.hoho.android.usbserial.driver.ProbeTable;
+import com.hoho.android.usbserial.driver.UsbSerialDriver;
+import com.hoho.android.usbserial.driver.UsbSerialProber;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Keeps one {@link UsbSerialDriver} for each supported device which is
+ * attached, and tells its {@link Listener}s when devices come and go.
+ *
+ * <p/>
+ * The bus is scanned once by {@link #start()}. Afterwards the registry is
+ * updated from the {@link UsbManager#ACTION_USB_DEVICE_ATTACHED} and
+ * {@link UsbManager#ACTION_USB_DEVICE_DETACHED} broadcasts, so that only the
+ * devices which changed are probed. The same driver instance is returned for
+ * a device for as long as it stays attached, so ports which have been
+ * opened through it remain usable.
+ */
+public class DeviceRegistry {
+
+    private static final String TAG = DeviceRegistry.class.getSimpleName();
+
+    /**
+     * Notified when a supported device is attached or detached. Called on
+     * the thread which reported the change, which is the main thread for
+     * broadcasts.
+     */
+    public interface Listener {
+        /**
+         * Called when a supported device has been attached.
+         *
+         * @param driver the new driver for the device
+         */
+        public void onDeviceAdded(UsbSerialDriver driver);
+
+        /**
+         * Called when a device has been detached. Its ports can no longer
+         * be used, and should be closed.
+         *
+         * @param driver the driver of the detached device
+         */
+        public void onDeviceRemoved(UsbSerialDriver driver);
+    }
+
+    private final Context mContext;
+    private final UsbManager mUsbManager;
+    private final ProbeTable mProbeTable;
+
+    private final List<Listener> mListeners = new CopyOnWriteArrayList<Listener>();
+
+    // Synchronized by 'this', drivers by UsbDevice#getDeviceName()
+    private final Map<String, UsbSerialDriver> mDrivers =
+            new LinkedHashMap<String, UsbSerialDriver>();
+
+    // Synchronized by 'this'
+    private boolean mStarted = false;
+
+    private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            final UsbDevice device = (UsbDevice) intent.getParcelableExtra(UsbManager.EXTRA_DEVICE);
+            if (device == null) {
+                return;
+            }
+            if (UsbManager.ACTION_USB_DEVICE_ATTACHED.equals(intent.getAction())) {
+                deviceAttached(device);
+            } else if (UsbManager.ACTION_USB_DEVICE_DETACHED.equals(intent.getAction())) {
+                deviceDetached(device);
+            }
+        }
+    };
+
+    /**
+     * Creates a registry which uses the
+     * {@link UsbSerialProber#getDefaultProbeTable() default probe table}.
+     *
+     * @param context the context to register the broadcast receiver with
+     */
+    public DeviceRegistry(Context context) {
+        this(context, UsbSerialProber.getDefaultProbeTable());
+    }
+
+    /**
+     * Creates a registry.
+     *
+     * @param context the context to register the broadcast receiver with
+     * @param probeTable the table used to find the driver of a device
+     */
+    public DeviceRegistry(Context context, ProbeTable probeTable) {
+        mContext = context.getApplicationContext();
+        mUsbManager = (UsbManager) mContext.getSystemService(Context.USB_SERVICE);
+        mProbeTable = probeTable;
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Starts listening for attached and detached devices, and adds the
+     * devices which are already attached.
+     */
+    public void start() {
+        synchronized (this) {
+            if (mStarted) {
+                return;
+            }
+            mStarted = true;
+        }
+        final IntentFilter filter = new IntentFilter();
+        filter.addAction(UsbManager.ACTION_USB_DEVICE_ATTACHED);
+        filter.addAction(UsbManager.ACTION_USB_DEVICE_DETACHED);
+        mContext.registerReceiver(mReceiver, filter);
+        refresh();
+    }
+
+    /**
+     * Stops listening for changes. The known drivers are kept, and brought
+     * up to date by the next {@link #start()}.
+     */
+    public void stop() {
+        synchronized (this) {
+            if (!mStarted) {
+                return;
+            }
+            mStarted = false;
+        }
+        mContext.unregisterReceiver(mReceiver);
+    }
+
+    /**
+     * Returns the drivers of all known devices, in the order in which they
+     * were attached.
+     *
+     * @return a new list of drivers
+     */
+    public synchronized List<UsbSerialDriver> getDrivers() {
+        return new ArrayList<UsbSerialDriver>(mDrivers.values());
+    }
+
+    /**
+     * Returns the driver of the given device.
+     *
+     * @param device the device
+     * @return the driver, or {@code null} if the device is not supported or
+     *         not known
+     */
+    public synchronized UsbSerialDriver getDriver(UsbDevice device) {
+        return mDrivers.get(device.getDeviceName());
+    }
+
+    /**
+     * Adds a device, unless it is already known. Called for
+     * {@link UsbManager#ACTION_USB_DEVICE_ATTACHED} broadcasts; may also be
+     * called by activities which receive that action as an intent.
+     *
+     * @param device the attached device
+     * @return the driver of the device, or {@code null} if it is not supported
+     */
+    public UsbSerialDriver deviceAttached(UsbDevice device) {
+        final String name = device.getDeviceName();
+        synchronized (this) {
+            final UsbSerialDriver known = mDrivers.get(name);
+            if (known != null) {
+                return known;
+            }
+        }
+
+        final UsbSerialDriver driver = mProbeTable.probeDevice(device);
+        if (driver == null) {
+            return null;
+        }
+        synchronized (this) {
+            final UsbSerialDriver known = mDrivers.get(name);
+            if (known != null) {
+                return known;
+            }
+            mDrivers.put(name, driver);
+        }
+        Log.d(TAG, "Added " + name + ": " + driver.getShortDeviceName());
+        for (final Listener listener : mListeners) {
+            listener.onDeviceAdded(driver);
+        }
+        return driver;
+    }
+
+    /**
+     * Removes a device. Called for {@link UsbManager#ACTION_USB_DEVICE_DETACHED}
+     * broadcasts.
+     *
+     * @param device the detached device
+     */
+    public void deviceDetached(UsbDevice device) {
+        final UsbSerialDriver driver;
+        synchronized (this) {
+            driver = mDrivers.remove(device.getDeviceName());
+        }
+        if (driver != null) {
+            notifyRemoved(driver);
+        }
+    }
+
+    /**
+     * Compares the known devices with the devices on the bus, and adds or
+     * removes the differences. Only newly found devices are probed. Changes
+     * which happen while the registry is started are picked up without this.
+     */
+    public void refresh() {
+        final Map<String, UsbDevice> attached = mUsbManager.getDeviceList();
+
+        final List<UsbSerialDriver> removed = new ArrayList<UsbSerialDriver>();
+        synchronized (this) {
+            for (final Iterator<Map.Entry<String, UsbSerialDriver>> it =
+                    mDrivers.entrySet().iterator(); it.hasNext();) {
+                final Map.Entry<String, UsbSerialDriver> entry = it.next();
+                if (!attached.containsKey(entry.getKey())) {
+                    removed.add(entry.getValue());
+                    it.remove();
+                }
+            }
+        }
+        for (final UsbSerialDriver driver : removed) {
+            notifyRemoved(driver);
+        }
+
+        for (final UsbDevice device : attached.values()) {
+            deviceAttached(device);
+        }
+    }
+
+    private void notifyRemoved(UsbSerialDriver driver) {
+        Log.d(TAG, "Removed " + driver.getDevice().getDeviceName());
+        for (final Listener listener : mListeners) {
+            listener.onDeviceRemoved(driver);
+        }
+    }
+
+}
@@ -0,0 +1,211 @@
+/* This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package com.hoho.android.usbserial.util;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * I/O statistics of the port serviced by a {@link SerialInputOutputManager},
+ * see {@link SerialInputOutputManager#getMetrics()}.
+ *
+ * <p/>
+ * The counters are updated without locking, and keep counting across runs
+ * of the manager until {@link #reset()} is called.
+ */
+public final class IoMetrics {
+
+    private final AtomicLong mBytesIn = new AtomicLong();
+    private final AtomicLong mBytesOut = new AtomicLong();
+    private final AtomicLong mReadTransfers = new AtomicLong();
+    private final AtomicLong mWriteTransfers = new AtomicLong();
+    private final AtomicLong mEmptyReads = new AtomicLong();
+    private final AtomicLong mPartialWrites = new AtomicLong();
+    private final AtomicLong mWriteQueueHighWaterMark = new AtomicLong();
+    private final LatencyHistogram mListenerTime = new LatencyHistogram();
+    private final LatencyHistogram mReadToCallbackLatency = new LatencyHistogram();
+
+    /**
+     * Counters of an {@link IoMetrics} at one point in time. Each counter is
+     * read atomically, but not all of them at the same instant.
+     */
+    public static final class Snapshot {
+        private final long mBytesIn;
+        private final long mBytesOut;
+        private final long mReadTransfers;
+        private final long mWriteTransfers;
+        private final long mEmptyReads;
+        private final long mPartialWrites;
+        private final long mWriteQueueHighWaterMark;
+        private final LatencyHistogram mListenerTime;
+        private final LatencyHistogram mReadToCallbackLatency;
+
+        Snapshot(IoMetrics metrics) {
+            mBytesIn = metrics.mBytesIn.get();
+            mBytesOut = metrics.mBytesOut.get();
+            mReadTransfers = metrics.mReadTransfers.get();
+            mWriteTransfers = metrics.mWriteTransfers.get();
+            mEmptyReads = metrics.mEmptyReads.get();
+            mPartialWrites = metrics.mPartialWrites.get();
+            mWriteQueueHighWaterMark = metrics.mWriteQueueHighWaterMark.get();
+            mListenerTime = metrics.mListenerTime.copy();
+            mReadToCallbackLatency = metrics.mReadToCallbackLatency.copy();
+        }
+
+        /**
+         * Returns the number of bytes received from the port, before XON and
+         * XOFF are removed.
+         */
+        public long getBytesIn() {
+            return mBytesIn;
+        }
+
+        /**
+         * Returns the number of bytes accepted by the port.
+         */
+        public long getBytesOut() {
+            return mBytesOut;
+        }
+
+        /**
+         * Returns the number of completed reads, including empty ones.
+         */
+        public long getReadTransfers() {
+            return mReadTransfers;
+        }
+
+        /**
+         * Returns the number of completed writes, including partial ones.
+         */
+        public long getWriteTransfers() {
+            return mWriteTransfers;
+        }
+
+        /**
+         * Returns the number of reads which timed out, or returned no data.
+         */
+        public long getEmptyReads() {
+            return mEmptyReads;
+        }
+
+        /**
+         * Returns the number of writes which sent only part of their data.
+         */
+        public long getPartialWrites() {
+            return mPartialWrites;
+        }
+
+        /**
+         * Returns the largest number of bytes which have been waiting in the
+         * write buffer.
+         */
+        public long getWriteQueueHighWaterMark() {
+            return mWriteQueueHighWaterMark;
+        }
+
+        /**
+         * Returns the time spent in the listener's {@code onNewData()}, in
+         * nanoseconds per call.
+         */
+        public LatencyHistogram getListenerTime() {
+            return mListenerTime;
+        }
+
+        /**
+         * Returns the time from the completion of a read to the call of the
+         * listener which receives its data, in nanoseconds.
+         */
+        public LatencyHistogram getReadToCallbackLatency() {
+            return mReadToCallbackLatency;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "in: %d bytes, %d reads (%d empty); "
+                    + "out: %d bytes, %d writes (%d partial), write queue max %d bytes; "
+                    + "listener p50/p99 %d/%d ns; read to callback p50/p99 %d/%d ns",
+                    mBytesIn, mReadTransfers, mEmptyReads,
+                    mBytesOut, mWriteTransfers, mPartialWrites, mWriteQueueHighWaterMark,
+                    mListenerTime.getValueAtPercentile(50),
+                    mListenerTime.getValueAtPercentile(99),
+                    mReadToCallbackLatency.getValueAtPercentile(50),
+                    mReadToCallbackLatency.getValueAtPercentile(99));
+        }
+    }
+
+    IoMetrics() {
+    }
+
+    /**
+     * Returns the current values of all counters.
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Sets all counters to 0. Updates made concurrently may be lost.
+     */
+    public void reset() {
+        mBytesIn.set(0);
+        mBytesOut.set(0);
+        mReadTransfers.set(0);
+        mWriteTransfers.set(0);
+        mEmptyReads.set(0);
+        mPartialWrites.set(0);
+        mWriteQueueHighWaterMark.set(0);
+        mListenerTime.reset();
+        mReadToCallbackLatency.reset();
+    }
+
+    void onRead(int length) {
+        mReadTransfers.incrementAndGet();
+        if (length > 0) {
+            mBytesIn.addAndGet(length);
+        } else {
+            mEmptyReads.incrementAndGet();
+        }
+    }
+
+    void onWrite(int requested, int written) {
+        mWriteTransfers.incrementAndGet();
+        if (written > 0) {
+            mBytesOut.addAndGet(written);
+        }
+        if ((written > 0) && (written < requested)) {
+            mPartialWrites.incrementAndGet();
+        }
+    }
+
+    void onWriteQueued(int queuedBytes) {
+        long highWaterMark;
+        do {
+            highWaterMark = mWriteQueueHighWaterMark.get();
+            if (queuedBytes <= highWaterMark) {
+                return;
+            }
+        } while (!mWriteQueueHighWaterMark.compareAndSet(highWaterMark, queuedBytes));
+    }
+
+    void onCallback(long readNanos, long startNanos, long endNanos) {
+        mReadToCallbackLatency.record(startNanos - readNanos);
+        mListenerTime.record(endNanos - startNanos);
+    }
+
+}
@@ -0,0 +1,155 @@
+/* This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package com.hoho.android.usbserial.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations in nanoseconds, with a fixed memory footprint and a
+ * relative precision of about 3%.
+ *
+ * <p/>
+ * Values below 64 have a bucket each. Above, every power of two is divided
+ * into 32 buckets, and values are reported as the lower bound of their
+ * bucket.
+ *
+ * <p/>
+ * {@link #record(long)} neither locks nor allocates, and may be called from
+ * any number of threads. Readers running concurrently see each bucket up to
+ * date, but not necessarily all buckets at the same point in time.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT =
+            (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+
+    /**
+     * Counts one occurrence of {@code nanos}. Negative values are counted as
+     * 0.
+     */
+    public void record(long nanos) {
+        mCounts.incrementAndGet(indexOf(Math.max(0, nanos)));
+    }
+
+    /**
+     * Adds the counts of {@code other} to this histogram.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            final long count = other.mCounts.get(i);
+            if (count != 0) {
+                mCounts.addAndGet(i, count);
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of the current counts.
+     */
+    public LatencyHistogram copy() {
+        final LatencyHistogram copy = new LatencyHistogram();
+        copy.add(this);
+        return copy;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            mCounts.set(i, 0);
+        }
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            count += mCounts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the smallest value which is greater than or equal to
+     * {@code percentile} percent of the recorded values, or 0 if nothing has
+     * been recorded.
+     *
+     * @param percentile the percentile, between 0 and 100
+     */
+    public long getValueAtPercentile(double percentile) {
+        final long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            seen += mCounts.get(i);
+            if (seen >= rank) {
+                return valueOf(i);
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Returns the largest recorded value, or 0 if nothing has been recorded.
+     */
+    public long getMax() {
+        for (int i = BUCKET_COUNT - 1; i >= 0; --i) {
+            if (mCounts.get(i) != 0) {
+                return valueOf(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the mean of the recorded values, or 0 if nothing has been
+     * recorded.
+     */
+    public double getMean() {
+        long count = 0;
+        double total = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            final long bucketCount = mCounts.get(i);
+            count += bucketCount;
+            total += (double) bucketCount * valueOf(i);
+        }
+        return (count == 0) ? 0 : total / count;
+    }
+
+    private static int indexOf(long value) {
+        if (value < 2 * SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_COUNT + (int) ((value >>> shift) - SUB_BUCKET_COUNT);
+    }
+
+    private static long valueOf(int index) {
+        if (index < 2 * SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKET_COUNT - 1;
+        return ((long) (index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT)) << shift;
+    }
+
+}
@@ -0,0 +1,415 @@
+/* This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package com.hoho.android.usbserial.util;
+
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbRequest;
+import android.util.Log;
+
+import com.hoho.android.usbserial.driver.CommonUsbSerialPort;
+import com.hoho.android.usbserial.driver.UsbSerialDriver;
+import com.hoho.android.usbserial.driver.UsbSerialPort;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Services several ports of one device in its {@link #run()} method, so that
+ * a multi port adapter such as the FT4232H needs a single thread instead of
+ * one {@link SerialInputOutputManager} thread per port.
+ *
+ * <p/>
+ * Each port has several {@link UsbRequest}s queued on its read endpoint and
+ * one on its write endpoint, and the thread executing {@link #run()} waits
+ * for any of them to complete with {@link UsbDeviceConnection#requestWait()}.
+ * Since that only waits on one connection, all ports must belong to the same
+ * device. {@code requestWait()} hands each completed request to only one
+ * waiting thread, so the connection must be serviced by this manager alone:
+ * no other code, including another manager, may call {@code requestWait()}
+ * on it while the manager is running, or the two take each other's
+ * completions. Completed requests which are not this manager's own are
+ * logged and ignored.
+ *
+ * <p/>
+ * Usage:
+ *
+ * <pre>
+ * MultiPortInputOutputManager manager = new MultiPortInputOutputManager();
+ * manager.addDriver(driver, listener); // after opening the ports
+ * Executors.newSingleThreadExecutor().submit(manager);
+ * manager.writeAsync(driver.getPort(2), data);
+ * </pre>
+ */
+public class MultiPortInputOutputManager implements Runnable {
+
+    private static final String TAG = MultiPortInputOutputManager.class.getSimpleName();
+    private static final boolean DEBUG = false;
+
+    private static final int BUFSIZ = 4096;
+    private static final int DEFAULT_READ_QUEUE_DEPTH = 4;
+    private static final int DEFAULT_WRITE_BUFFER_CAPACITY = 64 * 1024;
+
+    private enum State {
+        STOPPED,
+        RUNNING,
+        STOPPING
+    }
+
+    public interface Listener {
+        /**
+         * Called when new incoming data is available on a port.
+         *
+         * @param port the port which received the data
+         * @param data the received data
+         */
+        public void onNewData(UsbSerialPort port, byte[] data);
+
+        /**
+         * Called when {@link MultiPortInputOutputManager#run()} aborts due to
+         * an error. Called once for each distinct listener.
+         */
+        public void onRunError(Exception e);
+    }
+
+    /**
+     * The requests and the write buffer of one port.
+     */
+    private static final class PortState {
+        final CommonUsbSerialPort port;
+        final Listener listener;
+
+        // Synchronized by itself
+        final ByteRingBuffer writeBuffer =
+                new ByteRingBuffer(BUFSIZ, DEFAULT_WRITE_BUFFER_CAPACITY);
+
+        // Set and cleared by the thread executing run() while holding the
+        // manager, which cancels the read requests in stop()
+        UsbRequestQueue requests;
+
+        // Synchronized by 'writeBuffer', only set while running
+        UsbRequestQueue writeRequests;
+
+        // Only used by the thread executing run()
+        UsbRequestQueue.ReadHandler readHandler;
+
+        PortState(CommonUsbSerialPort port, Listener listener) {
+            this.port = port;
+            this.listener = listener;
+        }
+    }
+
+    // Synchronized by 'this'
+    private State mState = State.STOPPED;
+
+    // Synchronized by 'this'. Replaced as a whole when a port is added, so
+    // that writeAsync() and run() can use a snapshot.
+    private PortState[] mPorts = new PortState[0];
+
+    // Synchronized by 'this'
+    private int mReadQueueDepth = DEFAULT_READ_QUEUE_DEPTH;
+
+    /**
+     * Adds a port. May only be called while the manager is not running.
+     *
+     * @param port the port, which must be a {@link CommonUsbSerialPort}
+     * @param listener the listener receiving the port's data, may be
+     *            {@code null}
+     */
+    public synchronized void addPort(UsbSerialPort port, Listener listener) {
+        if (!(port instanceof CommonUsbSerialPort)) {
+            throw new IllegalArgumentException("Asynchronous I/O not supported by "
+                    + port.getClass().getSimpleName());
+        }
+        if (mState != State.STOPPED) {
+            throw new IllegalStateException("Ports cannot be added while running");
+        }
+        for (final PortState state : mPorts) {
+            if (state.port == port) {
+                throw new IllegalArgumentException("Port already added");
+            }
+        }
+        final PortState[] ports = new PortState[mPorts.length + 1];
+        System.arraycopy(mPorts, 0, ports, 0, mPorts.length);
+        ports[mPorts.length] = new PortState((CommonUsbSerialPort) port, listener);
+        mPorts = ports;
+    }
+
+    /**
+     * Adds all open ports of a driver.
+     *
+     * @param driver the driver
+     * @param listener the listener receiving the data of all ports, may be
+     *            {@code null}
+     */
+    public void addDriver(UsbSerialDriver driver, Listener listener) {
+        for (int i = 0; i < driver.getPortCount(); ++i) {
+            final UsbSerialPort port = driver.getPort(i);
+            if (port.isOpen()) {
+                addPort(port, listener);
+            }
+        }
+    }
+
+    /**
+     * Sets the number of {@link UsbRequest}s which are kept queued on the
+     * read endpoint of each port. May only be changed while the manager is
+     * not running.
+     *
+     * @param readQueueDepth the number of read requests, at least 1
+     */
+    public synchronized void setReadQueueDepth(int readQueueDepth) {
+        if (readQueueDepth < 1) {
+            throw new IllegalArgumentException("Invalid read queue depth: " + readQueueDepth);
+        }
+        if (mState != State.STOPPED) {
+            throw new IllegalStateException("Read queue depth cannot be changed while running");
+        }
+        mReadQueueDepth = readQueueDepth;
+    }
+
+    public synchronized int getReadQueueDepth() {
+        return mReadQueueDepth;
+    }
+
+    /**
+     * Adds data to the write buffer of a port, to be written by
+     * {@link #run()}.
+     *
+     * @param port a port passed to {@link #addPort(UsbSerialPort, Listener)}
+     * @param data the data to write
+     * @throws BufferOverflowException if the data does not fit into the
+     *             port's write buffer
+     */
+    public void writeAsync(UsbSerialPort port, byte[] data) {
+        final PortState state = getPortState(port);
+        synchronized (state.writeBuffer) {
+            if (data.length > state.writeBuffer.free()) {
+                throw new BufferOverflowException();
+            }
+            state.writeBuffer.put(data, 0, data.length);
+            if (!queueWriteLocked(state)) {
+                Log.w(TAG, "Could not queue write request, retrying on next completion");
+            }
+        }
+    }
+
+    private synchronized PortState getPortState(UsbSerialPort port) {
+        for (final PortState state : mPorts) {
+            if (state.port == port) {
+                return state;
+            }
+        }
+        throw new IllegalArgumentException("Unknown port");
+    }
+
+    public void stop() {
+        synchronized (this) {
+            if (mState != State.RUNNING) {
+                return;
+            }
+            Log.i(TAG, "Stop requested");
+            mState = State.STOPPING;
+            // Wake up requestWait() in run().
+            for (final PortState state : mPorts) {
+                if (state.requests != null) {
+                    state.requests.cancelReads();
+                }
+            }
+        }
+    }
+
+    private synchronized State getState() {
+        return mState;
+    }
+
+    /**
+     * Services all ports until {@link #stop()} is called, or until an error
+     * occurs. Completed reads are handed to the listener of their port in the
+     * order they were queued, and immediately queued again.
+     */
+    @Override
+    public void run() {
+        final PortState[] ports;
+        final int readQueueDepth;
+        synchronized (this) {
+            if (mState != State.STOPPED) {
+                throw new IllegalStateException("Already running.");
+            }
+            mState = State.RUNNING;
+            ports = mPorts;
+            readQueueDepth = mReadQueueDepth;
+        }
+
+        Log.i(TAG, "Running " + ports.length + " ports ..");
+        final UsbRequestQueue[] queues = new UsbRequestQueue[ports.length];
+        UsbDeviceConnection connection = null;
+        try {
+            connection = getConnection(ports);
+            for (int i = 0; i < ports.length; ++i) {
+                queues[i] = createQueue(ports[i], readQueueDepth);
+            }
+            for (int i = 0; i < ports.length; ++i) {
+                startPort(ports[i], queues[i], connection);
+            }
+            while (getState() == State.RUNNING) {
+                final UsbRequest request = connection.requestWait();
+                if (request == null) {
+                    throw new IOException("Waiting for USB request failed");
+                }
+                final UsbRequestQueue queue = UsbRequestQueue.getQueue(request);
+                if (!UsbRequestQueue.contains(queues, queue)) {
+                    Log.w(TAG, "Ignoring foreign request " + request);
+                    continue;
+                }
+                final PortState state = (PortState) queue.getTag();
+                if (queue.isWriteRequest(request)) {
+                    onWriteComplete(state);
+                } else {
+                    queue.onReadComplete(request, state.readHandler);
+                }
+            }
+            Log.i(TAG, "Stopping mState=" + getState());
+        } catch (Exception e) {
+            Log.w(TAG, "Run ending due to exception: " + e.getMessage(), e);
+            final List<Listener> notified = new ArrayList<Listener>();
+            for (final PortState state : ports) {
+                if ((state.listener != null) && !notified.contains(state.listener)) {
+                    notified.add(state.listener);
+                    state.listener.onRunError(e);
+                }
+            }
+        } finally {
+            if (connection != null) {
+                stopPorts(ports);
+                UsbRequestQueue.cancelAll(connection, queues);
+            }
+            synchronized (this) {
+                mState = State.STOPPED;
+                Log.i(TAG, "Stopped.");
+            }
+        }
+    }
+
+    private static UsbDeviceConnection getConnection(PortState[] ports) throws IOException {
+        if (ports.length == 0) {
+            throw new IOException("No ports added");
+        }
+        final UsbDeviceConnection connection = ports[0].port.getConnection();
+        if (connection == null) {
+            throw new IOException("Port not open, or not using a UsbDeviceConnection");
+        }
+        for (final PortState state : ports) {
+            if (state.port.getConnection() != connection) {
+                throw new IOException("Ports do not belong to the same open device");
+            }
+        }
+        return connection;
+    }
+
+    private UsbRequestQueue createQueue(final PortState state, int readQueueDepth) {
+        state.readHandler = new UsbRequestQueue.ReadHandler() {
+            @Override
+            public boolean isRunning() {
+                return getState() == State.RUNNING;
+            }
+
+            @Override
+            public boolean onReadData(ByteBuffer buffer, int length, long completedNanos) {
+                if ((length > 0) && (state.listener != null)) {
+                    if (DEBUG) {
+                        Log.d(TAG, "Read data len=" + length);
+                    }
+                    final byte[] data = new byte[length];
+                    System.arraycopy(buffer.array(), 0, data, 0, length);
+                    state.listener.onNewData(state.port, data);
+                }
+                return false;
+            }
+        };
+
+        int readSize = state.port.getReadChunkSize();
+        if (readSize <= 0) {
+            readSize = BUFSIZ;
+        }
+        return new UsbRequestQueue(state.port, new ByteBufferPool(readSize, readQueueDepth),
+                readQueueDepth, state);
+    }
+
+    private void startPort(PortState state, UsbRequestQueue queue, UsbDeviceConnection connection)
+            throws IOException {
+        queue.start(connection);
+        synchronized (this) {
+            state.requests = queue;
+        }
+        synchronized (state.writeBuffer) {
+            state.writeRequests = queue;
+            if (!queueWriteLocked(state)) {
+                throw new IOException("Could not queue write request");
+            }
+        }
+    }
+
+    // Queues the write request of a port, unless it is already queued. Once
+    // the data of the previous request has been written completely, pending
+    // data is moved into the request first. Must hold 'state.writeBuffer'.
+    private static boolean queueWriteLocked(PortState state) {
+        final UsbRequestQueue queue = state.writeRequests;
+        if (queue == null) {
+            return true;
+        }
+        if (queue.isWriteIdle()) {
+            final int len = queue.takeWriteData(state.writeBuffer);
+            if (DEBUG && (len > 0)) {
+                Log.d(TAG, "Writing data len=" + len);
+            }
+        }
+        return queue.queueWrite();
+    }
+
+    private static void onWriteComplete(PortState state) throws IOException {
+        synchronized (state.writeBuffer) {
+            if (state.writeRequests.onWriteComplete(false) <= 0) {
+                throw new IOException("Could not write data to device");
+            }
+            if (!queueWriteLocked(state)) {
+                throw new IOException("Could not queue write request");
+            }
+        }
+    }
+
+    // Stops the write requests, and stops stop() from cancelling the read
+    // requests, which are released by UsbRequestQueue.cancelAll().
+    private void stopPorts(PortState[] ports) {
+        for (final PortState state : ports) {
+            synchronized (state.writeBuffer) {
+                if (state.writeRequests != null) {
+                    state.writeRequests.stopWriting();
+                    state.writeRequests = null;
+                }
+            }
+            synchronized (this) {
+                state.requests = null;
+            }
+        }
+    }
+
+}
@@ -20,14 +20,22 @@
 
 package com.hoho.android.usbserial.util;
 
+import android.hardware.usb.UsbDeviceConnection;
 import android.hardware.usb.UsbRequest;
 import android.util.Log;
 
+import com.hoho.android.usbserial.driver.CommonUsbSerialPort;
 import com.hoho.android.usbserial.driver.UsbSerialDriver;
 import com.hoho.android.usbserial.driver.UsbSerialPort;
+import com.hoho.android.usbserial.driver.UsbSerialRuntimeException;
 
 import java.io.IOException;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 
 /**
  * Utility class which services a {@link UsbSerialDriver} in its {@link #run()}
@@ -43,13 +51,43 @@ public class SerialInputOutputManager implements Runnable {
     private static final int READ_WAIT_MILLIS = 200;
     private static final int WRITE_STEP_TIMEOUT_MILLIS = 200;
     private static final int BUFSIZ = 4096;
+    private static final int DEFAULT_READ_QUEUE_DEPTH = 4;
+    private static final int READ_BUFFER_POOL_SIZE = 16;
+    private static final int DEFAULT_WRITE_BUFFER_CAPACITY = 64 * 1024;
+
+    private static final byte XON = 0x11;
+    private static final byte XOFF = 0x13;
 
     private final UsbSerialPort mPort;
 
-    private final ByteBuffer mReadBuffer = ByteBuffer.allocate(BUFSIZ);
+    // Replaced by run() when the port asks for a different read size, see
+    // CommonUsbSerialPort#getReadChunkSize().
+    private volatile ByteBufferPool mReadBufferPool =
+            new ByteBufferPool(BUFSIZ, READ_BUFFER_POOL_SIZE);
+
+    // Synchronized by 'mWriteBuffer'
+    private final ByteRingBuffer mWriteBuffer =
+            new ByteRingBuffer(BUFSIZ, DEFAULT_WRITE_BUFFER_CAPACITY);
 
     // Synchronized by 'mWriteBuffer'
-    private final ByteBuffer mWriteBuffer = ByteBuffer.allocate(BUFSIZ);
+    private WriteOverflowPolicy mWriteOverflowPolicy = WriteOverflowPolicy.FAIL;
+
+    // Only used by step(), holds the data taken from 'mWriteBuffer'
+    private final byte[] mWriteStepBuffer = new byte[BUFSIZ];
+
+    // Synchronized by 'mWriteBuffer'. Positions in the stream of all bytes
+    // ever passed to writeAsync(): everything before 'mWriteDonePosition'
+    // has been handed to USB or discarded.
+    private long mWriteEnqueuedPosition = 0;
+    private long mWriteDonePosition = 0;
+    private boolean mWriteInFlight = false;
+    private long mWriteInFlightEnd = 0;
+    private final ArrayDeque<PendingWrite> mPendingWrites = new ArrayDeque<PendingWrite>();
+
+    // Only used by the thread executing run()
+    private final List<PendingWrite> mCompletedWrites = new ArrayList<PendingWrite>();
+
+    private final IoMetrics mMetrics = new IoMetrics();
 
     private final Object mReadLock = new Object();
     private final Object mWriteLock = new Object();
@@ -57,20 +95,111 @@ public class SerialInputOutputManager implements Runnable {
     private boolean purgingWriteBuffers = false;
     private boolean purgingReadBuffers = false;
 
-    private boolean writing = false;
-
     private enum State {
         STOPPED,
         RUNNING,
         STOPPING
     }
 
+    /**
+     * Strategy used by {@link SerialInputOutputManager#run()} to receive data.
+     */
+    public enum ReadMode {
+        /**
+         * Polls the port with {@link UsbSerialPort#read(byte[], int)}, using a
+         * short timeout.
+         */
+        BLOCKING,
+
+        /**
+         * Keeps several {@link UsbRequest}s queued on the read endpoint at all
+         * times, so that the device can be serviced while previously received
+         * data is being handed to the listener. Outgoing data is sent with a
+         * {@link UsbRequest} as well. Requires a {@link CommonUsbSerialPort}.
+         *
+         * <p/>
+         * {@link UsbDeviceConnection#requestWait()} returns the requests of
+         * all endpoints of the device, so no other code may queue requests
+         * on the connection while the manager is running. This includes a
+         * second manager on another port of a multi port device; use
+         * {@link MultiPortInputOutputManager} for those. Requests of others
+         * are logged and ignored.
+         */
+        ASYNC
+    }
+
+    /**
+     * What {@link SerialInputOutputManager#writeAsync(byte[])} does when the
+     * write buffer cannot take all of the data.
+     */
+    public enum WriteOverflowPolicy {
+        /**
+         * Waits until the data has been taken from the buffer. If the calling
+         * thread is interrupted, or the manager stops while waiting, a
+         * {@link UsbSerialRuntimeException} is thrown and only part of the
+         * data may have been added.
+         *
+         * <p/>
+         * Behaves like {@link #FAIL} if nothing could take the data: while
+         * the manager is not running, and when called from the thread which
+         * writes the buffer, for example from a listener outside of full
+         * duplex mode.
+         */
+        BLOCK,
+
+        /**
+         * Throws a {@link BufferOverflowException}, without adding any data.
+         */
+        FAIL,
+
+        /**
+         * Discards the oldest buffered data to make room.
+         */
+        DROP_OLDEST
+    }
+
     // Synchronized by 'this'
     private State mState = State.STOPPED;
 
     // Synchronized by 'this'
     private Listener mListener;
 
+    // Synchronized by 'this'
+    private BufferListener mBufferListener;
+
+    // Synchronized by 'this'
+    private ReadMode mReadMode = ReadMode.BLOCKING;
+
+    // Synchronized by 'this'
+    private int mReadQueueDepth = DEFAULT_READ_QUEUE_DEPTH;
+
+    // Synchronized by 'this'
+    private boolean mFullDuplex = false;
+
+    // Synchronized by 'mWriteBuffer', only set while the writer thread of
+    // the full duplex mode should run
+    private boolean mWriterActive = false;
+
+    // Synchronized by 'mWriteBuffer'. The thread which takes data from the
+    // write buffer, only set while running.
+    private Thread mWriteThread;
+
+    // Set by the writer thread of the full duplex mode if it fails
+    private volatile Exception mWriterException;
+
+    // Only used by the thread executing run(), set if the port leaves
+    // XON/XOFF output flow control to the host
+    private boolean mSoftwareXonXoff = false;
+
+    // Synchronized by 'mWriteBuffer', set while the device has sent XOFF
+    private boolean mTransmitPaused = false;
+
+    // Synchronized by 'this', only set while running in ReadMode.ASYNC
+    private UsbRequestQueue mAsyncQueue;
+
+    // Synchronized by 'mWriteBuffer', only set while running in ReadMode.ASYNC
+    private UsbRequestQueue mAsyncWriteQueue;
+
     public interface Listener {
         /**
          * Called when new incoming data is available.
@@ -84,6 +213,93 @@ public class SerialInputOutputManager implements Runnable {
         public void onRunError(Exception e);
     }
 
+    /**
+     * Listener variant which receives incoming data in pooled buffers, so
+     * that no memory has to be allocated per read.
+     */
+    public interface BufferListener {
+        /**
+         * Called when new incoming data is available.
+         *
+         * <p/>
+         * The buffer is lent to the listener: its content is valid from
+         * position {@code 0} to {@code length} (which is also the limit), and
+         * it must be handed back with
+         * {@link SerialInputOutputManager#releaseBuffer(ByteBuffer)} once the
+         * data has been processed. This may happen after this method returns,
+         * and from any thread.
+         *
+         * @param data the buffer holding the received data
+         * @param length the number of bytes received
+         */
+        public void onNewData(ByteBuffer data, int length);
+
+        /**
+         * Called when {@link SerialInputOutputManager#run()} aborts due to an
+         * error.
+         */
+        public void onRunError(Exception e);
+    }
+
+    /**
+     * Callback for {@link SerialInputOutputManager#writeAsync(byte[], WriteCallback)},
+     * invoked from the thread executing {@link SerialInputOutputManager#run()},
+     * or from the thread discarding the data.
+     */
+    public interface WriteCallback {
+        /**
+         * Called once all data passed to writeAsync(), up to and including the
+         * corresponding call, has been handed to USB.
+         */
+        public void onWriteComplete();
+
+        /**
+         * Called instead of {@link #onWriteComplete()} if the data has been
+         * discarded by {@link SerialInputOutputManager#purge(boolean, boolean)}
+         * or {@link WriteOverflowPolicy#DROP_OLDEST}, or if
+         * {@link SerialInputOutputManager#run()} ended before it was written.
+         * In the latter case the data is discarded as well.
+         */
+        public void onWriteAborted();
+    }
+
+    private static final class PendingWrite {
+        final long endPosition;
+        final WriteCallback callback;
+
+        PendingWrite(long endPosition, WriteCallback callback) {
+            this.endPosition = endPosition;
+            this.callback = callback;
+        }
+    }
+
+    /**
+     * Adapts a {@link Listener} to the buffer based delivery, by copying each
+     * buffer into a new array and releasing it immediately.
+     */
+    private final class ListenerAdapter implements BufferListener {
+        private final Listener mAdaptee;
+
+        ListenerAdapter(Listener adaptee) {
+            mAdaptee = adaptee;
+        }
+
+        @Override
+        public void onNewData(ByteBuffer data, int length) {
+            final byte[] copy = new byte[length];
+            data.get(copy, 0, length);
+            releaseBuffer(data);
+            if (!purgingReadBuffers) {
+                mAdaptee.onNewData(copy);
+            }
+        }
+
+        @Override
+        public void onRunError(Exception e) {
+            mAdaptee.onRunError(e);
+        }
+    }
+
     /**
      * Creates a new instance with no listener.
      */
@@ -96,33 +312,258 @@ public class SerialInputOutputManager implements Runnable {
      */
     public SerialInputOutputManager(UsbSerialPort driver, Listener listener) {
         mPort = driver;
-        mListener = listener;
+        setListener(listener);
     }
 
+    /**
+     * Sets a listener which receives incoming data as newly allocated arrays.
+     * Replaces any {@link BufferListener}.
+     */
     public synchronized void setListener(Listener listener) {
         mListener = listener;
+        mBufferListener = (listener != null) ? new ListenerAdapter(listener) : null;
     }
 
+    /**
+     * Returns the listener set with {@link #setListener(Listener)}, or
+     * {@code null} if a {@link BufferListener} is used.
+     */
     public synchronized Listener getListener() {
         return mListener;
     }
 
+    /**
+     * Sets a listener which receives incoming data in pooled buffers.
+     * Replaces any {@link Listener}.
+     */
+    public synchronized void setBufferListener(BufferListener listener) {
+        mListener = null;
+        mBufferListener = listener;
+    }
+
+    public synchronized BufferListener getBufferListener() {
+        return mBufferListener;
+    }
+
+    /**
+     * Returns a buffer passed to {@link BufferListener#onNewData(ByteBuffer, int)},
+     * so that it can be reused for subsequent reads.
+     *
+     * @param buffer the buffer to release
+     */
+    public void releaseBuffer(ByteBuffer buffer) {
+        final ByteBufferPool pool = mReadBufferPool;
+        if (buffer.capacity() == pool.getBufferSize()) {
+            pool.release(buffer);
+        }
+        // Otherwise the buffer was read before the read size changed.
+    }
+
+    /**
+     * Returns the I/O statistics of the port. They are updated while the
+     * manager is running, and can be read and reset from any thread.
+     */
+    public IoMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Selects how incoming data is read. May only be changed while the
+     * manager is not running.
+     *
+     * @param readMode the {@link ReadMode} to use, {@link ReadMode#BLOCKING}
+     *            by default
+     */
+    public synchronized void setReadMode(ReadMode readMode) {
+        if (mState != State.STOPPED) {
+            throw new IllegalStateException("Read mode cannot be changed while running");
+        }
+        mReadMode = readMode;
+    }
+
+    public synchronized ReadMode getReadMode() {
+        return mReadMode;
+    }
+
+    /**
+     * Sets the number of {@link UsbRequest}s which are kept queued on the read
+     * endpoint in {@link ReadMode#ASYNC}. May only be changed while the manager
+     * is not running.
+     *
+     * @param readQueueDepth the number of read requests, at least 1
+     */
+    public synchronized void setReadQueueDepth(int readQueueDepth) {
+        if (readQueueDepth < 1) {
+            throw new IllegalArgumentException("Invalid read queue depth: " + readQueueDepth);
+        }
+        if (mState != State.STOPPED) {
+            throw new IllegalStateException("Read queue depth cannot be changed while running");
+        }
+        mReadQueueDepth = readQueueDepth;
+    }
+
+    public synchronized int getReadQueueDepth() {
+        return mReadQueueDepth;
+    }
+
+    /**
+     * Enables a dedicated writer thread in {@link ReadMode#BLOCKING}, so that
+     * data passed to {@link #writeAsync(byte[])} is sent immediately instead
+     * of after the current read has timed out. {@link ReadMode#ASYNC} always
+     * sends immediately. May only be changed while the manager is not
+     * running.
+     *
+     * @param fullDuplex {@code true} to read and write in separate threads,
+     *            {@code false} by default
+     */
+    public synchronized void setFullDuplex(boolean fullDuplex) {
+        if (mState != State.STOPPED) {
+            throw new IllegalStateException("Full duplex mode cannot be changed while running");
+        }
+        mFullDuplex = fullDuplex;
+    }
+
+    public synchronized boolean isFullDuplex() {
+        return mFullDuplex;
+    }
+
+    /**
+     * Sets the maximum number of bytes buffered by {@link #writeAsync(byte[])}.
+     * The buffer starts small and grows on demand up to this capacity.
+     *
+     * @param capacity the capacity in bytes, 64 KiB by default
+     * @throws IllegalStateException if more data than {@code capacity} is
+     *             currently buffered
+     */
+    public void setWriteBufferCapacity(int capacity) {
+        synchronized (mWriteBuffer) {
+            mWriteBuffer.setMaxCapacity(capacity);
+            mWriteBuffer.notifyAll();
+        }
+    }
+
+    public int getWriteBufferCapacity() {
+        synchronized (mWriteBuffer) {
+            return mWriteBuffer.getMaxCapacity();
+        }
+    }
+
+    /**
+     * Selects what {@link #writeAsync(byte[])} does when the write buffer is
+     * full.
+     *
+     * @param policy the {@link WriteOverflowPolicy}, {@link WriteOverflowPolicy#FAIL}
+     *            by default
+     */
+    public void setWriteOverflowPolicy(WriteOverflowPolicy policy) {
+        synchronized (mWriteBuffer) {
+            mWriteOverflowPolicy = policy;
+        }
+    }
+
+    public WriteOverflowPolicy getWriteOverflowPolicy() {
+        synchronized (mWriteBuffer) {
+            return mWriteOverflowPolicy;
+        }
+    }
+
+    /**
+     * Adds data to the write buffer, to be written by {@link #run()}. If the
+     * buffer is full, the configured {@link WriteOverflowPolicy} applies.
+     *
+     * @param data the data to write
+     * @throws BufferOverflowException if the data does not fit, and the policy
+     *             is {@link WriteOverflowPolicy#FAIL}
+     */
     public void writeAsync(byte[] data) {
+        writeAsync(data, null);
+    }
+
+    /**
+     * Like {@link #writeAsync(byte[])}, but notifies {@code callback} once
+     * this and all previously added data has been handed to USB.
+     *
+     * @param data the data to write
+     * @param callback the {@link WriteCallback} to notify, may be {@code null}
+     * @throws BufferOverflowException if the data does not fit, and the policy
+     *             is {@link WriteOverflowPolicy#FAIL}
+     */
+    public void writeAsync(byte[] data, WriteCallback callback) {
+        List<PendingWrite> dropped = null;
         synchronized (mWriteBuffer) {
-            mWriteBuffer.put(data);
+            switch (mWriteOverflowPolicy) {
+            case FAIL:
+                if (data.length > mWriteBuffer.free()) {
+                    throw new BufferOverflowException();
+                }
+                mWriteEnqueuedPosition += mWriteBuffer.put(data, 0, data.length);
+                break;
+
+            case DROP_OLDEST:
+                final int skip = Math.max(0, data.length - mWriteBuffer.getMaxCapacity());
+                if (mWriteBuffer.discard(data.length - skip - mWriteBuffer.free()) > 0) {
+                    dropped = new ArrayList<PendingWrite>();
+                    onWriteDiscardedLocked(dropped);
+                }
+                mWriteEnqueuedPosition += skip;
+                mWriteEnqueuedPosition += mWriteBuffer.put(data, skip, data.length - skip);
+                break;
+
+            case BLOCK:
+                if ((data.length > mWriteBuffer.free())
+                        && ((mWriteThread == null) || (mWriteThread == Thread.currentThread()))) {
+                    // Waiting would never end.
+                    throw new BufferOverflowException();
+                }
+                int offset = mWriteBuffer.put(data, 0, data.length);
+                mWriteEnqueuedPosition += offset;
+                while (offset < data.length) {
+                    queueAsyncWriteLocked();
+                    try {
+                        mWriteBuffer.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new UsbSerialRuntimeException(
+                                "Interrupted while waiting for write buffer space", e);
+                    }
+                    if (mWriteThread == null) {
+                        throw new UsbSerialRuntimeException(
+                                "Stopped while waiting for write buffer space");
+                    }
+                    final int count = mWriteBuffer.put(data, offset, data.length - offset);
+                    mWriteEnqueuedPosition += count;
+                    offset += count;
+                }
+                break;
+            }
+
+            if (callback != null) {
+                mPendingWrites.addLast(new PendingWrite(mWriteEnqueuedPosition, callback));
+            }
+            mMetrics.onWriteQueued(mWriteBuffer.size());
+            // Wake up the writer thread in runFullDuplex().
+            mWriteBuffer.notifyAll();
+            if (!queueAsyncWriteLocked()) {
+                Log.w(TAG, "Could not queue write request, retrying on next completion");
+            }
+        }
+        if (dropped != null) {
+            notifyWrites(dropped, false);
         }
     }
 
     public void writeSync(byte[] data) throws IOException {
         synchronized (mWriteLock) {
             mPort.write(data);
+            mMetrics.onWrite(data.length, data.length);
         }
     }
 
     /**
      * Trigger purging non-transmitted output data and / or non-read input
      * from the read / write buffers. Also performs a purge operation of the device
-     * buffers, if the device / driver supports it.
+     * buffers, if the device / driver supports it. The write buffers are
+     * always purged, regardless of {@code purgeWriteBuffers}.
      * @param purgeReadBuffers {@code true} to purge non-transmitted output data.
      * @param purgeWriteBuffers {@code true} to purge non-read input data.
      * @throws IOException if an I/O error occurred.
@@ -139,12 +580,20 @@ public class SerialInputOutputManager implements Runnable {
                 }
             }
 
+            final List<PendingWrite> aborted;
             synchronized (mWriteLock) {
                 synchronized (mWriteBuffer) {
                     mPort.purgeHwBuffers(false, true);
                     mWriteBuffer.clear();
+                    aborted = new ArrayList<PendingWrite>(mPendingWrites);
+                    mPendingWrites.clear();
+                    if (!mWriteInFlight) {
+                        advanceWriteDoneLocked(mWriteEnqueuedPosition, null);
+                    }
+                    mWriteBuffer.notifyAll();
                 }
             }
+            notifyWrites(aborted, false);
         } finally {
             purgingReadBuffers = false;
             purgingWriteBuffers = false;
@@ -152,23 +601,69 @@ public class SerialInputOutputManager implements Runnable {
     }
 
     /**
-     * Wait until all pending write operations are completed.
+     * Waits until all data passed to {@link #writeAsync(byte[])} before this
+     * call has been handed to USB (or discarded). Returns early, with the
+     * interrupt status set, if the calling thread is interrupted.
      */
     public void drain() {
-        boolean writeBufferEmpty = false;
-        while (!writeBufferEmpty || writing) {
-            synchronized (mWriteLock) {
-                synchronized (mWriteBuffer) {
-                    writeBufferEmpty = (mWriteBuffer.position() <= 0);
+        synchronized (mWriteBuffer) {
+            final long target = mWriteEnqueuedPosition;
+            while (mWriteDonePosition < target) {
+                try {
+                    mWriteBuffer.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Like {@link #drain()}, but waits at most {@code timeoutMillis}.
+     *
+     * @param timeoutMillis the maximum time to wait
+     * @return {@code true} if all data has been handed to USB, {@code false}
+     *         if the timeout elapsed or the calling thread was interrupted
+     */
+    public boolean drain(long timeoutMillis) {
+        synchronized (mWriteBuffer) {
+            final long target = mWriteEnqueuedPosition;
+            final long deadline = System.nanoTime() + timeoutMillis * 1000000L;
+            while (mWriteDonePosition < target) {
+                final long remainingMillis = (deadline - System.nanoTime()) / 1000000L;
+                if (remainingMillis <= 0) {
+                    return false;
+                }
+                try {
+                    mWriteBuffer.wait(remainingMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
                 }
             }
+            return true;
         }
     }
 
-    public synchronized void stop() {
-        if (getState() == State.RUNNING) {
+    public void stop() {
+        synchronized (this) {
+            if (getState() != State.RUNNING) {
+                return;
+            }
             Log.i(TAG, "Stop requested");
             mState = State.STOPPING;
+            if (mAsyncQueue != null) {
+                // Wake up requestWait() in runAsync().
+                mAsyncQueue.cancelReads();
+            }
+        }
+        synchronized (mWriteBuffer) {
+            // Wake up the writer thread in runFullDuplex(), and writeAsync()
+            // waiting for buffer space.
+            mWriterActive = false;
+            mWriteThread = null;
+            mWriteBuffer.notifyAll();
         }
     }
 
@@ -180,8 +675,14 @@ public class SerialInputOutputManager implements Runnable {
      * Continuously services the read and write buffers until {@link #stop()} is
      * called, or until a driver exception is raised.
      *
-     * NOTE(mikey): Uses inefficient read/write-with-timeout.
-     * TODO(mikey): Read asynchronously with {@link UsbRequest#queue(ByteBuffer, int)}
+     * In {@link ReadMode#BLOCKING} (the default), this uses read/write with
+     * timeout, either alternating in the calling thread, or with writes in a
+     * separate thread if {@link #setFullDuplex(boolean)} is enabled. In
+     * {@link ReadMode#ASYNC}, reads and writes are performed with
+     * {@link UsbRequest#queue(ByteBuffer, int)}.
+     *
+     * Data passed to {@link #writeAsync(byte[])} which has not been written
+     * when this method returns is discarded.
      */
     @Override
     public void run() {
@@ -194,20 +695,45 @@ public class SerialInputOutputManager implements Runnable {
 
         Log.i(TAG, "Running ..");
         try {
-            while (true) {
-                if (getState() != State.RUNNING) {
-                    Log.i(TAG, "Stopping mState=" + getState());
-                    break;
+            updateReadBufferPool();
+            updateSoftwareFlowControl();
+            if (!isFullDuplex() || (getReadMode() == ReadMode.ASYNC)) {
+                setWriteThread(Thread.currentThread());
+            }
+            if (getReadMode() == ReadMode.ASYNC) {
+                runAsync();
+            } else if (isFullDuplex()) {
+                runFullDuplex();
+            } else {
+                while (true) {
+                    if (getState() != State.RUNNING) {
+                        Log.i(TAG, "Stopping mState=" + getState());
+                        break;
+                    }
+                    step();
                 }
-                step();
             }
         } catch (Exception e) {
             Log.w(TAG, "Run ending due to exception: " + e.getMessage(), e);
-            final Listener listener = getListener();
+            final BufferListener listener = getBufferListener();
             if (listener != null) {
               listener.onRunError(e);
             }
         } finally {
+            final List<PendingWrite> aborted;
+            synchronized (mWriteBuffer) {
+                // Nothing sends the remaining data any more. Discard it, so
+                // that drain() returns and a later run() doesn't send data
+                // whose callbacks have been aborted.
+                mWriteBuffer.clear();
+                aborted = new ArrayList<PendingWrite>(mPendingWrites);
+                mPendingWrites.clear();
+                mWriteInFlight = false;
+                advanceWriteDoneLocked(mWriteEnqueuedPosition, null);
+                mWriteThread = null;
+            }
+            notifyWrites(aborted, false);
+
             synchronized (this) {
                 mState = State.STOPPED;
                 Log.i(TAG, "Stopped.");
@@ -215,66 +741,417 @@ public class SerialInputOutputManager implements Runnable {
         }
     }
 
+    private void setWriteThread(Thread thread) {
+        synchronized (mWriteBuffer) {
+            mWriteThread = thread;
+        }
+    }
+
+    /**
+     * Sizes the pooled read buffers to the read chunk size preferred by the
+     * port, so that each transfer requests that many bytes.
+     */
+    private void updateReadBufferPool() {
+        int readSize = 0;
+        if (mPort instanceof CommonUsbSerialPort) {
+            readSize = ((CommonUsbSerialPort) mPort).getReadChunkSize();
+        }
+        if (readSize <= 0) {
+            readSize = BUFSIZ;
+        }
+        if (mReadBufferPool.getBufferSize() != readSize) {
+            mReadBufferPool = new ByteBufferPool(readSize, READ_BUFFER_POOL_SIZE);
+        }
+    }
+
+    /**
+     * Enables the emulation of XON/XOFF output flow control, if the port
+     * leaves it to the host. See
+     * {@link CommonUsbSerialPort#getSoftwareFlowControl()}.
+     */
+    private void updateSoftwareFlowControl() {
+        int flowControl = UsbSerialPort.FLOWCONTROL_NONE;
+        if (mPort instanceof CommonUsbSerialPort) {
+            flowControl = ((CommonUsbSerialPort) mPort).getSoftwareFlowControl();
+        }
+        mSoftwareXonXoff = (flowControl & UsbSerialPort.FLOWCONTROL_XONXOFF_OUT) != 0;
+        synchronized (mWriteBuffer) {
+            mTransmitPaused = false;
+        }
+    }
+
+    // Removes XON and XOFF from the received data, and pauses or resumes
+    // sending accordingly. Returns the number of remaining bytes.
+    private int filterXonXoff(byte[] data, int len) {
+        int count = 0;
+        for (int i = 0; i < len; ++i) {
+            final byte b = data[i];
+            if ((b == XON) || (b == XOFF)) {
+                setTransmitPaused(b == XOFF);
+            } else {
+                data[count++] = b;
+            }
+        }
+        return count;
+    }
+
+    private void setTransmitPaused(boolean paused) {
+        synchronized (mWriteBuffer) {
+            if (mTransmitPaused == paused) {
+                return;
+            }
+            if (DEBUG) {
+                Log.d(TAG, paused ? "Received XOFF" : "Received XON");
+            }
+            mTransmitPaused = paused;
+            if (!paused) {
+                mWriteBuffer.notifyAll();
+                if (!queueAsyncWriteLocked()) {
+                    Log.w(TAG, "Could not queue write request, retrying on next completion");
+                }
+            }
+        }
+    }
+
     private void step() throws IOException {
-        // Handle incoming data.
+        readStep();
+        writeStep();
+    }
+
+    private void readStep() throws IOException {
+        final ByteBuffer readBuffer = mReadBufferPool.acquire();
         int len;
         synchronized (mReadLock) {
-            len = mPort.read(mReadBuffer.array(), READ_WAIT_MILLIS);
+            len = mPort.read(readBuffer.array(), READ_WAIT_MILLIS);
         }
-        if ((len > 0) && (!purgingReadBuffers)) {
-            if (DEBUG) Log.d(TAG, "Read data len=" + len);
-            final Listener listener = getListener();
-            if (listener != null) {
-                final byte[] data = new byte[len];
-                mReadBuffer.get(data, 0, len);
-                if (!purgingReadBuffers) {
-                    listener.onNewData(data);
-                }
-            }
-            mReadBuffer.clear();
+        final long readNanos = System.nanoTime();
+        mMetrics.onRead(len);
+        if ((len <= 0) || !onReadData(readBuffer, len, readNanos)) {
+            mReadBufferPool.release(readBuffer);
         }
+    }
 
-        // Handle outgoing data.
+    // Writes data from the write buffer, until it is empty.
+    private void writeStep() throws IOException {
+        int len;
         try {
-            byte[] outBuff = null;
-            synchronized (mWriteBuffer) {
-                if (mWriteBuffer.position() > 0) {
-                    len = mWriteBuffer.position();
-                    outBuff = new byte[len];
-                    mWriteBuffer.rewind();
-                    mWriteBuffer.get(outBuff, 0, len);
-                    mWriteBuffer.clear();
-                    writing = true;
+            final byte[] outBuff = mWriteStepBuffer;
+            while (true) {
+                synchronized (mWriteBuffer) {
+                    len = mTransmitPaused ? 0 : mWriteBuffer.take(outBuff, 0, outBuff.length);
+                    if (len <= 0) {
+                        break;
+                    }
+                    mWriteInFlight = true;
+                    mWriteInFlightEnd = mWriteEnqueuedPosition - mWriteBuffer.size();
+                    mWriteBuffer.notifyAll();
                 }
-            }
-            if (outBuff != null) {
                 if (DEBUG) {
                     Log.d(TAG, "Writing data len=" + len);
                 }
-    
+
                 synchronized (mWriteLock) {
                     int writtenBytesCount = 0;
-                    while ((writtenBytesCount < outBuff.length) && !purgingWriteBuffers) {
+                    while ((writtenBytesCount < len) && !purgingWriteBuffers) {
                         int writeRet = mPort.write(outBuff,
-                                outBuff.length - writtenBytesCount,
+                                writtenBytesCount,
+                                len - writtenBytesCount,
                                 WRITE_STEP_TIMEOUT_MILLIS);
+                        mMetrics.onWrite(len - writtenBytesCount, writeRet);
                         if (writeRet == 0) {
                             throw new IOException("Could not write data to device");
-                        } else if ((writeRet < outBuff.length - writtenBytesCount)
-                                && !purgingWriteBuffers) {
-                            System.arraycopy(outBuff,
-                                    writeRet,
-                                    outBuff,
-                                    0,
-                                    outBuff.length - writtenBytesCount);
                         }
                         writtenBytesCount += writeRet;
                     }
                 }
+
+                synchronized (mWriteBuffer) {
+                    mWriteInFlight = false;
+                    advanceWriteDoneLocked(mWriteEnqueuedPosition - mWriteBuffer.size(),
+                            mCompletedWrites);
+                }
+                notifyWrites(mCompletedWrites, true);
             }
         } finally {
-            writing = false;
+            synchronized (mWriteBuffer) {
+                if (mWriteInFlight) {
+                    // The data in flight is lost, don't let drain() wait for it.
+                    mWriteInFlight = false;
+                    advanceWriteDoneLocked(mWriteEnqueuedPosition - mWriteBuffer.size(),
+                            mCompletedWrites);
+                }
+            }
+            notifyWrites(mCompletedWrites, false);
+        }
+    }
+
+    // Must hold 'mWriteBuffer'. Marks everything before 'position' as done
+    // and moves the callbacks of the affected writes to 'completed'.
+    private void advanceWriteDoneLocked(long position, List<PendingWrite> completed) {
+        mWriteDonePosition = position;
+        while (!mPendingWrites.isEmpty()
+                && (mPendingWrites.peekFirst().endPosition <= position)) {
+            final PendingWrite write = mPendingWrites.pollFirst();
+            if (completed != null) {
+                completed.add(write);
+            }
+        }
+        mWriteBuffer.notifyAll();
+    }
+
+    // Must hold 'mWriteBuffer'. Called after the oldest data of the write
+    // buffer has been discarded; moves the callbacks of writes which ended
+    // within that data to 'aborted'.
+    private void onWriteDiscardedLocked(List<PendingWrite> aborted) {
+        final long front = mWriteEnqueuedPosition - mWriteBuffer.size();
+        if (!mWriteInFlight) {
+            advanceWriteDoneLocked(front, aborted);
+            return;
+        }
+        // Writes ending within the data in flight are not affected.
+        for (final Iterator<PendingWrite> it = mPendingWrites.iterator(); it.hasNext();) {
+            final PendingWrite write = it.next();
+            if (write.endPosition > front) {
+                break;
+            }
+            if (write.endPosition > mWriteInFlightEnd) {
+                aborted.add(write);
+                it.remove();
+            }
+        }
+    }
+
+    private static void notifyWrites(List<PendingWrite> writes, boolean complete) {
+        for (int i = 0; i < writes.size(); ++i) {
+            final WriteCallback callback = writes.get(i).callback;
+            if (complete) {
+                callback.onWriteComplete();
+            } else {
+                callback.onWriteAborted();
+            }
+        }
+        writes.clear();
+    }
+
+    /**
+     * Reads in the calling thread and writes in a separate thread, until
+     * {@link #stop()} is called or either of them fails.
+     */
+    private void runFullDuplex() throws IOException {
+        mWriterException = null;
+        synchronized (mWriteBuffer) {
+            mWriterActive = true;
+        }
+        final Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runWriter();
+            }
+        }, TAG + "-writer");
+        setWriteThread(writer);
+        writer.start();
+
+        try {
+            while (getState() == State.RUNNING) {
+                readStep();
+            }
+            Log.i(TAG, "Stopping mState=" + getState());
+        } finally {
+            synchronized (mWriteBuffer) {
+                mWriterActive = false;
+                mWriteBuffer.notifyAll();
+            }
+            boolean interrupted = false;
+            while (writer.isAlive()) {
+                try {
+                    writer.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        final Exception writerException = mWriterException;
+        if (writerException instanceof IOException) {
+            throw (IOException) writerException;
+        } else if (writerException != null) {
+            throw (RuntimeException) writerException;
+        }
+    }
+
+    private void runWriter() {
+        try {
+            while (true) {
+                synchronized (mWriteBuffer) {
+                    while (mWriterActive && (mWriteBuffer.isEmpty() || mTransmitPaused)) {
+                        mWriteBuffer.wait();
+                    }
+                    if (!mWriterActive) {
+                        return;
+                    }
+                }
+                writeStep();
+            }
+        } catch (InterruptedException e) {
+            Log.w(TAG, "Writer interrupted");
+            stop();
+        } catch (IOException e) {
+            mWriterException = e;
+            stop();
+        } catch (RuntimeException e) {
+            mWriterException = e;
+            stop();
+        }
+    }
+
+    // Lends a buffer holding 'len' bytes, received at 'readNanos', to the
+    // listener. Returns false if nobody took the buffer, so that the caller
+    // may reuse it.
+    private boolean onReadData(ByteBuffer buffer, int len, long readNanos) {
+        if (purgingReadBuffers) {
+            return false;
+        }
+        if (mSoftwareXonXoff) {
+            len = filterXonXoff(buffer.array(), len);
+            if (len == 0) {
+                return false;
+            }
+        }
+        if (DEBUG) Log.d(TAG, "Read data len=" + len);
+        final BufferListener listener = getBufferListener();
+        if (listener == null) {
+            return false;
+        }
+        buffer.position(0);
+        buffer.limit(len);
+        final long startNanos = System.nanoTime();
+        listener.onNewData(buffer, len);
+        mMetrics.onCallback(readNanos, startNanos, System.nanoTime());
+        return true;
+    }
+
+    /**
+     * Services the port with queued {@link UsbRequest}s until {@link #stop()}
+     * is called. Completed read requests are handed to the listener in the
+     * order they were queued, and immediately queued again.
+     */
+    private void runAsync() throws IOException {
+        if (!(mPort instanceof CommonUsbSerialPort)) {
+            throw new IOException("Asynchronous reading not supported by "
+                    + mPort.getClass().getSimpleName());
+        }
+        final CommonUsbSerialPort port = (CommonUsbSerialPort) mPort;
+        final UsbDeviceConnection connection = port.getConnection();
+        if (connection == null) {
+            throw new IOException("Asynchronous reading requires a UsbDeviceConnection");
+        }
+        final UsbRequestQueue queue = new UsbRequestQueue(port, mReadBufferPool,
+                getReadQueueDepth(), null);
+        final UsbRequestQueue.ReadHandler handler = new UsbRequestQueue.ReadHandler() {
+            @Override
+            public boolean isRunning() {
+                return getState() == State.RUNNING;
+            }
+
+            @Override
+            public boolean onReadData(ByteBuffer buffer, int length, long completedNanos) {
+                mMetrics.onRead(length);
+                return (length > 0)
+                        && SerialInputOutputManager.this.onReadData(buffer, length, completedNanos);
+            }
+        };
+
+        try {
+            queue.start(connection);
+            synchronized (this) {
+                mAsyncQueue = queue;
+            }
+            synchronized (mWriteBuffer) {
+                mAsyncWriteQueue = queue;
+                if (!queueAsyncWriteLocked()) {
+                    throw new IOException("Could not queue write request");
+                }
+            }
+
+            while (getState() == State.RUNNING) {
+                final UsbRequest request = connection.requestWait();
+                if (request == null) {
+                    throw new IOException("Waiting for USB request failed");
+                }
+                if (UsbRequestQueue.getQueue(request) != queue) {
+                    Log.w(TAG, "Ignoring foreign request " + request);
+                } else if (queue.isWriteRequest(request)) {
+                    onAsyncWriteComplete();
+                } else {
+                    queue.onReadComplete(request, handler);
+                }
+            }
+            Log.i(TAG, "Stopping mState=" + getState());
+        } finally {
+            synchronized (this) {
+                mAsyncQueue = null;
+            }
+            synchronized (mWriteBuffer) {
+                queue.stopWriting();
+                mAsyncWriteQueue = null;
+                if (mWriteInFlight) {
+                    mWriteInFlight = false;
+                    advanceWriteDoneLocked(mWriteEnqueuedPosition - mWriteBuffer.size(),
+                            mCompletedWrites);
+                }
+            }
+            notifyWrites(mCompletedWrites, false);
+            UsbRequestQueue.cancelAll(connection, new UsbRequestQueue[] { queue });
+        }
+    }
+
+    // Queues the write request, unless it is already queued. Once the data
+    // of the previous request has been written completely, pending data is
+    // moved into the request first. Must hold 'mWriteBuffer'.
+    private boolean queueAsyncWriteLocked() {
+        final UsbRequestQueue queue = mAsyncWriteQueue;
+        if (queue == null) {
+            return true;
+        }
+
+        if (queue.isWriteIdle() && !mTransmitPaused) {
+            final int len = queue.takeWriteData(mWriteBuffer);
+            if (len > 0) {
+                if (DEBUG) {
+                    Log.d(TAG, "Writing data len=" + len);
+                }
+                mWriteInFlight = true;
+                mWriteInFlightEnd = mWriteEnqueuedPosition - mWriteBuffer.size();
+                mWriteBuffer.notifyAll();
+            }
+        }
+        return queue.queueWrite();
+    }
+
+    private void onAsyncWriteComplete() throws IOException {
+        synchronized (mWriteBuffer) {
+            final UsbRequestQueue queue = mAsyncWriteQueue;
+            final int requested = queue.getWriteLength();
+            final int written = queue.onWriteComplete(purgingWriteBuffers);
+            mMetrics.onWrite(requested, written);
+            if (written <= 0) {
+                throw new IOException("Could not write data to device");
+            }
+            if (queue.getWriteLength() == 0) {
+                mWriteInFlight = false;
+                advanceWriteDoneLocked(mWriteEnqueuedPosition - mWriteBuffer.size(),
+                        mCompletedWrites);
+            } else {
+                advanceWriteDoneLocked(mWriteDonePosition + written, mCompletedWrites);
+            }
+            if (!queueAsyncWriteLocked()) {
+                throw new IOException("Could not queue write request");
+            }
         }
+        notifyWrites(mCompletedWrites, true);
     }
 
 }
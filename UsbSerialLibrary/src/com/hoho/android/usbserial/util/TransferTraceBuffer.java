@@ -0,0 +1,328 @@
+/* This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package com.hoho.android.usbserial.util;
+
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbEndpoint;
+
+import com.hoho.android.usbserial.driver.TransferTracer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@link TransferTracer} which keeps the most recent transfers in a
+ * preallocated ring buffer. Recording neither locks nor allocates.
+ *
+ * <p/>
+ * Usage:
+ * <pre>
+ * TransferTraceBuffer trace = new TransferTraceBuffer(1024);
+ * TransferTracing.setTracer(trace);
+ * ...
+ * for (TransferTraceBuffer.Entry entry : trace.getEntries()) {
+ *     Log.d(TAG, entry.toString());
+ * }
+ * </pre>
+ *
+ * <p/>
+ * {@link #getEntries()} may run concurrently with recording; it skips
+ * entries which are overwritten while they are being copied. A transfer is
+ * not recorded if its slot is still being written by the transfer recorded
+ * {@link #getCapacity()} transfers earlier.
+ */
+public final class TransferTraceBuffer implements TransferTracer {
+
+    /**
+     * A recorded transfer.
+     */
+    public static final class Entry {
+        private final long mSequence;
+        private final boolean mControl;
+        private final int mDeviceId;
+        private final int mEndpointAddress;
+        private final int mRequestType;
+        private final int mRequest;
+        private final int mValue;
+        private final int mIndex;
+        private final int mLength;
+        private final int mResult;
+        private final long mStartNanos;
+        private final long mDurationNanos;
+
+        Entry(long sequence, boolean control, int deviceId, int endpointAddress,
+                int requestType, int request, int value, int index, int length, int result,
+                long startNanos, long durationNanos) {
+            mSequence = sequence;
+            mControl = control;
+            mDeviceId = deviceId;
+            mEndpointAddress = endpointAddress;
+            mRequestType = requestType;
+            mRequest = request;
+            mValue = value;
+            mIndex = index;
+            mLength = length;
+            mResult = result;
+            mStartNanos = startNanos;
+            mDurationNanos = durationNanos;
+        }
+
+        /**
+         * Returns the number of the transfer, counting all transfers
+         * recorded by the buffer.
+         */
+        public long getSequence() {
+            return mSequence;
+        }
+
+        /**
+         * Returns {@code true} for a control transfer, {@code false} for a
+         * bulk or interrupt transfer.
+         */
+        public boolean isControl() {
+            return mControl;
+        }
+
+        /**
+         * Returns the {@link UsbDevice#getDeviceId()} of the device.
+         */
+        public int getDeviceId() {
+            return mDeviceId;
+        }
+
+        /**
+         * Returns the address of the endpoint, including the direction, or
+         * 0 for control transfers.
+         */
+        public int getEndpointAddress() {
+            return mEndpointAddress;
+        }
+
+        /** Returns the request type of a control transfer. */
+        public int getRequestType() {
+            return mRequestType;
+        }
+
+        /** Returns the request of a control transfer. */
+        public int getRequest() {
+            return mRequest;
+        }
+
+        /** Returns the value field of a control transfer. */
+        public int getValue() {
+            return mValue;
+        }
+
+        /** Returns the index field of a control transfer. */
+        public int getIndex() {
+            return mIndex;
+        }
+
+        public int getLength() {
+            return mLength;
+        }
+
+        /**
+         * Returns the number of bytes transferred, or a negative value on
+         * failure.
+         */
+        public int getResult() {
+            return mResult;
+        }
+
+        public long getStartNanos() {
+            return mStartNanos;
+        }
+
+        public long getDurationNanos() {
+            return mDurationNanos;
+        }
+
+        @Override
+        public String toString() {
+            if (mControl) {
+                return String.format(Locale.US, "#%d device %d control type=0x%02x "
+                        + "request=0x%02x value=0x%04x index=0x%04x length=%d result=%d "
+                        + "start=%d duration=%dns",
+                        mSequence, mDeviceId, mRequestType, mRequest, mValue, mIndex,
+                        mLength, mResult, mStartNanos, mDurationNanos);
+            }
+            return String.format(Locale.US, "#%d device %d bulk endpoint=0x%02x "
+                    + "length=%d result=%d start=%d duration=%dns",
+                    mSequence, mDeviceId, mEndpointAddress, mLength, mResult,
+                    mStartNanos, mDurationNanos);
+        }
+    }
+
+    // Value of a slot sequence while the slot is being written
+    private static final long WRITING = -2;
+    // Value of a slot sequence before the slot is first written
+    private static final long EMPTY = -1;
+
+    // The int fields of an entry, stored at slot * INT_FIELDS
+    private static final int CONTROL = 0;
+    private static final int DEVICE_ID = 1;
+    private static final int ENDPOINT_ADDRESS = 2;
+    private static final int REQUEST_TYPE = 3;
+    private static final int REQUEST = 4;
+    private static final int VALUE = 5;
+    private static final int INDEX = 6;
+    private static final int LENGTH = 7;
+    private static final int RESULT = 8;
+    private static final int INT_FIELDS = 9;
+
+    // The long fields of an entry, stored at slot * LONG_FIELDS
+    private static final int START_NANOS = 0;
+    private static final int DURATION_NANOS = 1;
+    private static final int LONG_FIELDS = 2;
+
+    private final int mMask;
+
+    // Sequence number of the next transfer
+    private final AtomicLong mNextSequence = new AtomicLong();
+
+    // Transfers before this sequence number have been cleared
+    private volatile long mClearedSequence = 0;
+
+    // Sequence number of the transfer held by each slot, or WRITING or
+    // EMPTY. A writer claims a slot by setting WRITING, so that two writers
+    // never write the same slot at once, and publishes the fields by setting
+    // the sequence number. A reader copies the fields, and keeps them if the
+    // sequence number was the same before and after.
+    private final AtomicLongArray mSlotSequences;
+    private final AtomicIntegerArray mInts;
+    private final AtomicLongArray mLongs;
+
+    /**
+     * @param capacity the number of transfers kept, rounded up to a power of
+     *            two
+     */
+    public TransferTraceBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mMask = size - 1;
+        mSlotSequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; ++i) {
+            mSlotSequences.set(i, EMPTY);
+        }
+        mInts = new AtomicIntegerArray(size * INT_FIELDS);
+        mLongs = new AtomicLongArray(size * LONG_FIELDS);
+    }
+
+    public int getCapacity() {
+        return mMask + 1;
+    }
+
+    /**
+     * Returns the number of transfers recorded since the buffer was created,
+     * including those which have been overwritten or cleared.
+     */
+    public long getTotalCount() {
+        return mNextSequence.get();
+    }
+
+    @Override
+    public void onBulkTransfer(UsbDevice device, UsbEndpoint endpoint, int length,
+            int result, long startNanos, long durationNanos) {
+        record(false, device.getDeviceId(), endpoint.getAddress(), 0, 0, 0, 0,
+                length, result, startNanos, durationNanos);
+    }
+
+    @Override
+    public void onControlTransfer(UsbDevice device, int requestType, int request,
+            int value, int index, int length, int result, long startNanos,
+            long durationNanos) {
+        record(true, device.getDeviceId(), 0, requestType, request, value, index,
+                length, result, startNanos, durationNanos);
+    }
+
+    private void record(boolean control, int deviceId, int endpointAddress,
+            int requestType, int request, int value, int index, int length, int result,
+            long startNanos, long durationNanos) {
+        final long sequence = mNextSequence.getAndIncrement();
+        final int slot = (int) (sequence & mMask);
+        final long previous = mSlotSequences.get(slot);
+        if ((previous == WRITING) || (previous > sequence)
+                || !mSlotSequences.compareAndSet(slot, previous, WRITING)) {
+            // Another transfer one lap apart is being written, or has already
+            // replaced this one. Drop this one.
+            return;
+        }
+        final int ints = slot * INT_FIELDS;
+        mInts.lazySet(ints + CONTROL, control ? 1 : 0);
+        mInts.lazySet(ints + DEVICE_ID, deviceId);
+        mInts.lazySet(ints + ENDPOINT_ADDRESS, endpointAddress);
+        mInts.lazySet(ints + REQUEST_TYPE, requestType);
+        mInts.lazySet(ints + REQUEST, request);
+        mInts.lazySet(ints + VALUE, value);
+        mInts.lazySet(ints + INDEX, index);
+        mInts.lazySet(ints + LENGTH, length);
+        mInts.lazySet(ints + RESULT, result);
+        final int longs = slot * LONG_FIELDS;
+        mLongs.lazySet(longs + START_NANOS, startNanos);
+        mLongs.lazySet(longs + DURATION_NANOS, durationNanos);
+        mSlotSequences.set(slot, sequence);
+    }
+
+    /**
+     * Returns the recorded transfers which are still in the buffer, oldest
+     * first.
+     */
+    public List<Entry> getEntries() {
+        final long end = mNextSequence.get();
+        final long start = Math.max(mClearedSequence, end - getCapacity());
+        final List<Entry> entries = new ArrayList<Entry>((int) Math.max(0, end - start));
+        for (long sequence = start; sequence < end; ++sequence) {
+            final int slot = (int) (sequence & mMask);
+            if (mSlotSequences.get(slot) != sequence) {
+                // Still being written, already overwritten, or dropped.
+                continue;
+            }
+            final int ints = slot * INT_FIELDS;
+            final int longs = slot * LONG_FIELDS;
+            final Entry entry = new Entry(sequence, mInts.get(ints + CONTROL) != 0,
+                    mInts.get(ints + DEVICE_ID), mInts.get(ints + ENDPOINT_ADDRESS),
+                    mInts.get(ints + REQUEST_TYPE), mInts.get(ints + REQUEST),
+                    mInts.get(ints + VALUE), mInts.get(ints + INDEX),
+                    mInts.get(ints + LENGTH), mInts.get(ints + RESULT),
+                    mLongs.get(longs + START_NANOS), mLongs.get(longs + DURATION_NANOS));
+            if (mSlotSequences.get(slot) == sequence) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Removes all recorded transfers from the buffer.
+     */
+    public void clear() {
+        mClearedSequence = mNextSequence.get();
+    }
+
+}
@@ -0,0 +1,357 @@
+/* This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package com.hoho.android.usbserial.util;
+
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbRequest;
+import android.util.Log;
+
+import com.hoho.android.usbserial.driver.CommonUsbSerialPort;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The {@link UsbRequest}s with which one port is serviced: several requests
+ * queued on the read endpoint, whose data is handed over in the order in
+ * which they were queued, and one request on the write endpoint. Used by
+ * {@link SerialInputOutputManager} in
+ * {@link SerialInputOutputManager.ReadMode#ASYNC} and by
+ * {@link MultiPortInputOutputManager}.
+ *
+ * <p/>
+ * The read requests are only used by the thread waiting on the connection
+ * with {@link UsbDeviceConnection#requestWait()}. The write request may be
+ * used by any thread holding the monitor of the port's write buffer.
+ */
+final class UsbRequestQueue {
+
+    private static final String TAG = UsbRequestQueue.class.getSimpleName();
+
+    private static final int WRITE_BUFFER_SIZE = 4096;
+
+    /**
+     * Receives the completed reads of a queue.
+     */
+    interface ReadHandler {
+        /**
+         * Returns false once the manager is stopping. Completed reads are
+         * then neither handed over nor queued again.
+         */
+        boolean isRunning();
+
+        /**
+         * Called for each completed read request, in the order in which the
+         * requests were queued.
+         *
+         * @param buffer the buffer holding the data, filtered by the port
+         * @param length the number of data bytes, may be 0
+         * @param completedNanos the time the request completed at
+         * @return true if the handler keeps {@code buffer}, in which case the
+         *         request gets a new buffer from the pool
+         */
+        boolean onReadData(ByteBuffer buffer, int length, long completedNanos)
+                throws IOException;
+    }
+
+    private static final class ReadSlot {
+        final UsbRequestQueue queue;
+        final UsbRequest request = new UsbRequest();
+        ByteBuffer buffer;
+        boolean queued = false;
+        boolean completed = false;
+        long completedNanos;
+
+        ReadSlot(UsbRequestQueue queue) {
+            this.queue = queue;
+        }
+    }
+
+    private final CommonUsbSerialPort mPort;
+    private final ByteBufferPool mReadBufferPool;
+    private final Object mTag;
+
+    // Only used by the thread waiting on the connection
+    private final ReadSlot[] mSlots;
+    private int mHead = 0;
+
+    private final UsbRequest mWriteRequest = new UsbRequest();
+    private final ByteBuffer mWriteRequestBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+
+    // Synchronized by the port's write buffer
+    private int mWriteLength = 0;
+    private boolean mWriteQueued = false;
+    private boolean mWriteStopped = false;
+
+    /**
+     * Creates the requests of a port, which are initialized by
+     * {@link #start(UsbDeviceConnection)}.
+     *
+     * @param port the port
+     * @param readBufferPool the pool providing the read buffers
+     * @param readQueueDepth the number of read requests
+     * @param tag an object identifying the queue to its owner, may be
+     *            {@code null}
+     */
+    UsbRequestQueue(CommonUsbSerialPort port, ByteBufferPool readBufferPool,
+            int readQueueDepth, Object tag) {
+        mPort = port;
+        mReadBufferPool = readBufferPool;
+        mTag = tag;
+        mSlots = new ReadSlot[readQueueDepth];
+        for (int i = 0; i < mSlots.length; ++i) {
+            mSlots[i] = new ReadSlot(this);
+            mSlots[i].buffer = readBufferPool.acquire();
+            mSlots[i].request.setClientData(mSlots[i]);
+        }
+        mWriteRequest.setClientData(this);
+    }
+
+    /**
+     * Returns the queue a completed request belongs to.
+     *
+     * @return the queue, or {@code null} if the request was not created by a
+     *         {@code UsbRequestQueue}
+     */
+    static UsbRequestQueue getQueue(UsbRequest request) {
+        final Object clientData = request.getClientData();
+        if (clientData instanceof ReadSlot) {
+            return ((ReadSlot) clientData).queue;
+        }
+        if (clientData instanceof UsbRequestQueue) {
+            return (UsbRequestQueue) clientData;
+        }
+        return null;
+    }
+
+    Object getTag() {
+        return mTag;
+    }
+
+    /**
+     * Initializes the requests and queues all read requests. The write
+     * request is queued by {@link #queueWrite()} once there is data.
+     */
+    void start(UsbDeviceConnection connection) throws IOException {
+        if (!mWriteRequest.initialize(connection, mPort.getWriteEndpoint())) {
+            throw new IOException("Could not initialize write request");
+        }
+        for (final ReadSlot slot : mSlots) {
+            if (!slot.request.initialize(connection, mPort.getReadEndpoint())) {
+                throw new IOException("Could not initialize read request");
+            }
+        }
+        for (final ReadSlot slot : mSlots) {
+            queueRead(slot);
+        }
+    }
+
+    /**
+     * Cancels the read requests, so that a thread waiting on the connection
+     * wakes up. May be called by any thread.
+     */
+    void cancelReads() {
+        for (final ReadSlot slot : mSlots) {
+            slot.request.cancel();
+        }
+    }
+
+    boolean isWriteRequest(UsbRequest request) {
+        return request == mWriteRequest;
+    }
+
+    /**
+     * Handles a completed read request of this queue. Completions are
+     * reported by the host controller, so the data is handed to
+     * {@code handler} strictly in the order in which the requests were
+     * queued, and each request is queued again afterwards.
+     */
+    void onReadComplete(UsbRequest request, ReadHandler handler) throws IOException {
+        final ReadSlot completed = (ReadSlot) request.getClientData();
+        completed.queued = false;
+        completed.completed = true;
+        completed.completedNanos = System.nanoTime();
+
+        while (mSlots[mHead].completed && handler.isRunning()) {
+            final ReadSlot slot = mSlots[mHead];
+            slot.completed = false;
+            final int len = mPort.filterReadData(slot.buffer.array(), slot.buffer.position());
+            if (handler.onReadData(slot.buffer, len, slot.completedNanos)) {
+                slot.buffer = mReadBufferPool.acquire();
+            }
+            queueRead(slot);
+            mHead = (mHead + 1) % mSlots.length;
+        }
+    }
+
+    private static void queueRead(ReadSlot slot) throws IOException {
+        slot.buffer.clear();
+        if (!slot.request.queue(slot.buffer, slot.buffer.capacity())) {
+            throw new IOException("Could not queue read request");
+        }
+        slot.queued = true;
+    }
+
+    /**
+     * Returns whether the write request may take new data: it is not
+     * queued, and the data it took before has been written completely. Must
+     * hold the port's write buffer.
+     */
+    boolean isWriteIdle() {
+        return !mWriteStopped && !mWriteQueued && (mWriteLength == 0);
+    }
+
+    /**
+     * Moves data from the port's write buffer into the idle write request.
+     * Must hold {@code source}.
+     *
+     * @return the number of bytes taken
+     */
+    int takeWriteData(ByteRingBuffer source) {
+        mWriteLength = source.take(mWriteRequestBuffer.array(), 0, WRITE_BUFFER_SIZE);
+        return mWriteLength;
+    }
+
+    /**
+     * Returns the number of bytes of the write request not written yet. Must
+     * hold the port's write buffer.
+     */
+    int getWriteLength() {
+        return mWriteLength;
+    }
+
+    /**
+     * Queues the write request with its remaining data, unless it is already
+     * queued or has no data. Must hold the port's write buffer.
+     *
+     * @return false if the request could not be queued
+     */
+    boolean queueWrite() {
+        if (mWriteStopped || mWriteQueued || (mWriteLength == 0)) {
+            return true;
+        }
+        mWriteRequestBuffer.clear();
+        if (!mWriteRequest.queue(mWriteRequestBuffer, mWriteLength)) {
+            return false;
+        }
+        mWriteQueued = true;
+        return true;
+    }
+
+    /**
+     * Handles the completed write request. The data which was not written is
+     * kept for the next {@link #queueWrite()}, unless {@code discardRest} is
+     * set. Must hold the port's write buffer.
+     *
+     * @return the number of bytes written; if not positive, the data is
+     *         left unchanged
+     */
+    int onWriteComplete(boolean discardRest) {
+        mWriteQueued = false;
+        final int written = mWriteRequestBuffer.position();
+        if (written <= 0) {
+            return written;
+        }
+        if (discardRest) {
+            mWriteLength = 0;
+        } else {
+            mWriteLength -= written;
+            System.arraycopy(mWriteRequestBuffer.array(), written,
+                    mWriteRequestBuffer.array(), 0, mWriteLength);
+        }
+        return written;
+    }
+
+    /**
+     * Stops using the write request; data it still holds is discarded. Must
+     * hold the port's write buffer.
+     */
+    void stopWriting() {
+        mWriteStopped = true;
+        mWriteLength = 0;
+    }
+
+    /**
+     * Cancels the queued requests of several queues, waits for the
+     * connection to return them, and releases them. The write requests must
+     * have been stopped with {@link #stopWriting()}. Requests of other users
+     * of the connection are logged and ignored.
+     */
+    static void cancelAll(UsbDeviceConnection connection, UsbRequestQueue[] queues) {
+        int pending = 0;
+        for (final UsbRequestQueue queue : queues) {
+            for (final ReadSlot slot : queue.mSlots) {
+                if (slot.queued) {
+                    slot.request.cancel();
+                    ++pending;
+                }
+            }
+            if (queue.mWriteQueued) {
+                queue.mWriteRequest.cancel();
+                ++pending;
+            }
+        }
+
+        while (pending > 0) {
+            final UsbRequest request = connection.requestWait();
+            if (request == null) {
+                Log.w(TAG, "Could not reap " + pending + " cancelled requests");
+                break;
+            }
+            final UsbRequestQueue queue = getQueue(request);
+            if (!contains(queues, queue)) {
+                Log.w(TAG, "Ignoring foreign request " + request);
+                continue;
+            }
+            if (queue.isWriteRequest(request)) {
+                queue.mWriteQueued = false;
+            } else {
+                ((ReadSlot) request.getClientData()).queued = false;
+            }
+            --pending;
+        }
+
+        for (final UsbRequestQueue queue : queues) {
+            for (final ReadSlot slot : queue.mSlots) {
+                if (!slot.queued) {
+                    slot.request.close();
+                    queue.mReadBufferPool.release(slot.buffer);
+                }
+            }
+            if (!queue.mWriteQueued) {
+                queue.mWriteRequest.close();
+            }
+        }
+    }
+
+    /**
+     * Returns whether {@code queue} is one of {@code queues}. Used to skip
+     * the requests of other users of a connection, including those of
+     * another {@code UsbRequestQueue}.
+     */
+    static boolean contains(UsbRequestQueue[] queues, UsbRequestQueue queue) {
+        for (final UsbRequestQueue q : queues) {
+            if ((q == queue) && (q != null)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}